@@ -0,0 +1,31 @@
+package android.content;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+// Stand-in for the framework class. Keeps insertion order so the generated SQL is stable.
+public final class ContentValues {
+
+    private final Map<String, Object> values = new LinkedHashMap<>();
+
+    public void put(String key, String value) {
+        values.put(key, value);
+    }
+
+    public void put(String key, Integer value) {
+        values.put(key, value);
+    }
+
+    public void put(String key, Long value) {
+        values.put(key, value);
+    }
+
+    public Set<Map.Entry<String, Object>> valueSet() {
+        return values.entrySet();
+    }
+
+    public int size() {
+        return values.size();
+    }
+}
@@ -0,0 +1,26 @@
+package android.content;
+
+import java.io.File;
+
+// Stand-in for the framework class with just what GalleryDatabaseHelper and ImageFetcher
+// use. Databases and caches live in a directory the benchmark or test picks.
+public class Context {
+
+    private final File databaseDirectory;
+
+    public Context(File databaseDirectory) {
+        this.databaseDirectory = databaseDirectory;
+    }
+
+    public Context getApplicationContext() {
+        return this;
+    }
+
+    public File getDatabasePath(String name) {
+        return new File(databaseDirectory, name);
+    }
+
+    public File getCacheDir() {
+        return new File(databaseDirectory, "cache");
+    }
+}
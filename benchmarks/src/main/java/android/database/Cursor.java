@@ -0,0 +1,26 @@
+package android.database;
+
+import java.io.Closeable;
+
+// The part of the framework interface the metadata store and the benchmarks use
+public interface Cursor extends Closeable {
+
+    int getCount();
+
+    boolean moveToFirst();
+
+    boolean moveToNext();
+
+    int getColumnIndexOrThrow(String columnName);
+
+    boolean isNull(int columnIndex);
+
+    String getString(int columnIndex);
+
+    long getLong(int columnIndex);
+
+    int getInt(int columnIndex);
+
+    @Override
+    void close();
+}
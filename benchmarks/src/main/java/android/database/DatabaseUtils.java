@@ -0,0 +1,21 @@
+package android.database;
+
+import android.database.sqlite.SQLiteDatabase;
+
+public final class DatabaseUtils {
+
+    private DatabaseUtils() {
+    }
+
+    public static long queryNumEntries(SQLiteDatabase db, String table, String selection) {
+        return queryNumEntries(db, table, selection, null);
+    }
+
+    public static long queryNumEntries(SQLiteDatabase db, String table, String selection, String[] selectionArgs) {
+        String where = selection != null && !selection.isEmpty() ? " WHERE " + selection : "";
+        try (Cursor cursor = db.rawQuery("SELECT COUNT(*) FROM " + table + where, selectionArgs)) {
+            cursor.moveToFirst();
+            return cursor.getLong(0);
+        }
+    }
+}
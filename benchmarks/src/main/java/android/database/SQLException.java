@@ -0,0 +1,8 @@
+package android.database;
+
+public class SQLException extends RuntimeException {
+
+    public SQLException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,98 @@
+package android.database.sqlite;
+
+import android.database.Cursor;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.util.ArrayList;
+import java.util.List;
+
+// Reads the whole result up front, like the framework filling its cursor window, so
+// the cost of a query lands where it would on a device
+final class SQLiteCursor implements Cursor {
+
+    private final String[] columnNames;
+    private final List<Object[]> rows = new ArrayList<>();
+    private int position = -1;
+
+    SQLiteCursor(ResultSet resultSet) throws java.sql.SQLException {
+        ResultSetMetaData metaData = resultSet.getMetaData();
+        columnNames = new String[metaData.getColumnCount()];
+        for (int i = 0; i < columnNames.length; i++) {
+            columnNames[i] = metaData.getColumnLabel(i + 1);
+        }
+        while (resultSet.next()) {
+            Object[] row = new Object[columnNames.length];
+            for (int i = 0; i < row.length; i++) {
+                row[i] = resultSet.getObject(i + 1);
+            }
+            rows.add(row);
+        }
+    }
+
+    @Override
+    public int getCount() {
+        return rows.size();
+    }
+
+    @Override
+    public boolean moveToFirst() {
+        position = 0;
+        return !rows.isEmpty();
+    }
+
+    @Override
+    public boolean moveToNext() {
+        if (position < rows.size()) {
+            position++;
+        }
+        return position < rows.size();
+    }
+
+    @Override
+    public int getColumnIndexOrThrow(String columnName) {
+        for (int i = 0; i < columnNames.length; i++) {
+            if (columnNames[i].equalsIgnoreCase(columnName)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("No column " + columnName);
+    }
+
+    @Override
+    public boolean isNull(int columnIndex) {
+        return value(columnIndex) == null;
+    }
+
+    @Override
+    public String getString(int columnIndex) {
+        Object value = value(columnIndex);
+        return value != null ? value.toString() : null;
+    }
+
+    @Override
+    public long getLong(int columnIndex) {
+        Object value = value(columnIndex);
+        if (value == null) {
+            return 0;
+        }
+        return value instanceof Number ? ((Number) value).longValue() : Long.parseLong(value.toString());
+    }
+
+    @Override
+    public int getInt(int columnIndex) {
+        return (int) getLong(columnIndex);
+    }
+
+    private Object value(int columnIndex) {
+        if (position < 0 || position >= rows.size()) {
+            throw new IllegalStateException("Cursor is not on a row");
+        }
+        return rows.get(position)[columnIndex];
+    }
+
+    @Override
+    public void close() {
+        rows.clear();
+    }
+}
@@ -0,0 +1,212 @@
+package android.database.sqlite;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.SQLException;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.Map;
+
+// Stand-in for the framework class over one sqlite-jdbc connection. SQL is built the way
+// SQLiteQueryBuilder builds it and selection arguments are bound as text, like on a
+// device, so the same statements reach SQLite and use the same query plans.
+public final class SQLiteDatabase {
+
+    public static final int CONFLICT_REPLACE = 5;
+
+    public interface CursorFactory {
+    }
+
+    private final Connection connection;
+    private PreparedStatement lastInsertRowId;
+    // Nested transactions join the outermost one, which commits only if all succeeded
+    private int transactionDepth;
+    private boolean transactionFailed;
+    private boolean currentSuccessful;
+
+    private SQLiteDatabase(Connection connection) {
+        this.connection = connection;
+    }
+
+    static SQLiteDatabase open(String path, boolean writeAheadLogging) {
+        try {
+            SQLiteDatabase db = new SQLiteDatabase(DriverManager.getConnection("jdbc:sqlite:" + path));
+            if (writeAheadLogging) {
+                // What the framework sets for WAL connections
+                db.execSQL("PRAGMA journal_mode=WAL");
+                db.execSQL("PRAGMA synchronous=NORMAL");
+            } else {
+                db.execSQL("PRAGMA synchronous=FULL");
+            }
+            return db;
+        } catch (java.sql.SQLException e) {
+            throw new SQLException("Cannot open " + path, e);
+        }
+    }
+
+    int getVersion() {
+        try (Cursor cursor = rawQuery("PRAGMA user_version", null)) {
+            cursor.moveToFirst();
+            return cursor.getInt(0);
+        }
+    }
+
+    void setVersion(int version) {
+        execSQL("PRAGMA user_version = " + version);
+    }
+
+    public void execSQL(String sql) {
+        try (java.sql.Statement statement = connection.createStatement()) {
+            statement.execute(sql);
+        } catch (java.sql.SQLException e) {
+            throw new SQLException(sql, e);
+        }
+    }
+
+    public SQLiteStatement compileStatement(String sql) {
+        return new SQLiteStatement(this, prepare(sql));
+    }
+
+    PreparedStatement prepare(String sql) {
+        try {
+            return connection.prepareStatement(sql);
+        } catch (java.sql.SQLException e) {
+            throw new SQLException(sql, e);
+        }
+    }
+
+    long lastInsertRowId() {
+        try {
+            if (lastInsertRowId == null) {
+                lastInsertRowId = connection.prepareStatement("SELECT last_insert_rowid()");
+            }
+            try (ResultSet resultSet = lastInsertRowId.executeQuery()) {
+                return resultSet.next() ? resultSet.getLong(1) : -1;
+            }
+        } catch (java.sql.SQLException e) {
+            throw new SQLException("last_insert_rowid", e);
+        }
+    }
+
+    public void beginTransaction() {
+        if (transactionDepth == 0) {
+            execSQL("BEGIN EXCLUSIVE");
+            transactionFailed = false;
+        }
+        transactionDepth++;
+        currentSuccessful = false;
+    }
+
+    public void setTransactionSuccessful() {
+        currentSuccessful = true;
+    }
+
+    public void endTransaction() {
+        if (transactionDepth == 0) {
+            throw new IllegalStateException("No transaction");
+        }
+        transactionFailed |= !currentSuccessful;
+        currentSuccessful = false;
+        transactionDepth--;
+        if (transactionDepth == 0) {
+            execSQL(transactionFailed ? "ROLLBACK" : "COMMIT");
+        }
+    }
+
+    public Cursor rawQuery(String sql, String[] selectionArgs) {
+        try (PreparedStatement statement = prepare(sql)) {
+            bindArgs(statement, selectionArgs);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return new SQLiteCursor(resultSet);
+            }
+        } catch (java.sql.SQLException e) {
+            throw new SQLException(sql, e);
+        }
+    }
+
+    public Cursor query(String table, String[] columns, String selection, String[] selectionArgs,
+                        String groupBy, String having, String orderBy) {
+        return query(table, columns, selection, selectionArgs, groupBy, having, orderBy, null);
+    }
+
+    public Cursor query(String table, String[] columns, String selection, String[] selectionArgs,
+                        String groupBy, String having, String orderBy, String limit) {
+        StringBuilder sql = new StringBuilder("SELECT ");
+        sql.append(columns != null ? String.join(", ", columns) : "*");
+        sql.append(" FROM ").append(table);
+        appendClause(sql, " WHERE ", selection);
+        appendClause(sql, " GROUP BY ", groupBy);
+        appendClause(sql, " HAVING ", having);
+        appendClause(sql, " ORDER BY ", orderBy);
+        appendClause(sql, " LIMIT ", limit);
+        return rawQuery(sql.toString(), selectionArgs);
+    }
+
+    private static void appendClause(StringBuilder sql, String name, String clause) {
+        if (clause != null && !clause.isEmpty()) {
+            sql.append(name).append(clause);
+        }
+    }
+
+    public long insertWithOnConflict(String table, String nullColumnHack, ContentValues values, int conflictAlgorithm) {
+        if (conflictAlgorithm != CONFLICT_REPLACE) {
+            throw new UnsupportedOperationException("Only CONFLICT_REPLACE is supported");
+        }
+        StringBuilder columns = new StringBuilder();
+        StringBuilder placeholders = new StringBuilder();
+        for (Map.Entry<String, Object> entry : values.valueSet()) {
+            columns.append(columns.length() > 0 ? ", " : "").append(entry.getKey());
+            placeholders.append(placeholders.length() > 0 ? ", ?" : "?");
+        }
+        String sql = "INSERT OR REPLACE INTO " + table + " (" + columns + ") VALUES (" + placeholders + ")";
+        try (SQLiteStatement statement = compileStatement(sql)) {
+            int index = 1;
+            for (Map.Entry<String, Object> entry : values.valueSet()) {
+                Object value = entry.getValue();
+                if (value == null) {
+                    statement.bindNull(index);
+                } else if (value instanceof String) {
+                    statement.bindString(index, (String) value);
+                } else {
+                    statement.bindLong(index, ((Number) value).longValue());
+                }
+                index++;
+            }
+            return statement.executeInsert();
+        }
+    }
+
+    public int delete(String table, String whereClause, String[] whereArgs) {
+        String where = whereClause != null && !whereClause.isEmpty() ? " WHERE " + whereClause : "";
+        try (SQLiteStatement statement = compileStatement("DELETE FROM " + table + where)) {
+            if (whereArgs != null) {
+                for (int i = 0; i < whereArgs.length; i++) {
+                    statement.bindString(i + 1, whereArgs[i]);
+                }
+            }
+            return statement.executeUpdateDelete();
+        }
+    }
+
+    private static void bindArgs(PreparedStatement statement, String[] args) throws java.sql.SQLException {
+        if (args != null) {
+            for (int i = 0; i < args.length; i++) {
+                statement.setString(i + 1, args[i]);
+            }
+        }
+    }
+
+    void close() {
+        try {
+            if (lastInsertRowId != null) {
+                lastInsertRowId.close();
+            }
+            connection.close();
+        } catch (java.sql.SQLException e) {
+            throw new SQLException("close", e);
+        }
+    }
+}
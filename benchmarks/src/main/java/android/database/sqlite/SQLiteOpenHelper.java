@@ -0,0 +1,64 @@
+package android.database.sqlite;
+
+import android.content.Context;
+
+import java.io.File;
+
+// Stand-in for the framework class over sqlite-jdbc. Opens one connection on first use
+// and runs onCreate or onUpgrade against PRAGMA user_version, as the framework does.
+public abstract class SQLiteOpenHelper {
+
+    private final Context context;
+    private final String name;
+    private final int version;
+    private boolean writeAheadLogging;
+    private SQLiteDatabase database;
+
+    public SQLiteOpenHelper(Context context, String name, SQLiteDatabase.CursorFactory factory, int version) {
+        this.context = context;
+        this.name = name;
+        this.version = version;
+    }
+
+    public abstract void onCreate(SQLiteDatabase db);
+
+    public abstract void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion);
+
+    public synchronized void setWriteAheadLoggingEnabled(boolean enabled) {
+        writeAheadLogging = enabled;
+    }
+
+    public synchronized SQLiteDatabase getWritableDatabase() {
+        if (database == null) {
+            File file = context.getDatabasePath(name);
+            database = SQLiteDatabase.open(file.getPath(), writeAheadLogging);
+            int currentVersion = database.getVersion();
+            if (currentVersion != version) {
+                database.beginTransaction();
+                try {
+                    if (currentVersion == 0) {
+                        onCreate(database);
+                    } else {
+                        onUpgrade(database, currentVersion, version);
+                    }
+                    database.setVersion(version);
+                    database.setTransactionSuccessful();
+                } finally {
+                    database.endTransaction();
+                }
+            }
+        }
+        return database;
+    }
+
+    public SQLiteDatabase getReadableDatabase() {
+        return getWritableDatabase();
+    }
+
+    public synchronized void close() {
+        if (database != null) {
+            database.close();
+            database = null;
+        }
+    }
+}
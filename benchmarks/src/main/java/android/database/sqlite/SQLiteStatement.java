@@ -0,0 +1,66 @@
+package android.database.sqlite;
+
+import android.database.SQLException;
+
+import java.io.Closeable;
+import java.sql.PreparedStatement;
+import java.sql.Types;
+
+// Stand-in for the framework class over a prepared JDBC statement. Bindings stay in
+// place between executions, as on a device.
+public final class SQLiteStatement implements Closeable {
+
+    private final SQLiteDatabase database;
+    private final PreparedStatement statement;
+
+    SQLiteStatement(SQLiteDatabase database, PreparedStatement statement) {
+        this.database = database;
+        this.statement = statement;
+    }
+
+    public void bindString(int index, String value) {
+        try {
+            statement.setString(index, value);
+        } catch (java.sql.SQLException e) {
+            throw new SQLException("bind " + index, e);
+        }
+    }
+
+    public void bindLong(int index, long value) {
+        try {
+            statement.setLong(index, value);
+        } catch (java.sql.SQLException e) {
+            throw new SQLException("bind " + index, e);
+        }
+    }
+
+    public void bindNull(int index) {
+        try {
+            statement.setNull(index, Types.NULL);
+        } catch (java.sql.SQLException e) {
+            throw new SQLException("bind " + index, e);
+        }
+    }
+
+    // Rowid of the inserted row, or -1 if none was inserted
+    public long executeInsert() {
+        return executeUpdateDelete() > 0 ? database.lastInsertRowId() : -1;
+    }
+
+    public int executeUpdateDelete() {
+        try {
+            return statement.executeUpdate();
+        } catch (java.sql.SQLException e) {
+            throw new SQLException("execute", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            statement.close();
+        } catch (java.sql.SQLException e) {
+            throw new SQLException("close", e);
+        }
+    }
+}
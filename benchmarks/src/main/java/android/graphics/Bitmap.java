@@ -0,0 +1,20 @@
+package android.graphics;
+
+// Stand-in so PerceptualHash compiles. The benchmarks hash int[] pixels directly and
+// never create a Bitmap.
+public final class Bitmap {
+
+    private Bitmap() {
+    }
+
+    public static Bitmap createScaledBitmap(Bitmap source, int width, int height, boolean filter) {
+        throw new UnsupportedOperationException("No bitmaps on the JVM");
+    }
+
+    public void getPixels(int[] pixels, int offset, int stride, int x, int y, int width, int height) {
+        throw new UnsupportedOperationException("No bitmaps on the JVM");
+    }
+
+    public void recycle() {
+    }
+}
@@ -0,0 +1,20 @@
+package android.net;
+
+// Stand-in for the framework class. Only parse and toString, which the metadata store uses.
+public final class Uri {
+
+    private final String uriString;
+
+    private Uri(String uriString) {
+        this.uriString = uriString;
+    }
+
+    public static Uri parse(String uriString) {
+        return new Uri(uriString);
+    }
+
+    @Override
+    public String toString() {
+        return uriString;
+    }
+}
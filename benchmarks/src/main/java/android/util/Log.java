@@ -0,0 +1,32 @@
+package android.util;
+
+// Stand-in that prints to stderr, for the app classes the tests run on the JVM.
+public final class Log {
+
+    private Log() {
+    }
+
+    public static int d(String tag, String message) {
+        return print(tag, message, null);
+    }
+
+    public static int w(String tag, String message) {
+        return print(tag, message, null);
+    }
+
+    public static int e(String tag, String message) {
+        return print(tag, message, null);
+    }
+
+    public static int e(String tag, String message, Throwable throwable) {
+        return print(tag, message, throwable);
+    }
+
+    private static int print(String tag, String message, Throwable throwable) {
+        System.err.println(tag + ": " + message);
+        if (throwable != null) {
+            throwable.printStackTrace();
+        }
+        return 0;
+    }
+}
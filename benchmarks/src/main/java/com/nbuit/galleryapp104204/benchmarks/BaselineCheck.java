@@ -0,0 +1,126 @@
+package com.nbuit.galleryapp104204.benchmarks;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Compares a JMH JSON result file against a committed baseline and exits with status 1
+// if any benchmark got slower, or allocates more, than the tolerance allows. A score
+// only counts as worse when its confidence interval clears the baseline's by more than
+// the tolerance, so noisy runs do not fail the check on their own. Scores are only
+// comparable when both runs used the same machine and JDK; see README.md.
+//
+//   java -cp target/benchmarks.jar com.nbuit.galleryapp104204.benchmarks.BaselineCheck \
+//       baselines/baseline.json results.json [tolerance]
+public final class BaselineCheck {
+
+    private static final double DEFAULT_TOLERANCE = 0.20;
+    private static final String ALLOCATION = "gc.alloc.rate.norm";
+    // Allocation per operation is nearly exact, a few bytes either way are noise
+    private static final double ALLOCATION_SLACK_BYTES = 16;
+
+    private BaselineCheck() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: BaselineCheck <baseline.json> <results.json> [tolerance]");
+            System.exit(2);
+        }
+        double tolerance = args.length > 2 ? Double.parseDouble(args[2]) : DEFAULT_TOLERANCE;
+        Map<String, JSONObject> baseline = read(args[0]);
+        Map<String, JSONObject> results = read(args[1]);
+
+        int regressions = 0;
+        for (Map.Entry<String, JSONObject> entry : results.entrySet()) {
+            JSONObject expected = baseline.get(entry.getKey());
+            if (expected == null) {
+                System.out.println("NEW        " + entry.getKey());
+                continue;
+            }
+            JSONObject actual = entry.getValue();
+            boolean higherIsBetter = "thrpt".equals(actual.getString("mode"));
+            JSONObject expectedScore = expected.getJSONObject("primaryMetric");
+            JSONObject actualScore = actual.getJSONObject("primaryMetric");
+            if (!report(entry.getKey(), expectedScore, actualScore, higherIsBetter, tolerance, 0)) {
+                regressions++;
+            }
+
+            JSONObject expectedAllocation = secondary(expected, ALLOCATION);
+            JSONObject actualAllocation = secondary(actual, ALLOCATION);
+            if (expectedAllocation != null && actualAllocation != null
+                    && !report(entry.getKey() + " [alloc]", expectedAllocation, actualAllocation,
+                    false, tolerance, ALLOCATION_SLACK_BYTES)) {
+                regressions++;
+            }
+        }
+        for (String key : baseline.keySet()) {
+            if (!results.containsKey(key)) {
+                System.out.println("MISSING    " + key);
+            }
+        }
+
+        if (regressions > 0) {
+            System.out.println(regressions + " regression(s) beyond " + Math.round(tolerance * 100) + "%");
+            System.exit(1);
+        }
+        System.out.println("No regressions beyond " + Math.round(tolerance * 100) + "%");
+    }
+
+    // Prints one comparison and returns false if it is a regression
+    private static boolean report(String name, JSONObject expected, JSONObject actual,
+                                  boolean higherIsBetter, double tolerance, double slack) {
+        double before = expected.getDouble("score");
+        double after = actual.getDouble("score");
+        double beforeError = error(expected);
+        double afterError = error(actual);
+        double change = before != 0 ? (after - before) / before : 0;
+        boolean regressed = higherIsBetter
+                ? after + afterError < (before - beforeError) * (1 - tolerance) - slack
+                : after - afterError > (before + beforeError) * (1 + tolerance) + slack;
+        System.out.println(String.format(Locale.ROOT, "%-10s %s: %.4g -> %.4g %s (%+.1f%%)",
+                regressed ? "REGRESSED" : "ok", name, before, after,
+                actual.optString("scoreUnit"), change * 100));
+        return !regressed;
+    }
+
+    // Half width of the 99.9% confidence interval, 0 for single-iteration runs
+    private static double error(JSONObject metric) {
+        double error = metric.optDouble("scoreError", 0);
+        return Double.isNaN(error) ? 0 : error;
+    }
+
+    private static JSONObject secondary(JSONObject result, String metric) {
+        JSONObject metrics = result.optJSONObject("secondaryMetrics");
+        return metrics != null ? metrics.optJSONObject(metric) : null;
+    }
+
+    // Results keyed by benchmark, mode and parameters
+    private static Map<String, JSONObject> read(String path) throws IOException {
+        String text = new String(Files.readAllBytes(Paths.get(path)), StandardCharsets.UTF_8);
+        JSONArray array = new JSONArray(text);
+        Map<String, JSONObject> results = new LinkedHashMap<>();
+        for (int i = 0; i < array.length(); i++) {
+            JSONObject result = array.getJSONObject(i);
+            StringBuilder key = new StringBuilder(result.getString("benchmark"))
+                    .append(" ").append(result.getString("mode"));
+            JSONObject params = result.optJSONObject("params");
+            if (params != null) {
+                Map<String, Object> sorted = new TreeMap<>(params.toMap());
+                for (Map.Entry<String, Object> param : sorted.entrySet()) {
+                    key.append(" ").append(param.getKey()).append("=").append(param.getValue());
+                }
+            }
+            results.put(key.toString(), result);
+        }
+        return results;
+    }
+}
@@ -0,0 +1,89 @@
+package com.nbuit.galleryapp104204.benchmarks;
+
+import com.nbuit.galleryapp104204.ColorMatrices;
+import com.nbuit.galleryapp104204.Histogram;
+import com.nbuit.galleryapp104204.PixelKernels;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+// The per-pixel kernels behind the editor's color effects and histogram, over one
+// FilterEngine stripe worth of pixels. Scores are per pixel: ns/pixel in average time mode, pixels/ns in
+// throughput mode. The kernels work in place and cost the same whatever the pixels
+// hold, so the stripe is not restored between calls.
+@BenchmarkMode({Mode.AverageTime, Mode.Throughput})
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ColorKernelBenchmark {
+
+    private static final int WIDTH = 1024;
+    private static final int HEIGHT = 256;
+    private static final int PIXELS = WIDTH * HEIGHT;
+
+    private int[] pixels;
+    private int[] fusedMatrix;
+    private int[] levelsTable;
+    private int[] bins;
+
+    @Setup
+    public void setUp() {
+        pixels = SyntheticImages.photo(WIDTH, HEIGHT, 1);
+        // Three stacked editor effects, fused into one matrix as FilterPipeline does
+        float[] matrix = ColorMatrices.concat(ColorMatrices.saturation(1.3f),
+                ColorMatrices.concat(ColorMatrices.contrast(1.2f), ColorMatrices.brightness(20)));
+        fusedMatrix = ColorMatrices.toFixedPoint(matrix);
+        levelsTable = PixelKernels.levelsTable(new int[]{12, 8, 16, 240, 236, 244});
+        bins = new int[Histogram.SIZE];
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PIXELS)
+    public int[] greyscale() {
+        PixelKernels.greyscale(pixels, 0, PIXELS);
+        return pixels;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PIXELS)
+    public int[] invert() {
+        PixelKernels.invert(pixels, 0, PIXELS);
+        return pixels;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PIXELS)
+    public int[] colorMatrix() {
+        PixelKernels.colorMatrix(pixels, 0, PIXELS, fusedMatrix);
+        return pixels;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PIXELS)
+    public int[] levels() {
+        PixelKernels.lookup(pixels, 0, PIXELS, levelsTable);
+        return pixels;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PIXELS)
+    public int[] histogram() {
+        Arrays.fill(bins, 0);
+        Histogram.accumulate(pixels, 0, PIXELS, bins);
+        return bins;
+    }
+}
@@ -0,0 +1,84 @@
+package com.nbuit.galleryapp104204.benchmarks;
+
+import com.nbuit.galleryapp104204.BkTree;
+import com.nbuit.galleryapp104204.PerceptualHash;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Duplicate detection: hashing one downscaled thumbnail, and looking a hash up in a
+// library-sized BK-tree at the distance DuplicateFinder uses.
+@BenchmarkMode({Mode.AverageTime, Mode.Throughput})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HashBenchmark {
+
+    // DuplicateFinder.DEFAULT_MAX_DISTANCE, which lives in an Android class
+    private static final int MAX_DISTANCE = 8;
+    private static final int QUERIES = 1024;
+
+    @State(Scope.Thread)
+    public static class Thumbnail {
+        int[] pixels;
+
+        @Setup
+        public void setUp() {
+            pixels = SyntheticImages.photo(PerceptualHash.WIDTH, PerceptualHash.HEIGHT, 5);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Library {
+        @Param({"10000", "100000"})
+        public int libraryPhotos;
+
+        BkTree tree;
+        long[] queries;
+        int nextQuery;
+
+        @Setup
+        public void setUp() {
+            Random random = new Random(6);
+            tree = new BkTree();
+            long[] hashes = new long[libraryPhotos];
+            for (int i = 0; i < libraryPhotos; i++) {
+                hashes[i] = random.nextLong();
+                tree.add(hashes[i], i);
+            }
+            // Half the lookups are near copies of a stored photo, the rest unrelated
+            queries = new long[QUERIES];
+            for (int i = 0; i < QUERIES; i++) {
+                queries[i] = i % 2 == 0
+                        ? hashes[random.nextInt(libraryPhotos)] ^ (1L << random.nextInt(64))
+                        : random.nextLong();
+            }
+        }
+    }
+
+    @Benchmark
+    public long dHash(Thumbnail thumbnail) {
+        return PerceptualHash.dHash(thumbnail.pixels);
+    }
+
+    @Benchmark
+    public List<Long> bkTreeSearch(Library library) {
+        long query = library.queries[library.nextQuery];
+        library.nextQuery = (library.nextQuery + 1) % QUERIES;
+        return library.tree.search(query, MAX_DISTANCE);
+    }
+}
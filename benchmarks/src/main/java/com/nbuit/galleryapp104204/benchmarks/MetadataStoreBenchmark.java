@@ -0,0 +1,173 @@
+package com.nbuit.galleryapp104204.benchmarks;
+
+import android.content.Context;
+import android.database.Cursor;
+
+import com.nbuit.galleryapp104204.GalleryDatabaseHelper;
+import com.nbuit.galleryapp104204.ImageFilter;
+import com.nbuit.galleryapp104204.ImageRecord;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// GalleryDatabaseHelper as the app runs it, over sqlite-jdbc through the stand-in
+// android.database classes: the batch writes MediaStoreSync makes and the page and
+// search queries behind the grid. The database is on disk in WAL mode, like on a device.
+@BenchmarkMode({Mode.AverageTime, Mode.Throughput})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MetadataStoreBenchmark {
+
+    // MediaStoreSync.BATCH_SIZE and PagedImageList.DEFAULT_PAGE_SIZE
+    private static final int BATCH_SIZE = 500;
+    private static final int PAGE_SIZE = 120;
+    private static final long START_DATE = 1_500_000_000_000L;
+    private static final long DAY = 24 * 60 * 60 * 1000L;
+
+    @Param({"10000", "100000"})
+    public int libraryPhotos;
+
+    private File directory;
+    private GalleryDatabaseHelper helper;
+    private List<ImageRecord> newBatch;
+    private List<String> newBatchUris;
+    private List<ImageRecord> changedBatch;
+    private String middleDateTaken;
+    private long middleId;
+    private ImageFilter nameFilter;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("gallery-bench").toFile();
+        helper = GalleryDatabaseHelper.getInstance(new Context(directory));
+        Random random = new Random(8);
+        List<ImageRecord> library = new ArrayList<>(libraryPhotos);
+        for (int i = 0; i < libraryPhotos; i++) {
+            library.add(record(i, random, 0));
+        }
+        for (int i = 0; i < libraryPhotos; i += BATCH_SIZE) {
+            helper.insertImages(library.subList(i, Math.min(libraryPhotos, i + BATCH_SIZE)));
+        }
+
+        newBatch = new ArrayList<>(BATCH_SIZE);
+        newBatchUris = new ArrayList<>(BATCH_SIZE);
+        changedBatch = new ArrayList<>(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            ImageRecord record = record(libraryPhotos + i, random, 0);
+            newBatch.add(record);
+            newBatchUris.add(record.uri);
+            // Edited photos: same uri, newer modification date
+            changedBatch.add(record(random.nextInt(libraryPhotos), random, DAY));
+        }
+
+        // Where a user half way down the grid would continue from
+        try (Cursor cursor = helper.queryImagesAtOffset(GalleryDatabaseHelper.COLUMN_DATE_TAKEN, true,
+                null, libraryPhotos / 2, 1)) {
+            cursor.moveToFirst();
+            middleDateTaken = cursor.getString(1);
+            middleId = cursor.getLong(2);
+        }
+        nameFilter = new ImageFilter();
+        nameFilter.text = "IMG_2019";
+    }
+
+    private static ImageRecord record(int index, Random random, long modifiedLater) {
+        long dateTaken = START_DATE + (long) (random.nextDouble() * 2000 * DAY);
+        int year = 2017 + (int) ((dateTaken - START_DATE) / (365 * DAY));
+        boolean portrait = random.nextBoolean();
+        return new ImageRecord("content://media/external/images/media/" + (index + 1),
+                "IMG_" + year + "_" + index + ".jpg",
+                portrait ? 3024 : 4032, portrait ? 4032 : 3024,
+                1_000_000 + random.nextInt(6_000_000), "image/jpeg",
+                dateTaken, dateTaken + modifiedLater, 0);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        helper.close();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    // Keeps the table at its starting size between calls of insertBatch
+    @State(Scope.Thread)
+    public static class InsertedRows {
+        @TearDown(Level.Invocation)
+        public void deleteInserted(MetadataStoreBenchmark benchmark) {
+            benchmark.helper.deleteImages(benchmark.newBatchUris);
+        }
+    }
+
+    @Benchmark
+    public void insertBatch(InsertedRows insertedRows) {
+        helper.insertImages(newBatch);
+    }
+
+    @Benchmark
+    public List<ImageRecord> upsertBatch() {
+        return helper.upsertImages(changedBatch);
+    }
+
+    @Benchmark
+    public void firstPage(Blackhole blackhole) {
+        try (Cursor cursor = helper.queryImagesPage(GalleryDatabaseHelper.COLUMN_DATE_TAKEN, true,
+                null, null, 0, PAGE_SIZE)) {
+            consume(cursor, blackhole);
+        }
+    }
+
+    @Benchmark
+    public void keysetPage(Blackhole blackhole) {
+        try (Cursor cursor = helper.queryImagesPage(GalleryDatabaseHelper.COLUMN_DATE_TAKEN, true,
+                null, middleDateTaken, middleId, PAGE_SIZE)) {
+            consume(cursor, blackhole);
+        }
+    }
+
+    @Benchmark
+    public void offsetPage(Blackhole blackhole) {
+        try (Cursor cursor = helper.queryImagesAtOffset(GalleryDatabaseHelper.COLUMN_DATE_TAKEN, true,
+                null, libraryPhotos / 2, PAGE_SIZE)) {
+            consume(cursor, blackhole);
+        }
+    }
+
+    @Benchmark
+    public int nameSearchCount() {
+        return helper.getImageCount(nameFilter);
+    }
+
+    private static void consume(Cursor cursor, Blackhole blackhole) {
+        while (cursor.moveToNext()) {
+            blackhole.consume(cursor.getString(0));
+            blackhole.consume(cursor.getLong(2));
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.nbuit.galleryapp104204.benchmarks;
+
+import com.nbuit.galleryapp104204.PngStreamWriter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+// The streaming PNG encoder behind tiled exports: one band of rows, filtered and
+// deflated at the compression level TiledRenderer uses. Scores are per pixel.
+@BenchmarkMode({Mode.AverageTime, Mode.Throughput})
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PngEncodeBenchmark {
+
+    private static final int WIDTH = 2048;
+    private static final int ROWS = 64;
+    private static final int PIXELS = WIDTH * ROWS;
+    private static final int COMPRESSION = 6;
+
+    private int[] band;
+    private CountingStream out;
+
+    // Counts the bytes instead of keeping them, so only the encoder is measured
+    static final class CountingStream extends OutputStream {
+        long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        band = SyntheticImages.photo(WIDTH, ROWS, 7);
+        out = new CountingStream();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PIXELS)
+    public long encodeBand() throws IOException {
+        PngStreamWriter writer = new PngStreamWriter(out, WIDTH, ROWS, false, COMPRESSION);
+        writer.writeRows(band, 0, WIDTH, ROWS);
+        writer.finish();
+        return out.count;
+    }
+}
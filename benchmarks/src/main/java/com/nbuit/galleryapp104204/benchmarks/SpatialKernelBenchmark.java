@@ -0,0 +1,116 @@
+package com.nbuit.galleryapp104204.benchmarks;
+
+import com.nbuit.galleryapp104204.SpatialKernels;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// The neighbourhood kernels on one FilterEngine tile, halo included in the input.
+// Scores are per output pixel. Scratch is reused across calls like the engine's
+// per-thread one, so steady state allocates nothing.
+@BenchmarkMode({Mode.AverageTime, Mode.Throughput})
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SpatialKernelBenchmark {
+
+    private static final int TILE = 256;
+    private static final int TILE_PIXELS = TILE * TILE;
+
+    // Below 3 the exact kernel runs, above it the three box blurs
+    @State(Scope.Thread)
+    public static class Blur {
+        @Param({"1.5", "20"})
+        public float sigma;
+
+        int halo;
+        int inSize;
+        int[] in;
+        int[] out;
+        final SpatialKernels.Scratch scratch = new SpatialKernels.Scratch();
+
+        @Setup
+        public void setUp() {
+            halo = SpatialKernels.gaussianHalo(sigma);
+            inSize = TILE + 2 * halo;
+            in = SyntheticImages.photo(inSize, inSize, 2);
+            out = new int[TILE_PIXELS];
+        }
+    }
+
+    // The editor's Box Blur, which uses twice the blur sigma as radius
+    @State(Scope.Thread)
+    public static class Box {
+        @Param({"4", "40"})
+        public int radius;
+
+        int inSize;
+        int[] in;
+        int[] out;
+        final SpatialKernels.Scratch scratch = new SpatialKernels.Scratch();
+
+        @Setup
+        public void setUp() {
+            inSize = TILE + 2 * radius;
+            in = SyntheticImages.photo(inSize, inSize, 3);
+            out = new int[TILE_PIXELS];
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Edges {
+        int inSize;
+        int[] in;
+        int[] out;
+        final SpatialKernels.Scratch scratch = new SpatialKernels.Scratch();
+
+        @Setup
+        public void setUp() {
+            inSize = TILE + 2;
+            in = SyntheticImages.photo(inSize, inSize, 4);
+            out = new int[TILE_PIXELS];
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TILE_PIXELS)
+    public int[] gaussianBlur(Blur state) {
+        SpatialKernels.gaussianBlur(state.in, state.inSize, state.inSize, state.sigma, state.out, state.scratch);
+        return state.out;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TILE_PIXELS)
+    public int[] unsharpMask(Blur state) {
+        SpatialKernels.unsharpMask(state.in, state.inSize, state.inSize, state.sigma, 0.8f, 3,
+                state.out, state.scratch);
+        return state.out;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TILE_PIXELS)
+    public int[] boxBlur(Box state) {
+        SpatialKernels.boxBlur(state.in, state.inSize, state.inSize, state.radius, state.out, state.scratch);
+        return state.out;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TILE_PIXELS)
+    public int[] edgeDetect(Edges state) {
+        SpatialKernels.edgeDetect(state.in, state.inSize, state.inSize, state.out, state.scratch);
+        return state.out;
+    }
+}
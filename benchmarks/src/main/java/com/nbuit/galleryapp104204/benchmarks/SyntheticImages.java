@@ -0,0 +1,30 @@
+package com.nbuit.galleryapp104204.benchmarks;
+
+import java.util.Random;
+
+// Photo-like test pixels: smooth gradients with a little sensor noise, so encoders and
+// thresholded kernels see realistic data. The same seed always gives the same image.
+final class SyntheticImages {
+
+    private SyntheticImages() {
+    }
+
+    static int[] photo(int width, int height, long seed) {
+        Random random = new Random(seed);
+        int[] pixels = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int r = 40 + 180 * x / Math.max(1, width - 1);
+                int g = 60 + 150 * y / Math.max(1, height - 1);
+                int b = 128 + (int) (80 * Math.sin((x + y) / 37.0));
+                pixels[y * width + x] = 0xFF000000
+                        | (noisy(r, random) << 16) | (noisy(g, random) << 8) | noisy(b, random);
+            }
+        }
+        return pixels;
+    }
+
+    private static int noisy(int value, Random random) {
+        return Math.max(0, Math.min(255, value + random.nextInt(9) - 4));
+    }
+}
@@ -0,0 +1,235 @@
+package com.nbuit.galleryapp104204;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+// Runs ImageFetcher against a local HTTP server standing in for the image API.
+public class ImageFetcherTest {
+
+    private static final long TIMEOUT_SECONDS = 10;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+    private ExecutorService callers;
+    private File cacheDirectory;
+    // Request paths in the order the server saw them
+    private final List<String> requests = Collections.synchronizedList(new ArrayList<>());
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        serverExecutor = Executors.newCachedThreadPool();
+        server.setExecutor(serverExecutor);
+        server.start();
+        callers = Executors.newCachedThreadPool();
+        cacheDirectory = folder.newFolder("http");
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+        serverExecutor.shutdownNow();
+        callers.shutdownNow();
+    }
+
+    @Test
+    public void streamsResponseIntoCache() throws Exception {
+        byte[] body = new byte[1024 * 1024 + 17];
+        new Random(1).nextBytes(body);
+        server.createContext("/large.png", exchange -> {
+            requests.add(exchange.getRequestURI().getPath());
+            exchange.getResponseHeaders().set("Content-Type", "image/png");
+            exchange.getResponseHeaders().set("Cache-Control", "max-age=60");
+            // Chunked, so the length is only known once the body has been read
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream out = exchange.getResponseBody()) {
+                for (int offset = 0; offset < body.length; offset += 8192) {
+                    out.write(body, offset, Math.min(8192, body.length - offset));
+                }
+            }
+        });
+        ImageFetcher fetcher = newFetcher(4);
+
+        ImageFetcher.FetchedImage image = fetcher.fetch(url("/large.png"), ImageFetcher.PRIORITY_VISIBLE);
+
+        assertEquals(cacheDirectory, image.file.getParentFile());
+        assertArrayEquals(body, Files.readAllBytes(image.file.toPath()));
+        assertEquals("image/png", image.mimeType);
+        String[] leftovers = cacheDirectory.list((directory, name) -> name.startsWith("tmp-"));
+        assertEquals(Collections.emptyList(), Arrays.asList(leftovers));
+
+        // Still fresh, served from disk without asking the server
+        ImageFetcher.FetchedImage cached = fetcher.fetch(url("/large.png"), ImageFetcher.PRIORITY_VISIBLE);
+        assertEquals(image.file, cached.file);
+        assertEquals(1, requests.size());
+    }
+
+    @Test
+    public void revalidatesStaleEntryWithEtag() throws Exception {
+        byte[] body = "first version".getBytes("UTF-8");
+        List<String> conditions = Collections.synchronizedList(new ArrayList<>());
+        server.createContext("/photo.jpg", exchange -> {
+            String condition = exchange.getRequestHeaders().getFirst("If-None-Match");
+            conditions.add(condition);
+            exchange.getResponseHeaders().set("ETag", "\"v1\"");
+            exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+            if ("\"v1\"".equals(condition)) {
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Type", "image/jpeg");
+            sendBody(exchange, body);
+        });
+        ImageFetcher fetcher = newFetcher(4);
+
+        ImageFetcher.FetchedImage first = fetcher.fetch(url("/photo.jpg"), ImageFetcher.PRIORITY_VISIBLE);
+        long firstModified = first.file.lastModified();
+        ImageFetcher.FetchedImage second = fetcher.fetch(url("/photo.jpg"), ImageFetcher.PRIORITY_VISIBLE);
+
+        assertEquals(2, conditions.size());
+        assertNull(conditions.get(0));
+        assertEquals("\"v1\"", conditions.get(1));
+        assertEquals(first.file, second.file);
+        assertTrue(second.file.lastModified() >= firstModified);
+        assertArrayEquals(body, Files.readAllBytes(second.file.toPath()));
+        assertEquals("image/jpeg", second.mimeType);
+    }
+
+    @Test
+    public void limitsConnectionsPerHost() throws Exception {
+        AtomicInteger active = new AtomicInteger();
+        AtomicInteger mostActive = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        server.createContext("/slow/", exchange -> {
+            int now = active.incrementAndGet();
+            mostActive.accumulateAndGet(now, Math::max);
+            try {
+                release.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            active.decrementAndGet();
+            sendBody(exchange, new byte[]{1, 2, 3});
+        });
+        ImageFetcher fetcher = newFetcher(2);
+
+        List<Future<ImageFetcher.FetchedImage>> fetches = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            String imageUrl = url("/slow/" + i);
+            fetches.add(callers.submit(() -> fetcher.fetch(imageUrl, ImageFetcher.PRIORITY_VISIBLE)));
+        }
+        waitFor(() -> active.get() == 2);
+        // Give any request that got past the limit time to show up
+        Thread.sleep(200);
+        assertEquals(2, active.get());
+
+        release.countDown();
+        for (Future<ImageFetcher.FetchedImage> fetch : fetches) {
+            assertArrayEquals(new byte[]{1, 2, 3},
+                    Files.readAllBytes(fetch.get(TIMEOUT_SECONDS, TimeUnit.SECONDS).file.toPath()));
+        }
+        assertEquals(2, mostActive.get());
+    }
+
+    @Test
+    public void joinedFetchTakesHigherPriority() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        server.createContext("/", exchange -> {
+            String path = exchange.getRequestURI().getPath();
+            requests.add(path);
+            if (path.equals("/busy")) {
+                try {
+                    release.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            sendBody(exchange, path.getBytes("UTF-8"));
+        });
+        ImageFetcher fetcher = newFetcher(1);
+
+        // Holds the only connection while the others queue up
+        Future<ImageFetcher.FetchedImage> busy = callers.submit(
+                () -> fetcher.fetch(url("/busy"), ImageFetcher.PRIORITY_VISIBLE));
+        waitFor(() -> requests.size() == 1);
+        Future<ImageFetcher.FetchedImage> save = callers.submit(
+                () -> fetcher.fetch(url("/save"), ImageFetcher.PRIORITY_SAVE));
+        Thread.sleep(100);
+        Future<ImageFetcher.FetchedImage> prefetch = callers.submit(
+                () -> fetcher.fetch(url("/prefetch"), ImageFetcher.PRIORITY_PREFETCH));
+        Thread.sleep(100);
+        // A visible cell joins the queued save, which should now go before the prefetch
+        Future<ImageFetcher.FetchedImage> visible = callers.submit(
+                () -> fetcher.fetch(url("/save"), ImageFetcher.PRIORITY_VISIBLE));
+        Thread.sleep(100);
+
+        release.countDown();
+        for (Future<ImageFetcher.FetchedImage> fetch : Arrays.asList(busy, save, prefetch, visible)) {
+            fetch.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        }
+        assertEquals(Arrays.asList("/busy", "/save", "/prefetch"), requests);
+        assertEquals(save.get().file, visible.get().file);
+    }
+
+    private ImageFetcher newFetcher(int maxConnectionsPerHost) {
+        return new ImageFetcher(new DiskCache(cacheDirectory, 16L * 1024 * 1024), maxConnectionsPerHost);
+    }
+
+    private String url(String path) {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + path;
+    }
+
+    private static void sendBody(HttpExchange exchange, byte[] body) throws IOException {
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private interface Condition {
+        boolean holds();
+    }
+
+    private static void waitFor(Condition condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+        while (!condition.holds()) {
+            if (System.nanoTime() > deadline) {
+                throw new AssertionError("Timed out waiting");
+            }
+            Thread.sleep(10);
+        }
+    }
+}
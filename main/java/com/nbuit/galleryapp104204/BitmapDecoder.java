@@ -0,0 +1,131 @@
+package com.nbuit.galleryapp104204;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.os.Build;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+public class BitmapDecoder {
+
+    public interface StreamOpener {
+        InputStream open() throws IOException;
+    }
+
+    // Reads the header first, then decodes with the largest power-of-two sample size
+    // that still keeps the shorter side at or above targetSize. With exact set, the
+    // result is scaled the rest of the way so its shorter side equals targetSize.
+    public static Bitmap decodeSampled(StreamOpener opener, int targetSize, boolean exact) throws IOException {
+        BitmapFactory.Options options = decodeBounds(opener);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = calculateInSampleSize(options.outWidth, options.outHeight, targetSize);
+
+        Bitmap bitmap = decodeReusingPool(opener, options);
+        if (bitmap == null || !exact) {
+            return bitmap;
+        }
+        return scaleToCover(bitmap, targetSize);
+    }
+
+    // Only reads the header. outWidth and outHeight are 0 or less if it is not an image.
+    public static BitmapFactory.Options decodeBounds(StreamOpener opener) throws IOException {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        try (InputStream inputStream = opener.open()) {
+            BitmapFactory.decodeStream(inputStream, null, options);
+        }
+        return options;
+    }
+
+    // Decodes into a pooled bitmap when one of a suitable size is available. Expects
+    // options to already carry the bounds and sample size. The pooled bitmap goes back
+    // to the pool if the decode fails.
+    public static Bitmap decodeReusingPool(StreamOpener opener, BitmapFactory.Options options) throws IOException {
+        BitmapPool pool = BitmapPool.getInstance();
+        int sampledWidth = (options.outWidth + options.inSampleSize - 1) / options.inSampleSize;
+        int sampledHeight = (options.outHeight + options.inSampleSize - 1) / options.inSampleSize;
+        options.inMutable = true;
+        options.inBitmap = pool.getReusable(sampledWidth, sampledHeight, options.inPreferredConfig);
+
+        try (InputStream inputStream = opener.open()) {
+            Bitmap bitmap = BitmapFactory.decodeStream(inputStream, null, options);
+            if (bitmap == null) {
+                pool.put(options.inBitmap);
+            }
+            return bitmap;
+        } catch (IllegalArgumentException e) {
+            if (options.inBitmap == null) {
+                throw e;
+            }
+            // The decoder refused the pooled bitmap, fall back to a fresh allocation
+            pool.put(options.inBitmap);
+            options.inBitmap = null;
+            try (InputStream inputStream = opener.open()) {
+                return BitmapFactory.decodeStream(inputStream, null, options);
+            }
+        } catch (IOException | RuntimeException e) {
+            pool.put(options.inBitmap);
+            throw e;
+        }
+    }
+
+    // Null if the format does not support region decoding
+    @SuppressWarnings("deprecation")
+    public static BitmapRegionDecoder newRegionDecoder(StreamOpener opener) throws IOException {
+        try (InputStream inputStream = opener.open()) {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
+                return BitmapRegionDecoder.newInstance(inputStream);
+            }
+            return BitmapRegionDecoder.newInstance(inputStream, false);
+        }
+    }
+
+    public static int calculateInSampleSize(int width, int height, int targetSize) {
+        int shortestSide = Math.min(width, height);
+        int sampleSize = 1;
+        while (shortestSide / (sampleSize * 2) >= targetSize) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    public static Bitmap scaleToCover(Bitmap bitmap, int targetSize) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        int shortestSide = Math.min(width, height);
+        if (shortestSide <= targetSize) {
+            return bitmap;
+        }
+        float scale = (float) targetSize / shortestSide;
+        int scaledWidth = Math.max(1, Math.round(width * scale));
+        int scaledHeight = Math.max(1, Math.round(height * scale));
+
+        BitmapPool pool = BitmapPool.getInstance();
+        Bitmap scaled = pool.get(scaledWidth, scaledHeight, bitmap.getConfig());
+        new Canvas(scaled).drawBitmap(bitmap, null,
+                new Rect(0, 0, scaledWidth, scaledHeight),
+                new Paint(Paint.FILTER_BITMAP_FLAG));
+        pool.put(bitmap);
+        return scaled;
+    }
+
+    public static byte[] readFully(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        byte[] buffer = new byte[16 * 1024];
+        int read;
+        while ((read = inputStream.read(buffer)) != -1) {
+            outputStream.write(buffer, 0, read);
+        }
+        return outputStream.toByteArray();
+    }
+}
@@ -0,0 +1,185 @@
+package com.nbuit.galleryapp104204;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.TreeMap;
+
+public class BitmapPool {
+
+    // A pooled bitmap is only handed out if it is at most this many times larger than needed
+    private static final int MAX_SIZE_MULTIPLE = 4;
+
+    private static BitmapPool instance;
+
+    private final long maxBytes;
+    private long currentBytes;
+
+    // config -> allocation size -> bitmaps of that size, newest last
+    private final Map<Bitmap.Config, TreeMap<Integer, ArrayDeque<Bitmap>>> buckets = new HashMap<>();
+    // insertion order across all buckets, oldest first, used for eviction
+    private final LinkedHashSet<Bitmap> lruOrder = new LinkedHashSet<>();
+
+    private long hits;
+    private long misses;
+    private long puts;
+    private long evictions;
+
+    public static synchronized BitmapPool getInstance() {
+        if (instance == null) {
+            instance = new BitmapPool(Runtime.getRuntime().maxMemory() / 8);
+        }
+        return instance;
+    }
+
+    public BitmapPool(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    // Returns a cleared bitmap of exactly width x height, allocating one if nothing fits.
+    public Bitmap get(int width, int height, Bitmap.Config config) {
+        Bitmap bitmap = getReusable(width, height, config);
+        if (bitmap == null) {
+            return Bitmap.createBitmap(width, height, normalize(config));
+        }
+        bitmap.eraseColor(Color.TRANSPARENT);
+        return bitmap;
+    }
+
+    // Like get(), but a reused bitmap keeps its old pixels. Only for callers that
+    // overwrite every pixel.
+    public Bitmap getDirty(int width, int height, Bitmap.Config config) {
+        Bitmap bitmap = getReusable(width, height, config);
+        if (bitmap == null) {
+            return Bitmap.createBitmap(width, height, normalize(config));
+        }
+        return bitmap;
+    }
+
+    // Returns a pooled bitmap reconfigured to width x height, or null on a miss.
+    // Suitable for BitmapFactory.Options.inBitmap.
+    public synchronized Bitmap getReusable(int width, int height, Bitmap.Config config) {
+        config = normalize(config);
+        long requiredBytes = (long) width * height * bytesPerPixel(config);
+        TreeMap<Integer, ArrayDeque<Bitmap>> sizes = buckets.get(config);
+        Integer size = sizes != null && requiredBytes <= Integer.MAX_VALUE
+                ? sizes.ceilingKey((int) requiredBytes)
+                : null;
+        if (size == null || size > requiredBytes * MAX_SIZE_MULTIPLE) {
+            misses++;
+            return null;
+        }
+
+        ArrayDeque<Bitmap> bucket = sizes.get(size);
+        Bitmap bitmap = bucket.pollLast();
+        if (bucket.isEmpty()) {
+            sizes.remove(size);
+        }
+        lruOrder.remove(bitmap);
+        currentBytes -= size;
+
+        bitmap.reconfigure(width, height, config);
+        hits++;
+        return bitmap;
+    }
+
+    // Hands a bitmap back to the pool. The caller must not use it afterwards.
+    public synchronized void put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled()) {
+            return;
+        }
+        if (lruOrder.contains(bitmap)) {
+            return;
+        }
+        int size = bitmap.getAllocationByteCount();
+        if (!bitmap.isMutable() || bitmap.getConfig() == null || size > maxBytes) {
+            bitmap.recycle();
+            return;
+        }
+
+        TreeMap<Integer, ArrayDeque<Bitmap>> sizes = buckets.get(bitmap.getConfig());
+        if (sizes == null) {
+            sizes = new TreeMap<>();
+            buckets.put(bitmap.getConfig(), sizes);
+        }
+        ArrayDeque<Bitmap> bucket = sizes.get(size);
+        if (bucket == null) {
+            bucket = new ArrayDeque<>();
+            sizes.put(size, bucket);
+        }
+        bucket.addLast(bitmap);
+        lruOrder.add(bitmap);
+        currentBytes += size;
+        puts++;
+
+        trimToSize(maxBytes);
+    }
+
+    public synchronized void trimToSize(long targetBytes) {
+        Iterator<Bitmap> iterator = lruOrder.iterator();
+        while (currentBytes > targetBytes && iterator.hasNext()) {
+            Bitmap bitmap = iterator.next();
+            iterator.remove();
+
+            int size = bitmap.getAllocationByteCount();
+            TreeMap<Integer, ArrayDeque<Bitmap>> sizes = buckets.get(bitmap.getConfig());
+            ArrayDeque<Bitmap> bucket = sizes.get(size);
+            bucket.remove(bitmap);
+            if (bucket.isEmpty()) {
+                sizes.remove(size);
+            }
+            currentBytes -= size;
+            evictions++;
+            bitmap.recycle();
+        }
+    }
+
+    public void clear() {
+        trimToSize(0);
+    }
+
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    public synchronized float getReuseRate() {
+        long requests = hits + misses;
+        return requests == 0 ? 0f : (float) hits / requests;
+    }
+
+    public synchronized String getStats() {
+        return "hits=" + hits
+                + ", misses=" + misses
+                + ", reuse rate=" + Math.round(getReuseRate() * 100) + "%"
+                + ", puts=" + puts
+                + ", evictions=" + evictions
+                + ", size=" + currentBytes + "/" + maxBytes;
+    }
+
+    private static Bitmap.Config normalize(Bitmap.Config config) {
+        return config != null ? config : Bitmap.Config.ARGB_8888;
+    }
+
+    private static int bytesPerPixel(Bitmap.Config config) {
+        switch (config) {
+            case ALPHA_8:
+                return 1;
+            case RGB_565:
+            case ARGB_4444:
+                return 2;
+            case RGBA_F16:
+                return 8;
+            default:
+                return 4;
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package com.nbuit.galleryapp104204;
+
+import android.graphics.Bitmap;
+import android.os.CancellationSignal;
+
+// Called on a worker thread. Returns a new bitmap from the BitmapPool and leaves the
+// input alone. Should stop early with OperationCanceledException once the signal is
+// cancelled.
+public interface BitmapProcessor {
+    Bitmap process(Bitmap bitmap, CancellationSignal signal);
+}
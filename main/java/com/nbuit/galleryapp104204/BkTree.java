@@ -0,0 +1,115 @@
+package com.nbuit.galleryapp104204;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Burkhard-Keller tree over 64-bit hashes with Hamming distance as the metric. A
+// search for everything within distance k only descends into children whose edge
+// distance lies in [d - k, d + k], which skips most of the tree for small k.
+public class BkTree {
+
+    private Node root;
+    private int size;
+
+    public void add(long hash, long id) {
+        size++;
+        if (root == null) {
+            root = new Node(hash, id);
+            return;
+        }
+        Node node = root;
+        while (true) {
+            int distance = distance(hash, node.hash);
+            if (distance == 0) {
+                node.addId(id);
+                return;
+            }
+            Node child = node.child(distance);
+            if (child == null) {
+                node.addChild(distance, new Node(hash, id));
+                return;
+            }
+            node = child;
+        }
+    }
+
+    // Ids of every hash within maxDistance of the given one, itself included.
+    public List<Long> search(long hash, int maxDistance) {
+        List<Long> matches = new ArrayList<>();
+        if (root == null) {
+            return matches;
+        }
+        ArrayDeque<Node> stack = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            Node node = stack.pop();
+            int distance = distance(hash, node.hash);
+            if (distance <= maxDistance) {
+                for (int i = 0; i < node.idCount; i++) {
+                    matches.add(node.ids[i]);
+                }
+            }
+            for (int i = 0; i < node.childCount; i++) {
+                int edge = node.childDistances[i];
+                if (edge >= distance - maxDistance && edge <= distance + maxDistance) {
+                    stack.push(node.children[i]);
+                }
+            }
+        }
+        return matches;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public static int distance(long a, long b) {
+        return Long.bitCount(a ^ b);
+    }
+
+    // Children are kept in small parallel arrays; a node rarely has more than a few
+    // dozen of the 64 possible edge distances.
+    private static class Node {
+        final long hash;
+        long[] ids = new long[1];
+        int idCount;
+        int[] childDistances;
+        Node[] children;
+        int childCount;
+
+        Node(long hash, long id) {
+            this.hash = hash;
+            ids[idCount++] = id;
+        }
+
+        void addId(long id) {
+            if (idCount == ids.length) {
+                ids = Arrays.copyOf(ids, idCount * 2);
+            }
+            ids[idCount++] = id;
+        }
+
+        Node child(int distance) {
+            for (int i = 0; i < childCount; i++) {
+                if (childDistances[i] == distance) {
+                    return children[i];
+                }
+            }
+            return null;
+        }
+
+        void addChild(int distance, Node child) {
+            if (children == null) {
+                childDistances = new int[4];
+                children = new Node[4];
+            } else if (childCount == children.length) {
+                childDistances = Arrays.copyOf(childDistances, childCount * 2);
+                children = Arrays.copyOf(children, childCount * 2);
+            }
+            childDistances[childCount] = distance;
+            children[childCount++] = child;
+        }
+    }
+}
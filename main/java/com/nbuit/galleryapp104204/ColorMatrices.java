@@ -0,0 +1,128 @@
+package com.nbuit.galleryapp104204;
+
+// 4x5 color matrices in the layout android.graphics.ColorMatrix uses: rows for R, G,
+// B and A, each with weights for R, G, B, A and an offset in 0-255 units. Applying
+// a then b is the same as applying concat(b, a), which is what lets a run of color
+// filters collapse into one pass.
+public final class ColorMatrices {
+
+    // Rec. 709 luma weights, as used by ColorMatrix.setSaturation
+    private static final float LUMA_R = 0.213f;
+    private static final float LUMA_G = 0.715f;
+    private static final float LUMA_B = 0.072f;
+
+    // 4 * 24 * 255 + 8192 stays below 2^15, the most a 16.16 int can hold
+    private static final float MAX_FIXED_WEIGHT = 24;
+    private static final float MAX_FIXED_OFFSET = 8192;
+
+    private ColorMatrices() {
+    }
+
+    public static float[] identity() {
+        return new float[]{
+                1, 0, 0, 0, 0,
+                0, 1, 0, 0, 0,
+                0, 0, 1, 0, 0,
+                0, 0, 0, 1, 0};
+    }
+
+    // Adds offset (-255 to 255) to every color channel
+    public static float[] brightness(float offset) {
+        return new float[]{
+                1, 0, 0, 0, offset,
+                0, 1, 0, 0, offset,
+                0, 0, 1, 0, offset,
+                0, 0, 0, 1, 0};
+    }
+
+    // Scales the distance from mid grey; 1 leaves the image as is
+    public static float[] contrast(float scale) {
+        float offset = 128 * (1 - scale);
+        return new float[]{
+                scale, 0, 0, 0, offset,
+                0, scale, 0, 0, offset,
+                0, 0, scale, 0, offset,
+                0, 0, 0, 1, 0};
+    }
+
+    // 0 is grey, 1 leaves the image as is, above 1 boosts colors
+    public static float[] saturation(float saturation) {
+        float inverse = 1 - saturation;
+        float r = LUMA_R * inverse;
+        float g = LUMA_G * inverse;
+        float b = LUMA_B * inverse;
+        return new float[]{
+                r + saturation, g, b, 0, 0,
+                r, g + saturation, b, 0, 0,
+                r, g, b + saturation, 0, 0,
+                0, 0, 0, 1, 0};
+    }
+
+    public static float[] sepia() {
+        return new float[]{
+                0.393f, 0.769f, 0.189f, 0, 0,
+                0.349f, 0.686f, 0.168f, 0, 0,
+                0.272f, 0.534f, 0.131f, 0, 0,
+                0, 0, 0, 1, 0};
+    }
+
+    // Blends every pixel towards color by amount (0 to 1)
+    public static float[] tint(int color, float amount) {
+        float keep = 1 - amount;
+        return new float[]{
+                keep, 0, 0, 0, ((color >> 16) & 0xFF) * amount,
+                0, keep, 0, 0, ((color >> 8) & 0xFF) * amount,
+                0, 0, keep, 0, (color & 0xFF) * amount,
+                0, 0, 0, 1, 0};
+    }
+
+    // weights: 3x3, row by row, output R, G and B as mixes of the input channels
+    public static float[] channelMix(float[] weights) {
+        return new float[]{
+                weights[0], weights[1], weights[2], 0, 0,
+                weights[3], weights[4], weights[5], 0, 0,
+                weights[6], weights[7], weights[8], 0, 0,
+                0, 0, 0, 1, 0};
+    }
+
+    // 255 minus each channel, fully opaque, same as PixelKernels.invert
+    public static float[] invert() {
+        return new float[]{
+                -1, 0, 0, 0, 255,
+                0, -1, 0, 0, 255,
+                0, 0, -1, 0, 255,
+                0, 0, 0, 0, 255};
+    }
+
+    // The matrix that applies first, then second
+    public static float[] concat(float[] second, float[] first) {
+        float[] result = new float[20];
+        for (int row = 0; row < 4; row++) {
+            for (int column = 0; column < 5; column++) {
+                float sum = column == 4 ? second[row * 5 + 4] : 0;
+                for (int k = 0; k < 4; k++) {
+                    sum += second[row * 5 + k] * first[k * 5 + column];
+                }
+                result[row * 5 + column] = sum;
+            }
+        }
+        return result;
+    }
+
+    // 16.16 fixed point for PixelKernels.colorMatrix, with the rounding folded into the
+    // offsets. Coefficients are clamped so a row sum cannot overflow an int; a long
+    // stack of strong effects saturates well before those limits.
+    public static int[] toFixedPoint(float[] matrix) {
+        int[] fixed = new int[20];
+        for (int i = 0; i < 20; i++) {
+            boolean offset = i % 5 == 4;
+            float limit = offset ? MAX_FIXED_OFFSET : MAX_FIXED_WEIGHT;
+            float value = Math.max(-limit, Math.min(limit, matrix[i]));
+            fixed[i] = Math.round(value * 65536);
+            if (offset) {
+                fixed[i] += 1 << 15;
+            }
+        }
+        return fixed;
+    }
+}
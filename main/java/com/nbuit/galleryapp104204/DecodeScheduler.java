@@ -0,0 +1,178 @@
+package com.nbuit.galleryapp104204;
+
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class DecodeScheduler {
+
+    public static final int PRIORITY_PREFETCH = 0;
+    public static final int PRIORITY_VISIBLE = 1;
+
+    private static final long KEEP_ALIVE_SECONDS = 30;
+    private static final float LATENCY_SMOOTHING = 0.2f;
+
+    private static DecodeScheduler instance;
+
+    private final ThreadPoolExecutor executor;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final AtomicLong sequence = new AtomicLong();
+    private volatile float averageDecodeMillis;
+
+    public static synchronized DecodeScheduler getInstance() {
+        if (instance == null) {
+            instance = new DecodeScheduler();
+        }
+        return instance;
+    }
+
+    private DecodeScheduler() {
+        int poolSize = Math.max(2, Runtime.getRuntime().availableProcessors());
+        executor = new ThreadPoolExecutor(
+                poolSize,
+                poolSize,
+                KEEP_ALIVE_SECONDS,
+                TimeUnit.SECONDS,
+                new PriorityBlockingQueue<>(),
+                new DecodeThreadFactory()
+        );
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    public Future<Bitmap> submit(Callable<Bitmap> decodeTask, Callback callback) {
+        return submit(decodeTask, callback, PRIORITY_VISIBLE);
+    }
+
+    // Higher priorities run first. Within a priority the most recently submitted request
+    // runs first, so the cells that just became visible are decoded before the ones the
+    // user has already scrolled past.
+    public Future<Bitmap> submit(Callable<Bitmap> decodeTask, Callback callback, int priority) {
+        DecodeRequest request = new DecodeRequest(decodeTask, callback, priority, sequence.incrementAndGet());
+        executor.execute(request);
+        return request;
+    }
+
+    public void cancel(Future<?> request) {
+        if (request != null) {
+            request.cancel(false);
+            if (request instanceof Runnable) {
+                executor.remove((Runnable) request);
+            }
+        }
+    }
+
+    // Moves a request that is still queued up to a higher priority.
+    public void promote(Future<?> request, int priority) {
+        if (!(request instanceof DecodeRequest)) {
+            return;
+        }
+        DecodeRequest decodeRequest = (DecodeRequest) request;
+        if (priority > decodeRequest.priority && executor.remove(decodeRequest)) {
+            decodeRequest.priority = priority;
+            executor.execute(decodeRequest);
+        }
+    }
+
+    // Smoothed wall time of a request once it starts running, cache hits included.
+    public float getAverageDecodeMillis() {
+        return averageDecodeMillis;
+    }
+
+    public interface Callback {
+        void onDecoded(Bitmap bitmap);
+    }
+
+    private class DecodeRequest extends FutureTask<Bitmap> implements Comparable<DecodeRequest> {
+        private final Callback callback;
+        private final long order;
+        private int priority;
+
+        DecodeRequest(Callable<Bitmap> decodeTask, Callback callback, int priority, long order) {
+            super(decodeTask);
+            this.callback = callback;
+            this.priority = priority;
+            this.order = order;
+        }
+
+        @Override
+        public void run() {
+            long start = SystemClock.uptimeMillis();
+            super.run();
+            if (!isCancelled()) {
+                recordLatency(SystemClock.uptimeMillis() - start);
+            }
+        }
+
+        // A request cancelled while it ran drops its result, so return that to the pool
+        @Override
+        protected void set(Bitmap bitmap) {
+            super.set(bitmap);
+            if (isCancelled()) {
+                BitmapPool.getInstance().put(bitmap);
+            }
+        }
+
+        @Override
+        public int compareTo(DecodeRequest other) {
+            if (priority != other.priority) {
+                return priority > other.priority ? -1 : 1;
+            }
+            return Long.compare(other.order, order);
+        }
+
+        @Override
+        protected void done() {
+            if (isCancelled()) {
+                return;
+            }
+            try {
+                Bitmap bitmap = get();
+                mainHandler.post(() -> {
+                    if (!isCancelled()) {
+                        callback.onDecoded(bitmap);
+                    }
+                });
+            } catch (CancellationException | InterruptedException e) {
+                // Cancelled while finishing, nothing to deliver.
+            } catch (ExecutionException e) {
+                Log.e("DecodeScheduler", "Error decoding image", e.getCause());
+                // Still report back so callers waiting on this request are released
+                mainHandler.post(() -> callback.onDecoded(null));
+            }
+        }
+    }
+
+    private void recordLatency(long millis) {
+        float average = averageDecodeMillis;
+        averageDecodeMillis = average == 0 ? millis : average + LATENCY_SMOOTHING * (millis - average);
+    }
+
+    private static class DecodeThreadFactory implements ThreadFactory {
+        private final AtomicInteger threadCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(() -> {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                runnable.run();
+            }, "decode-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
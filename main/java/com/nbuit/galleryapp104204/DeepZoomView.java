@@ -0,0 +1,462 @@
+package com.nbuit.galleryapp104204;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.util.AttributeSet;
+import android.util.DisplayMetrics;
+import android.util.Log;
+import android.util.LruCache;
+import android.view.GestureDetector;
+import android.view.MotionEvent;
+import android.view.ScaleGestureDetector;
+import android.view.View;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.Future;
+
+// Shows a photo at any zoom without ever decoding all of it at full resolution. A
+// screen-sized base image covers the whole photo. Once the zoom goes past the base
+// image's resolution, only the tiles in view are decoded with BitmapRegionDecoder,
+// at the power-of-two sample size the zoom needs. Tiles live in an LRU bounded by the
+// view size and are dropped as soon as they scroll away or the zoom moves to another
+// sample size, so memory stays the same however far in the user zooms.
+public class DeepZoomView extends View {
+
+    // Decoded tile edge in pixels, whatever the sample size
+    private static final int TILE_SIZE = 256;
+    // Screen pixels per photo pixel at the deepest zoom
+    private static final float MAX_SCALE = 2f;
+    private static final float DOUBLE_TAP_ZOOM = 3f;
+    // Tiles may be this much coarser than the screen before the next sample size is
+    // used, which halves the tile memory compared to never going below it
+    private static final float MIN_TILE_RESOLUTION = 0.7f;
+
+    private final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final RectF destination = new RectF();
+    private final LruCache<Long, Bitmap> tiles;
+    // Missing tiles in view, decoded one at a time: a region decoder only decodes one
+    // region at once, so more would just park decode threads the thumbnails need
+    private final ArrayDeque<Long> queuedTiles = new ArrayDeque<>();
+    private long decodingTile;
+    private Future<Bitmap> decodingRequest;
+    private final ScaleGestureDetector scaleDetector;
+    private final GestureDetector gestureDetector;
+
+    // Guards decoder and decodesInFlight. Held only to check the decoder out and back
+    // in, never while decoding, so release does not wait for a tile.
+    private final Object decoderLock = new Object();
+    private BitmapRegionDecoder decoder;
+    private int decodesInFlight;
+    private volatile boolean released;
+    private Future<Bitmap> pendingBase;
+
+    private Bitmap baseBitmap;
+    private int imageWidth;
+    private int imageHeight;
+
+    // Screen pixels per photo pixel, and where the photo's top left corner is on screen
+    private float scale;
+    private float minScale;
+    private float translateX;
+    private float translateY;
+
+    // Tiles needed for the current view, or a sample size of 0 while the base image is
+    // sharp enough on its own
+    private int tileSample;
+    private int firstColumn;
+    private int lastColumn;
+    private int firstRow;
+    private int lastRow;
+
+    public DeepZoomView(Context context) {
+        this(context, null);
+    }
+
+    public DeepZoomView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        tiles = new LruCache<Long, Bitmap>(maxTileBytes(context.getResources().getDisplayMetrics().widthPixels,
+                context.getResources().getDisplayMetrics().heightPixels)) {
+            @Override
+            protected int sizeOf(Long key, Bitmap tile) {
+                return tile.getAllocationByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, Long key, Bitmap oldValue, Bitmap newValue) {
+                if (oldValue != newValue) {
+                    BitmapPool.getInstance().put(oldValue);
+                }
+            }
+        };
+        scaleDetector = new ScaleGestureDetector(context, new ScaleListener());
+        gestureDetector = new GestureDetector(context, new GestureListener());
+    }
+
+    // Opens source for region decoding and shows the base image once it is decoded.
+    // source is read on a decode thread.
+    public void setImage(BitmapDecoder.StreamOpener source) {
+        DisplayMetrics metrics = getResources().getDisplayMetrics();
+        int screenWidth = metrics.widthPixels;
+        int screenHeight = metrics.heightPixels;
+        pendingBase = DecodeScheduler.getInstance().submit(
+                () -> open(source, screenWidth, screenHeight),
+                bitmap -> {
+                    pendingBase = null;
+                    if (bitmap == null) {
+                        Log.e("DeepZoomView", "Error loading photo");
+                        return;
+                    }
+                    if (released) {
+                        BitmapPool.getInstance().put(bitmap);
+                        return;
+                    }
+                    baseBitmap = bitmap;
+                    fitToView();
+                },
+                DecodeScheduler.PRIORITY_VISIBLE);
+    }
+
+    // Cancels outstanding decodes and hands every bitmap back to the pool
+    public void release() {
+        released = true;
+        DecodeScheduler.getInstance().cancel(pendingBase);
+        pendingBase = null;
+        DecodeScheduler.getInstance().cancel(decodingRequest);
+        decodingRequest = null;
+        queuedTiles.clear();
+        tiles.evictAll();
+        BitmapPool.getInstance().put(baseBitmap);
+        baseBitmap = null;
+        synchronized (decoderLock) {
+            // Otherwise the last decode still running recycles it
+            if (decoder != null && decodesInFlight == 0) {
+                decoder.recycle();
+                decoder = null;
+            }
+        }
+    }
+
+    // Decode thread. Decodes the whole photo at the sample size that still fills the
+    // screen in either orientation.
+    private Bitmap open(BitmapDecoder.StreamOpener source, int screenWidth, int screenHeight) throws IOException {
+        BitmapRegionDecoder newDecoder = BitmapDecoder.newRegionDecoder(source);
+        if (newDecoder == null) {
+            return null;
+        }
+        int width = newDecoder.getWidth();
+        int height = newDecoder.getHeight();
+        float fitScale = Math.max(
+                Math.min((float) screenWidth / width, (float) screenHeight / height),
+                Math.min((float) screenHeight / width, (float) screenWidth / height));
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSizeFor(fitScale, 1f);
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        options.inMutable = true;
+        Bitmap base = newDecoder.decodeRegion(new Rect(0, 0, width, height), options);
+
+        synchronized (decoderLock) {
+            if (released || base == null) {
+                newDecoder.recycle();
+                return base;
+            }
+            decoder = newDecoder;
+            imageWidth = width;
+            imageHeight = height;
+        }
+        return base;
+    }
+
+    // Largest power of two that keeps a decode at least minResolution pixels per
+    // screen pixel at the given scale
+    private static int sampleSizeFor(float scale, float minResolution) {
+        int sampleSize = 1;
+        while (scale * sampleSize * 2 * minResolution <= 1f) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    // Every tile a view of this size can show at once, with one ring around it
+    private static int maxTileBytes(int viewWidth, int viewHeight) {
+        int columns = (int) Math.ceil(viewWidth / (TILE_SIZE * MIN_TILE_RESOLUTION)) + 3;
+        int rows = (int) Math.ceil(viewHeight / (TILE_SIZE * MIN_TILE_RESOLUTION)) + 3;
+        return columns * rows * TILE_SIZE * TILE_SIZE * 4;
+    }
+
+    @Override
+    protected void onSizeChanged(int width, int height, int oldWidth, int oldHeight) {
+        super.onSizeChanged(width, height, oldWidth, oldHeight);
+        tiles.resize(maxTileBytes(width, height));
+        fitToView();
+    }
+
+    private void fitToView() {
+        if (baseBitmap == null || getWidth() == 0 || getHeight() == 0) {
+            return;
+        }
+        minScale = Math.min((float) getWidth() / imageWidth, (float) getHeight() / imageHeight);
+        scale = minScale;
+        translateX = (getWidth() - imageWidth * scale) / 2;
+        translateY = (getHeight() - imageHeight * scale) / 2;
+        onTransformChanged();
+    }
+
+    private float maxScale() {
+        return Math.max(minScale, MAX_SCALE);
+    }
+
+    // Scales by factor around the screen point (focusX, focusY)
+    private void zoomBy(float factor, float focusX, float focusY) {
+        float newScale = Math.max(minScale, Math.min(maxScale(), scale * factor));
+        factor = newScale / scale;
+        translateX = focusX - (focusX - translateX) * factor;
+        translateY = focusY - (focusY - translateY) * factor;
+        scale = newScale;
+        onTransformChanged();
+    }
+
+    private void onTransformChanged() {
+        translateX = clampTranslation(translateX, imageWidth * scale, getWidth());
+        translateY = clampTranslation(translateY, imageHeight * scale, getHeight());
+        updateTiles();
+        invalidate();
+    }
+
+    // Centers a photo smaller than the view, otherwise keeps its edges from moving inside it
+    private static float clampTranslation(float translation, float imageSize, float viewSize) {
+        if (imageSize <= viewSize) {
+            return (viewSize - imageSize) / 2;
+        }
+        return Math.max(viewSize - imageSize, Math.min(0, translation));
+    }
+
+    // Works out which tiles the view needs, requests the missing ones and drops the
+    // ones it no longer shows
+    private void updateTiles() {
+        if (baseBitmap == null) {
+            return;
+        }
+        // Tiles are only worth decoding at a finer sample size than the base image's
+        float baseScale = (float) baseBitmap.getWidth() / imageWidth;
+        tileSample = sampleSizeFor(scale, MIN_TILE_RESOLUTION);
+        if (scale <= baseScale || tileSample * baseScale > 0.75f) {
+            tileSample = 0;
+        }
+        if (tileSample != 0) {
+            int tileImageSize = TILE_SIZE * tileSample;
+            float left = Math.max(0, -translateX / scale);
+            float top = Math.max(0, -translateY / scale);
+            float right = Math.min(imageWidth, (getWidth() - translateX) / scale);
+            float bottom = Math.min(imageHeight, (getHeight() - translateY) / scale);
+            firstColumn = (int) (left / tileImageSize);
+            firstRow = (int) (top / tileImageSize);
+            lastColumn = Math.min((imageWidth - 1) / tileImageSize, (int) (right / tileImageSize));
+            lastRow = Math.min((imageHeight - 1) / tileImageSize, (int) (bottom / tileImageSize));
+        }
+
+        // Tiles just off screen are kept for a short pan back, anything further goes
+        for (Long key : tiles.snapshot().keySet()) {
+            if (!isWanted(key, 1)) {
+                tiles.remove(key);
+            }
+        }
+        if (decodingRequest != null && !isWanted(decodingTile, 0)) {
+            DecodeScheduler.getInstance().cancel(decodingRequest);
+            decodingRequest = null;
+        }
+        queuedTiles.clear();
+        if (tileSample == 0) {
+            return;
+        }
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                long key = tileKey(tileSample, column, row);
+                if (tiles.get(key) == null && (decodingRequest == null || key != decodingTile)) {
+                    queuedTiles.add(key);
+                }
+            }
+        }
+        decodeNextTile();
+    }
+
+    // Whether key is a tile of the current sample size within margin tiles of the view
+    private boolean isWanted(long key, int margin) {
+        int column = (int) (key & 0xFFFFF);
+        int row = (int) ((key >>> 20) & 0xFFFFF);
+        return tileSample != 0 && (int) (key >>> 40) == tileSample
+                && column >= firstColumn - margin && column <= lastColumn + margin
+                && row >= firstRow - margin && row <= lastRow + margin;
+    }
+
+    private static long tileKey(int sample, int column, int row) {
+        return ((long) sample << 40) | ((long) row << 20) | column;
+    }
+
+    private void decodeNextTile() {
+        if (decodingRequest != null || queuedTiles.isEmpty()) {
+            return;
+        }
+        long key = queuedTiles.poll();
+        int sample = (int) (key >>> 40);
+        int tileImageSize = TILE_SIZE * sample;
+        int column = (int) (key & 0xFFFFF);
+        int row = (int) ((key >>> 20) & 0xFFFFF);
+        Rect region = new Rect(column * tileImageSize, row * tileImageSize,
+                Math.min(imageWidth, (column + 1) * tileImageSize),
+                Math.min(imageHeight, (row + 1) * tileImageSize));
+        decodingTile = key;
+        decodingRequest = DecodeScheduler.getInstance().submit(
+                () -> decodeTile(region, sample),
+                tile -> {
+                    decodingRequest = null;
+                    if (released) {
+                        BitmapPool.getInstance().put(tile);
+                        return;
+                    }
+                    if (tile != null) {
+                        if (isWanted(key, 1)) {
+                            tiles.put(key, tile);
+                            invalidate();
+                        } else {
+                            BitmapPool.getInstance().put(tile);
+                        }
+                    }
+                    decodeNextTile();
+                },
+                DecodeScheduler.PRIORITY_VISIBLE);
+    }
+
+    // Decode thread
+    private Bitmap decodeTile(Rect region, int sample) {
+        BitmapRegionDecoder regionDecoder;
+        synchronized (decoderLock) {
+            if (decoder == null || released) {
+                return null;
+            }
+            regionDecoder = decoder;
+            decodesInFlight++;
+        }
+        try {
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inSampleSize = sample;
+            options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+            options.inMutable = true;
+            // Edge tiles come out smaller, only whole tiles are sure to fit a pooled one exactly
+            if (region.width() == TILE_SIZE * sample && region.height() == TILE_SIZE * sample) {
+                options.inBitmap = BitmapPool.getInstance().getReusable(TILE_SIZE, TILE_SIZE, options.inPreferredConfig);
+            }
+            try {
+                return regionDecoder.decodeRegion(region, options);
+            } catch (IllegalArgumentException e) {
+                if (options.inBitmap == null) {
+                    throw e;
+                }
+                // The decoder refused the pooled bitmap, fall back to a fresh allocation
+                BitmapPool.getInstance().put(options.inBitmap);
+                options.inBitmap = null;
+                return regionDecoder.decodeRegion(region, options);
+            }
+        } finally {
+            synchronized (decoderLock) {
+                decodesInFlight--;
+                if (released && decodesInFlight == 0 && decoder != null) {
+                    decoder.recycle();
+                    decoder = null;
+                }
+            }
+        }
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        if (baseBitmap == null) {
+            return;
+        }
+        // The base image stays underneath, so tiles still loading show it blurred
+        destination.set(translateX, translateY, translateX + imageWidth * scale, translateY + imageHeight * scale);
+        canvas.drawBitmap(baseBitmap, null, destination, paint);
+        if (tileSample == 0) {
+            return;
+        }
+        float tileScreenSize = TILE_SIZE * tileSample * scale;
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                Bitmap tile = tiles.get(tileKey(tileSample, column, row));
+                if (tile == null) {
+                    continue;
+                }
+                float left = translateX + column * tileScreenSize;
+                float top = translateY + row * tileScreenSize;
+                destination.set(left, top,
+                        Math.min(left + tileScreenSize, translateX + imageWidth * scale),
+                        Math.min(top + tileScreenSize, translateY + imageHeight * scale));
+                canvas.drawBitmap(tile, null, destination, paint);
+            }
+        }
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        boolean handled = scaleDetector.onTouchEvent(event);
+        handled |= gestureDetector.onTouchEvent(event);
+        if (event.getActionMasked() == MotionEvent.ACTION_UP) {
+            performClick();
+        }
+        return handled || super.onTouchEvent(event);
+    }
+
+    @Override
+    public boolean performClick() {
+        return super.performClick();
+    }
+
+    private class ScaleListener extends ScaleGestureDetector.SimpleOnScaleGestureListener {
+        @Override
+        public boolean onScale(ScaleGestureDetector detector) {
+            if (baseBitmap != null) {
+                zoomBy(detector.getScaleFactor(), detector.getFocusX(), detector.getFocusY());
+            }
+            return true;
+        }
+    }
+
+    private class GestureListener extends GestureDetector.SimpleOnGestureListener {
+        @Override
+        public boolean onDown(MotionEvent e) {
+            return true;
+        }
+
+        @Override
+        public boolean onScroll(MotionEvent e1, MotionEvent e2, float distanceX, float distanceY) {
+            if (baseBitmap == null || scaleDetector.isInProgress()) {
+                return false;
+            }
+            translateX -= distanceX;
+            translateY -= distanceY;
+            onTransformChanged();
+            return true;
+        }
+
+        @Override
+        public boolean onDoubleTap(MotionEvent e) {
+            if (baseBitmap == null) {
+                return false;
+            }
+            // Zooms in on the tapped point, or back out to the whole photo
+            if (scale > minScale * 1.01f) {
+                fitToView();
+            } else {
+                zoomBy(DOUBLE_TAP_ZOOM, e.getX(), e.getY());
+            }
+            return true;
+        }
+    }
+}
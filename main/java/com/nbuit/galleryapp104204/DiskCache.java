@@ -0,0 +1,150 @@
+package com.nbuit.galleryapp104204;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+public class DiskCache {
+
+    private static final String TEMP_PREFIX = "tmp-";
+
+    private final File directory;
+    private final long maxBytes;
+    private long currentBytes = -1;
+
+    public DiskCache(File directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    public synchronized File get(String key) {
+        ensureInitialized();
+        File file = fileFor(key);
+        if (!file.exists()) {
+            return null;
+        }
+        // lastModified doubles as the access time used for eviction
+        file.setLastModified(System.currentTimeMillis());
+        return file;
+    }
+
+    public synchronized File newTempFile() throws IOException {
+        ensureInitialized();
+        return File.createTempFile(TEMP_PREFIX, null, directory);
+    }
+
+    public synchronized File commit(String key, File tempFile) {
+        ensureInitialized();
+        File target = fileFor(key);
+        long previousLength = target.exists() ? target.length() : 0;
+        if (previousLength > 0 && !target.delete()) {
+            tempFile.delete();
+            return null;
+        }
+        if (!tempFile.renameTo(target)) {
+            tempFile.delete();
+            currentBytes -= previousLength;
+            return null;
+        }
+        currentBytes += target.length() - previousLength;
+        trimToSize();
+        return target;
+    }
+
+    public synchronized void remove(String key) {
+        ensureInitialized();
+        File file = fileFor(key);
+        long length = file.length();
+        if (file.delete()) {
+            currentBytes -= length;
+        }
+    }
+
+    public synchronized void clear() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        currentBytes = 0;
+    }
+
+    public synchronized long size() {
+        ensureInitialized();
+        return currentBytes;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    private void ensureInitialized() {
+        if (currentBytes >= 0) {
+            return;
+        }
+        if (!directory.exists() && !directory.mkdirs()) {
+            Log.e("DiskCache", "Unable to create cache directory " + directory);
+        }
+        currentBytes = 0;
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.getName().startsWith(TEMP_PREFIX)) {
+                // Left behind by a write that never committed
+                file.delete();
+            } else {
+                currentBytes += file.length();
+            }
+        }
+    }
+
+    private void trimToSize() {
+        if (currentBytes <= maxBytes) {
+            return;
+        }
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        for (File file : files) {
+            if (currentBytes <= maxBytes) {
+                break;
+            }
+            if (file.getName().startsWith(TEMP_PREFIX)) {
+                continue;
+            }
+            long length = file.length();
+            if (file.delete()) {
+                currentBytes -= length;
+            }
+        }
+    }
+
+    private File fileFor(String key) {
+        return new File(directory, hashKey(key));
+    }
+
+    static String hashKey(String key) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] hash = digest.digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder builder = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                builder.append(Character.forDigit((b >> 4) & 0xF, 16));
+                builder.append(Character.forDigit(b & 0xF, 16));
+            }
+            return builder.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return Integer.toHexString(key.hashCode());
+        }
+    }
+}
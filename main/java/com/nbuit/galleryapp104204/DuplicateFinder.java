@@ -0,0 +1,192 @@
+package com.nbuit.galleryapp104204;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.Process;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Keeps a perceptual hash for every row of the images table and groups images whose
+// hashes are within a few bits of each other. Hashes are computed from a small sampled
+// decode, stored next to the row and recomputed only when the image changes, so after
+// the first pass a search only has to hash what is new.
+public class DuplicateFinder {
+
+    public static final int DEFAULT_MAX_DISTANCE = 8;
+
+    private static final int HASH_BATCH_SIZE = 64;
+    // The hash only looks at 9x8 pixels, a sampled decode this size is plenty
+    private static final int HASH_DECODE_SIZE = 32;
+
+    private static DuplicateFinder instance;
+
+    private final ContentResolver contentResolver;
+    private final GalleryDatabaseHelper databaseHelper;
+    private final ExecutorService indexExecutor = Executors.newSingleThreadExecutor(
+            backgroundThreads("hash-index"));
+    // Leaves half the cores to the UI and the thumbnail decoders
+    private final ExecutorService hashExecutor = Executors.newFixedThreadPool(
+            Math.max(1, Runtime.getRuntime().availableProcessors() / 2), backgroundThreads("hash"));
+    private final AtomicBoolean indexQueued = new AtomicBoolean();
+
+    public interface ProgressListener {
+        // Worker thread
+        void onProgress(int hashed, int total);
+    }
+
+    public static synchronized DuplicateFinder getInstance(Context context) {
+        if (instance == null) {
+            instance = new DuplicateFinder(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private DuplicateFinder(Context context) {
+        this.contentResolver = context.getContentResolver();
+        this.databaseHelper = GalleryDatabaseHelper.getInstance(context);
+    }
+
+    // Hashes new and changed images on a background thread. Requests made while one is
+    // still queued are folded into it.
+    public void indexInBackground() {
+        if (indexQueued.compareAndSet(false, true)) {
+            indexExecutor.execute(() -> {
+                indexQueued.set(false);
+                try {
+                    indexPending(null);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+    }
+
+    // Worker thread. Returns once every row has a hash for its current version.
+    public synchronized void indexPending(ProgressListener listener) throws InterruptedException {
+        int total = databaseHelper.countImagesWithoutHash();
+        int hashed = 0;
+        while (true) {
+            List<ImageHash> pending = new ArrayList<>();
+            List<Callable<ImageHash>> tasks = new ArrayList<>();
+            try (Cursor cursor = databaseHelper.queryImagesWithoutHash(HASH_BATCH_SIZE)) {
+                while (cursor.moveToNext()) {
+                    ImageHash unhashed = new ImageHash(cursor.getLong(0), Uri.parse(cursor.getString(1)),
+                            null, cursor.getString(2));
+                    pending.add(unhashed);
+                    tasks.add(() -> new ImageHash(unhashed.id, unhashed.uri, computeHash(unhashed.uri), unhashed.key));
+                }
+            }
+            if (tasks.isEmpty()) {
+                return;
+            }
+
+            List<Future<ImageHash>> futures = hashExecutor.invokeAll(tasks);
+            List<ImageHash> hashes = new ArrayList<>(tasks.size());
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    hashes.add(futures.get(i).get());
+                } catch (ExecutionException e) {
+                    Log.e("DuplicateFinder", "Error hashing image", e.getCause());
+                    // Stored without a hash, so it is not retried until the image changes
+                    hashes.add(pending.get(i));
+                }
+            }
+            databaseHelper.updateHashes(hashes);
+            hashed += hashes.size();
+            if (listener != null) {
+                listener.onProgress(hashed, Math.max(total, hashed));
+            }
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+    }
+
+    private Long computeHash(Uri uri) {
+        Bitmap bitmap = null;
+        try {
+            bitmap = BitmapDecoder.decodeSampled(() -> contentResolver.openInputStream(uri), HASH_DECODE_SIZE, false);
+            return bitmap != null ? PerceptualHash.dHash(bitmap) : null;
+        } catch (Exception e) {
+            Log.e("DuplicateFinder", "Error decoding " + uri, e);
+            return null;
+        } finally {
+            if (bitmap != null) {
+                BitmapPool.getInstance().put(bitmap);
+            }
+        }
+    }
+
+    // Worker thread. Groups of two or more images, largest group first. Each group starts
+    // with the image to keep, the oldest one not already in a group, followed by the images
+    // within maxDistance of it in table order. Neighbours are not chained, so every copy in
+    // a group is close to the image it would be deleted in favour of.
+    public List<List<Uri>> findDuplicateGroups(int maxDistance) {
+        List<ImageHash> hashes = databaseHelper.getAllHashes();
+        BkTree tree = new BkTree();
+        Map<Long, Integer> indexById = new HashMap<>(hashes.size() * 2);
+        for (int i = 0; i < hashes.size(); i++) {
+            ImageHash hash = hashes.get(i);
+            tree.add(hash.hash, hash.id);
+            indexById.put(hash.id, i);
+        }
+
+        boolean[] grouped = new boolean[hashes.size()];
+        List<List<Uri>> groups = new ArrayList<>();
+        for (int i = 0; i < hashes.size(); i++) {
+            if (grouped[i]) {
+                continue;
+            }
+            List<Integer> copies = new ArrayList<>();
+            for (long id : tree.search(hashes.get(i).hash, maxDistance)) {
+                int index = indexById.get(id);
+                // An earlier image this close would already have taken this one into its group
+                if (index > i && !grouped[index]) {
+                    copies.add(index);
+                }
+            }
+            if (copies.isEmpty()) {
+                continue;
+            }
+            Collections.sort(copies);
+            List<Uri> group = new ArrayList<>(copies.size() + 1);
+            group.add(hashes.get(i).uri);
+            grouped[i] = true;
+            for (int index : copies) {
+                group.add(hashes.get(index).uri);
+                grouped[index] = true;
+            }
+            groups.add(group);
+        }
+        Collections.sort(groups, (a, b) -> Integer.compare(b.size(), a.size()));
+        return groups;
+    }
+
+    private static ThreadFactory backgroundThreads(String name) {
+        AtomicInteger threadCount = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(() -> {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                runnable.run();
+            }, name + "-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
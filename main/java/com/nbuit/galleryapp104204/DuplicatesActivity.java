@@ -0,0 +1,275 @@
+package com.nbuit.galleryapp104204;
+
+import android.app.PendingIntent;
+import android.content.ContentResolver;
+import android.content.Intent;
+import android.content.IntentSender;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+import android.provider.MediaStore;
+import android.util.Log;
+import android.view.View;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import androidx.appcompat.app.AlertDialog;
+import androidx.appcompat.app.AppCompatActivity;
+import androidx.core.content.ContextCompat;
+import androidx.recyclerview.widget.GridLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class DuplicatesActivity extends AppCompatActivity {
+
+    private static final int REQUEST_DELETE = 201;
+    private static final int SPAN_COUNT = 4;
+
+    private TextView textViewStatus;
+    private RecyclerView recyclerViewDuplicates;
+    private GalleriesAdapter galleriesAdapter;
+    private List<List<Uri>> groups = new ArrayList<>();
+    // Group of every grid position and the position's index within that group
+    private int[] groupOfPosition = new int[0];
+    private int[] indexInGroup = new int[0];
+    private Set<Uri> pendingDelete = new HashSet<>();
+    private ExecutorService executorService;
+    private Future<?> searchTask;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_duplicates);
+
+        textViewStatus = findViewById(R.id.textViewStatus);
+        recyclerViewDuplicates = findViewById(R.id.recyclerViewDuplicates);
+        findViewById(R.id.buttonMarkCopies).setOnClickListener(v -> markCopies());
+        findViewById(R.id.buttonDeleteMarked).setOnClickListener(v -> showDeleteConfirmationDialog());
+
+        galleriesAdapter = new GalleriesAdapter(
+                this,
+                new ArrayList<>(),
+                this::onPhotoClick,
+                null,
+                GalleriesAdapter.IMAGE_SOURCE_INTERNAL
+        );
+        GridLayoutManager layoutManager = new GridLayoutManager(this, SPAN_COUNT);
+        // The last photo of a group fills out its row, so every group starts on a new one
+        layoutManager.setSpanSizeLookup(new GridLayoutManager.SpanSizeLookup() {
+            @Override
+            public int getSpanSize(int position) {
+                return spanSize(position);
+            }
+        });
+        recyclerViewDuplicates.setLayoutManager(layoutManager);
+        recyclerViewDuplicates.addItemDecoration(new GroupDividers());
+        recyclerViewDuplicates.setAdapter(galleriesAdapter);
+
+        executorService = Executors.newSingleThreadExecutor();
+        findDuplicates();
+    }
+
+    private void findDuplicates() {
+        textViewStatus.setText("Looking for duplicates...");
+        DuplicateFinder duplicateFinder = DuplicateFinder.getInstance(this);
+        searchTask = executorService.submit(() -> {
+            try {
+                duplicateFinder.indexPending((hashed, total) -> runOnUiThread(() ->
+                        textViewStatus.setText("Indexing " + hashed + " of " + total + " photos...")));
+            } catch (InterruptedException e) {
+                return;
+            }
+            List<List<Uri>> found = duplicateFinder.findDuplicateGroups(DuplicateFinder.DEFAULT_MAX_DISTANCE);
+            runOnUiThread(() -> showGroups(found));
+        });
+    }
+
+    private void showGroups(List<List<Uri>> found) {
+        groups = found;
+        List<Uri> uris = new ArrayList<>();
+        for (List<Uri> group : groups) {
+            uris.addAll(group);
+        }
+        groupOfPosition = new int[uris.size()];
+        indexInGroup = new int[uris.size()];
+        int position = 0;
+        for (int i = 0; i < groups.size(); i++) {
+            for (int j = 0; j < groups.get(i).size(); j++) {
+                groupOfPosition[position] = i;
+                indexInGroup[position] = j;
+                position++;
+            }
+        }
+        int copies = uris.size() - groups.size();
+        textViewStatus.setText(groups.size() + " groups, " + copies + " possible copies");
+        galleriesAdapter.setMarkedImages(new HashSet<>());
+        galleriesAdapter.setImageUris(uris);
+    }
+
+    private void onPhotoClick(Uri uri) {
+        Intent intent = new Intent(this, EditPhotoActivity.class);
+        intent.putExtra("photoUri", uri.toString());
+        startActivity(intent);
+    }
+
+    private int spanSize(int position) {
+        if (position >= groupOfPosition.length) {
+            return 1;
+        }
+        int index = indexInGroup[position];
+        if (index < groups.get(groupOfPosition[position]).size() - 1) {
+            return 1;
+        }
+        return SPAN_COUNT - index % SPAN_COUNT;
+    }
+
+    // Keeps the first image of every group and marks the copies found close to it
+    private void markCopies() {
+        Set<Uri> copies = new HashSet<>();
+        for (List<Uri> group : groups) {
+            copies.addAll(group.subList(1, group.size()));
+        }
+        galleriesAdapter.setMarkedImages(copies);
+    }
+
+    private void showDeleteConfirmationDialog() {
+        Set<Uri> marked = galleriesAdapter.getMarkedImages();
+        if (marked.isEmpty()) {
+            Toast.makeText(this, "Long press photos to mark them", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        new AlertDialog.Builder(this)
+                .setTitle("Delete Photos")
+                .setMessage("Do you want to permanently delete " + marked.size() + " photos?")
+                .setPositiveButton("Yes", (dialog, which) -> deletePhotos(marked))
+                .setNegativeButton("No", null)
+                .show();
+    }
+
+    private void deletePhotos(Set<Uri> marked) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+            // One system confirmation for the whole batch, also for photos other apps own
+            PendingIntent deleteRequest = MediaStore.createDeleteRequest(getContentResolver(), marked);
+            pendingDelete = marked;
+            try {
+                startIntentSenderForResult(deleteRequest.getIntentSender(), REQUEST_DELETE, null, 0, 0, 0);
+            } catch (IntentSender.SendIntentException e) {
+                Log.e("DuplicatesActivity", "Error requesting delete", e);
+                Toast.makeText(this, "Failed to delete photos", Toast.LENGTH_SHORT).show();
+            }
+            return;
+        }
+
+        ContentResolver contentResolver = getContentResolver();
+        executorService.execute(() -> {
+            Set<Uri> deleted = new HashSet<>();
+            for (Uri uri : marked) {
+                try {
+                    if (contentResolver.delete(uri, null, null) > 0) {
+                        deleted.add(uri);
+                    }
+                } catch (SecurityException e) {
+                    Log.e("DuplicatesActivity", "Not allowed to delete " + uri, e);
+                }
+            }
+            runOnUiThread(() -> onPhotosDeleted(deleted, marked.size()));
+        });
+    }
+
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        super.onActivityResult(requestCode, resultCode, data);
+        if (requestCode == REQUEST_DELETE) {
+            if (resultCode == RESULT_OK) {
+                onPhotosDeleted(pendingDelete, pendingDelete.size());
+            }
+            pendingDelete = new HashSet<>();
+        }
+    }
+
+    private void onPhotosDeleted(Set<Uri> deleted, int requested) {
+        if (deleted.size() < requested) {
+            Toast.makeText(this, "Deleted " + deleted.size() + " of " + requested + " photos", Toast.LENGTH_SHORT).show();
+        } else {
+            Toast.makeText(this, "Photos deleted", Toast.LENGTH_SHORT).show();
+        }
+        GalleryChanges.getInstance(this).notifyChanges(GalleryChanges.OP_DELETE, deleted);
+
+        List<List<Uri>> remaining = new ArrayList<>();
+        for (List<Uri> group : groups) {
+            List<Uri> kept = new ArrayList<>(group);
+            Iterator<Uri> iterator = kept.iterator();
+            while (iterator.hasNext()) {
+                if (deleted.contains(iterator.next())) {
+                    iterator.remove();
+                }
+            }
+            if (kept.size() > 1) {
+                remaining.add(kept);
+            }
+        }
+        showGroups(remaining);
+    }
+
+    // Draws a line between groups, so it is clear which photos a tap on "mark copies" covers
+    private class GroupDividers extends RecyclerView.ItemDecoration {
+        private final Paint paint = new Paint();
+        private final int gap;
+
+        GroupDividers() {
+            gap = getResources().getDimensionPixelSize(R.dimen.duplicate_group_gap);
+            paint.setColor(ContextCompat.getColor(DuplicatesActivity.this, R.color.teal_700));
+            paint.setStrokeWidth(getResources().getDimension(R.dimen.duplicate_divider_width));
+        }
+
+        @Override
+        public void getItemOffsets(Rect outRect, View view, RecyclerView parent, RecyclerView.State state) {
+            int position = parent.getChildAdapterPosition(view);
+            if (position == RecyclerView.NO_POSITION || position >= groupOfPosition.length) {
+                return;
+            }
+            if (groupOfPosition[position] > 0 && indexInGroup[position] < SPAN_COUNT) {
+                outRect.top = gap;
+            }
+            // A photo filling out its row stays as wide as the others
+            int width = parent.getWidth() - parent.getPaddingLeft() - parent.getPaddingRight();
+            outRect.right = (spanSize(position) - 1) * width / SPAN_COUNT;
+        }
+
+        @Override
+        public void onDraw(Canvas canvas, RecyclerView parent, RecyclerView.State state) {
+            for (int i = 0; i < parent.getChildCount(); i++) {
+                View child = parent.getChildAt(i);
+                int position = parent.getChildAdapterPosition(child);
+                if (position == RecyclerView.NO_POSITION || position >= groupOfPosition.length) {
+                    continue;
+                }
+                if (groupOfPosition[position] > 0 && indexInGroup[position] == 0) {
+                    float y = child.getTop() - gap / 2f;
+                    canvas.drawLine(parent.getPaddingLeft(), y,
+                            parent.getWidth() - parent.getPaddingRight(), y, paint);
+                }
+            }
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (searchTask != null) {
+            searchTask.cancel(true);
+        }
+        executorService.shutdown();
+    }
+}
@@ -0,0 +1,240 @@
+package com.nbuit.galleryapp104204;
+
+import android.graphics.Bitmap;
+import android.os.CancellationSignal;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+// Non-destructive edit history. Edits are kept as a log of pipeline stages and a
+// position; undo and redo only move the position, and a new edit drops whatever had
+// been undone. The image at a position is rendered from the preview, starting at the
+// nearest bitmap checkpoint. Checkpoints are taken every CHECKPOINT_INTERVAL
+// operations while they fit the memory budget, so undo and redo replay at most a few
+// operations however long the history grows.
+public class EditHistory {
+
+    public static final int CHECKPOINT_INTERVAL = 4;
+
+    private final long checkpointBudget;
+    // Main thread only
+    private final List<FilterPipeline.Stage> operations = new ArrayList<>();
+    private int position;
+
+    // Touched only while rendering, which happens on one worker thread at a time
+    private final List<Checkpoint> checkpoints = new ArrayList<>();
+    private long checkpointBytes;
+
+    private static class Checkpoint {
+        // The preview, scale and operations it was rendered from
+        final Bitmap source;
+        final float scale;
+        final List<FilterPipeline.Stage> applied;
+        final Bitmap bitmap;
+
+        Checkpoint(Bitmap source, float scale, List<FilterPipeline.Stage> applied, Bitmap bitmap) {
+            this.source = source;
+            this.scale = scale;
+            this.applied = applied;
+            this.bitmap = bitmap;
+        }
+
+        // Stages are immutable, so the same instances mean the same result
+        boolean isPrefixOf(Bitmap source, float scale, List<FilterPipeline.Stage> operations) {
+            if (this.source != source || this.scale != scale || applied.size() > operations.size()) {
+                return false;
+            }
+            for (int i = 0; i < applied.size(); i++) {
+                if (applied.get(i) != operations.get(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    public EditHistory() {
+        this(Runtime.getRuntime().maxMemory() / 16);
+    }
+
+    public EditHistory(long checkpointBudget) {
+        this.checkpointBudget = checkpointBudget;
+    }
+
+    public void add(FilterPipeline.Stage stage) {
+        while (operations.size() > position) {
+            operations.remove(operations.size() - 1);
+        }
+        operations.add(stage);
+        position++;
+    }
+
+    public boolean undo() {
+        if (position == 0) {
+            return false;
+        }
+        position--;
+        return true;
+    }
+
+    public boolean redo() {
+        if (position == operations.size()) {
+            return false;
+        }
+        position++;
+        return true;
+    }
+
+    // Back to the unedited photo, but still in the log so redo can bring the edits back
+    public void reset() {
+        position = 0;
+    }
+
+    public boolean canUndo() {
+        return position > 0;
+    }
+
+    public boolean canRedo() {
+        return position < operations.size();
+    }
+
+    public int getPosition() {
+        return position;
+    }
+
+    public int size() {
+        return operations.size();
+    }
+
+    // The applied operations as one pipeline, for rendering at full resolution
+    public FilterPipeline recipe() {
+        return new FilterPipeline(operations.subList(0, position));
+    }
+
+    // Renders the current position from a preview that is scale times the source size.
+    // Checkpoints taken on the way are kept for later renders of the same preview.
+    public BitmapProcessor renderer(float scale) {
+        List<FilterPipeline.Stage> applied = new ArrayList<>(operations.subList(0, position));
+        return (preview, signal) -> render(preview, scale, applied, signal);
+    }
+
+    private synchronized Bitmap render(Bitmap preview, float scale, List<FilterPipeline.Stage> applied,
+                                       CancellationSignal signal) {
+        Checkpoint start = null;
+        Iterator<Checkpoint> iterator = checkpoints.iterator();
+        while (iterator.hasNext()) {
+            Checkpoint checkpoint = iterator.next();
+            if (checkpoint.source != preview || checkpoint.scale != scale) {
+                release(checkpoint);
+                iterator.remove();
+            } else if (checkpoint.isPrefixOf(preview, scale, applied)
+                    && (start == null || checkpoint.applied.size() > start.applied.size())) {
+                start = checkpoint;
+            }
+        }
+
+        int step = start != null ? start.applied.size() : 0;
+        Bitmap base = start != null ? start.bitmap : preview;
+        // Set while base is an intermediate result that no checkpoint owns
+        boolean ownsBase = false;
+        try {
+            int next = (step / CHECKPOINT_INTERVAL + 1) * CHECKPOINT_INTERVAL;
+            while (next < applied.size()) {
+                Bitmap checkpointBitmap = new FilterPipeline(applied.subList(step, next))
+                        .process(base, scale, signal, null);
+                if (ownsBase) {
+                    BitmapPool.getInstance().put(base);
+                }
+                base = checkpointBitmap;
+                ownsBase = !keep(new Checkpoint(preview, scale,
+                        new ArrayList<>(applied.subList(0, next)), checkpointBitmap));
+                step = next;
+                next += CHECKPOINT_INTERVAL;
+            }
+            return new FilterPipeline(applied.subList(step, applied.size())).process(base, scale, signal, null);
+        } finally {
+            if (ownsBase) {
+                BitmapPool.getInstance().put(base);
+            }
+        }
+    }
+
+    // Stores the checkpoint if it fits the budget, making room by dropping the ones
+    // that no longer match the log and then the ones farthest from it
+    private boolean keep(Checkpoint checkpoint) {
+        long bytes = checkpoint.bitmap.getAllocationByteCount();
+        if (bytes > checkpointBudget) {
+            return false;
+        }
+        while (checkpointBytes + bytes > checkpointBudget && !checkpoints.isEmpty()) {
+            Checkpoint evicted = null;
+            int farthest = -1;
+            for (Checkpoint candidate : checkpoints) {
+                int distance = candidate.isPrefixOf(checkpoint.source, checkpoint.scale, checkpoint.applied)
+                        ? checkpoint.applied.size() - candidate.applied.size()
+                        : Integer.MAX_VALUE;
+                if (distance > farthest) {
+                    farthest = distance;
+                    evicted = candidate;
+                }
+            }
+            checkpoints.remove(evicted);
+            release(evicted);
+        }
+        checkpoints.add(checkpoint);
+        checkpointBytes += bytes;
+        return true;
+    }
+
+    private void release(Checkpoint checkpoint) {
+        checkpointBytes -= checkpoint.bitmap.getAllocationByteCount();
+        BitmapPool.getInstance().put(checkpoint.bitmap);
+    }
+
+    // Call on the rendering thread once the history is no longer needed
+    public synchronized void releaseCheckpoints() {
+        for (Checkpoint checkpoint : checkpoints) {
+            release(checkpoint);
+        }
+        checkpoints.clear();
+    }
+
+    public String encode() {
+        JSONArray json = new JSONArray();
+        try {
+            for (FilterPipeline.Stage stage : operations) {
+                json.put(stage.toJson());
+            }
+        } catch (JSONException e) {
+            throw new IllegalStateException(e);
+        }
+        return json.toString();
+    }
+
+    // Replaces the log with a stored one. A log this version cannot read is dropped
+    // as a whole rather than replayed with gaps.
+    public boolean restore(EditRecipe recipe) {
+        List<FilterPipeline.Stage> restored = new ArrayList<>();
+        try {
+            JSONArray json = new JSONArray(recipe.operations);
+            for (int i = 0; i < json.length(); i++) {
+                restored.add(FilterPipeline.Stage.fromJson(json.getJSONObject(i)));
+            }
+        } catch (JSONException e) {
+            return false;
+        }
+        operations.clear();
+        operations.addAll(restored);
+        position = Math.max(0, Math.min(recipe.position, operations.size()));
+        return true;
+    }
+
+    public void clear() {
+        operations.clear();
+        position = 0;
+    }
+}
@@ -1,17 +1,26 @@
 package com.nbuit.galleryapp104204;
 
 import android.Manifest;
+import android.app.RecoverableSecurityException;
 import android.content.Intent;
+import android.content.IntentSender;
 import android.content.pm.PackageManager;
 import android.database.Cursor;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
-import android.graphics.Color;
 import android.net.Uri;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
 import android.provider.MediaStore;
+import android.util.Log;
 import android.view.View;
 import android.widget.ImageView;
+import android.widget.ProgressBar;
+import android.widget.RadioGroup;
+import android.widget.SeekBar;
+import android.widget.TextView;
 import android.widget.Toast;
 
 import androidx.annotation.NonNull;
@@ -22,15 +31,63 @@ import androidx.core.content.ContextCompat;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class EditPhotoActivity extends AppCompatActivity {
 
     private static final int REQUEST_PERMISSIONS = 1;
+    private static final int REQUEST_WRITE = 2;
+    private static final int DEFAULT_QUALITY = 95;
+    private static final int MIN_QUALITY = 10;
+    // Indexed by PhotoExporter format
+    private static final int[] FORMAT_BUTTONS = {R.id.radioJpeg, R.id.radioPng, R.id.radioWebp};
+
+    private static final float BRIGHTNESS_STEP = 20;
+    private static final float CONTRAST_STEP = 1.2f;
+    private static final float SATURATION_STEP = 1.3f;
+    private static final int WARM_TINT = 0xFFFF9933;
+    private static final float TINT_AMOUNT = 0.15f;
+    private static final float[] SWAP_RED_BLUE = {
+            0, 0, 1,
+            0, 1, 0,
+            1, 0, 0};
+    // Blur strength relative to the shorter side, so it looks the same at any resolution
+    private static final float BLUR_SIGMA_FRACTION = 1 / 300f;
+    private static final float MIN_BLUR_SIGMA = 2;
+    private static final float SHARPEN_SIGMA = 1.5f;
+    private static final float SHARPEN_AMOUNT = 0.8f;
+    private static final int SHARPEN_THRESHOLD = 3;
+    // Share of the darkest and brightest pixels auto levels lets clip
+    private static final float LEVELS_CLIP = 0.005f;
 
     private ImageView imageViewPhoto;
-    private Bitmap originalBitmap;
+    private HistogramView histogramView;
+    // Screen-sized decode of the photo that effects are previewed on
+    private Bitmap previewBitmap;
     private Bitmap editedBitmap;
+    private Histogram previewHistogram;
+    // Histogram of whatever imageViewPhoto shows
+    private Histogram shownHistogram;
     private Uri imageUri;
+    private int sourceWidth;
+    private int sourceHeight;
+    // Size of the preview relative to the full-resolution photo
+    private float previewScale = 1;
+    private final ExecutorService effectExecutor = Executors.newSingleThreadExecutor();
+    private final ExecutorService exportExecutor = Executors.newSingleThreadExecutor();
+    // Signal of the effect being computed, cancelled when another one is picked
+    private CancellationSignal effectSignal;
+    // Effects picked so far, rendered from previewBitmap on every change and against
+    // the full-resolution photo when it is saved
+    private final EditHistory history = new EditHistory();
+    private GalleryDatabaseHelper databaseHelper;
+    // Last choices in the export dialog
+    private int exportFormat = PhotoExporter.FORMAT_JPEG;
+    private int exportQuality = DEFAULT_QUALITY;
+    // Replace to run again once the user grants write access to the photo
+    private Runnable pendingWrite;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -38,49 +95,215 @@ public class EditPhotoActivity extends AppCompatActivity {
         setContentView(R.layout.activity_edit_photo);
 
         imageViewPhoto = findViewById(R.id.imageViewPhoto);
+        histogramView = findViewById(R.id.histogramView);
+        databaseHelper = GalleryDatabaseHelper.getInstance(this);
         setUpButtons();
 
         Intent intent = getIntent();
         imageUri = Uri.parse(intent.getStringExtra("photoUri"));
-        loadOriginalImage();
+        loadPreview();
     }
 
     private void setUpButtons() {
-        findViewById(R.id.buttonGreyscale).setOnClickListener(v -> applyEffect(this::applyGreyscale));
-        findViewById(R.id.buttonInvertColors).setOnClickListener(v -> applyEffect(this::applyInvertColors));
-        findViewById(R.id.buttonUndo).setOnClickListener(v -> resetImage());
+        findViewById(R.id.buttonGreyscale).setOnClickListener(v -> addStage(FilterPipeline.Stage.greyscale()));
+        findViewById(R.id.buttonInvertColors).setOnClickListener(v -> addStage(FilterPipeline.Stage.invert()));
+        findViewById(R.id.buttonHistogram).setOnClickListener(v -> histogramView.setVisibility(
+                histogramView.getVisibility() == View.VISIBLE ? View.GONE : View.VISIBLE));
+        findViewById(R.id.buttonAutoLevels).setOnClickListener(v -> addAutoLevels(false));
+        findViewById(R.id.buttonAutoContrast).setOnClickListener(v -> addAutoLevels(true));
+        findViewById(R.id.buttonBrightness).setOnClickListener(v -> addStage(FilterPipeline.Stage.brightness(BRIGHTNESS_STEP)));
+        findViewById(R.id.buttonContrast).setOnClickListener(v -> addStage(FilterPipeline.Stage.contrast(CONTRAST_STEP)));
+        findViewById(R.id.buttonSaturation).setOnClickListener(v -> addStage(FilterPipeline.Stage.saturation(SATURATION_STEP)));
+        findViewById(R.id.buttonSepia).setOnClickListener(v -> addStage(FilterPipeline.Stage.sepia()));
+        findViewById(R.id.buttonTint).setOnClickListener(v -> addStage(FilterPipeline.Stage.tint(WARM_TINT, TINT_AMOUNT)));
+        findViewById(R.id.buttonChannelMix).setOnClickListener(v -> addStage(FilterPipeline.Stage.channelMix(SWAP_RED_BLUE)));
+        findViewById(R.id.buttonBlur).setOnClickListener(v -> addStage(FilterPipeline.Stage.gaussianBlur(blurSigma())));
+        findViewById(R.id.buttonBoxBlur).setOnClickListener(v -> addStage(FilterPipeline.Stage.boxBlur(Math.round(blurSigma() * 2))));
+        findViewById(R.id.buttonSharpen).setOnClickListener(v -> addStage(
+                FilterPipeline.Stage.unsharpMask(SHARPEN_SIGMA, SHARPEN_AMOUNT, SHARPEN_THRESHOLD)));
+        findViewById(R.id.buttonEdges).setOnClickListener(v -> addStage(FilterPipeline.Stage.edgeDetect()));
+        findViewById(R.id.buttonUndo).setOnClickListener(v -> undo());
+        findViewById(R.id.buttonUndo).setOnLongClickListener(v -> {
+            resetImage();
+            return true;
+        });
+        findViewById(R.id.buttonRedo).setOnClickListener(v -> redo());
         findViewById(R.id.buttonSave).setOnClickListener(v -> saveNewPhoto());
-        findViewById(R.id.buttonReplace).setOnClickListener(v -> showReplaceConfirmationDialog());
+        findViewById(R.id.buttonReplace).setOnClickListener(v -> replaceOriginalPhoto());
         findViewById(R.id.buttonDelete).setOnClickListener(v -> showDeleteConfirmationDialog());
     }
 
-    private void loadOriginalImage() {
-        if (imageUri != null) {
+    // Decodes the photo just large enough to fill the screen, so previews take about
+    // the same time however large the photo is
+    private void loadPreview() {
+        if (imageUri == null) {
+            return;
+        }
+        int previewSize = Math.min(getResources().getDisplayMetrics().widthPixels,
+                getResources().getDisplayMetrics().heightPixels);
+        effectExecutor.execute(() -> {
             try {
-                originalBitmap = loadImageFromUri(imageUri);
-                imageViewPhoto.setImageBitmap(originalBitmap);
+                BitmapFactory.Options bounds = BitmapDecoder.decodeBounds(() -> getContentResolver().openInputStream(imageUri));
+                Bitmap preview = BitmapDecoder.decodeSampled(
+                        () -> getContentResolver().openInputStream(imageUri), previewSize, true);
+                if (preview == null) {
+                    return;
+                }
+                Histogram histogram = FilterEngine.getInstance().histogram(preview, null);
+                EditRecipe recipe = databaseHelper.getEditRecipe(imageUri.toString());
+                runOnUiThread(() -> showPreview(preview, bounds.outWidth, bounds.outHeight, histogram, recipe));
             } catch (IOException e) {
                 e.printStackTrace();
             }
+        });
+    }
+
+    // Reopens the stored edits of the photo, if it has any
+    private void showPreview(Bitmap preview, int width, int height, Histogram histogram, EditRecipe recipe) {
+        if (isDestroyed()) {
+            BitmapPool.getInstance().put(preview);
+            return;
+        }
+        Bitmap previousPreview = previewBitmap;
+        Bitmap previousEdit = editedBitmap;
+        previewBitmap = preview;
+        editedBitmap = null;
+        sourceWidth = width;
+        sourceHeight = height;
+        previewScale = (float) preview.getWidth() / width;
+        previewHistogram = histogram;
+        imageViewPhoto.setImageBitmap(previewBitmap);
+        showHistogram(previewHistogram);
+        BitmapPool.getInstance().put(previousPreview);
+        BitmapPool.getInstance().put(previousEdit);
+        if (recipe != null && history.restore(recipe)) {
+            showHistoryPosition();
         }
     }
 
     private Bitmap loadImageFromUri(Uri uri) throws IOException {
-        InputStream inputStream = getContentResolver().openInputStream(uri);
-        return BitmapFactory.decodeStream(inputStream);
+        try (InputStream inputStream = getContentResolver().openInputStream(uri)) {
+            return BitmapFactory.decodeStream(inputStream);
+        }
     }
 
+    private void addStage(FilterPipeline.Stage stage) {
+        if (previewBitmap == null) {
+            return;
+        }
+        history.add(stage);
+        showHistoryPosition();
+    }
+
+    // Levels are measured on the photo as shown, which is the current history position
+    // once no effect is still rendering, and then fixed in the stage
+    private void addAutoLevels(boolean keepColors) {
+        if (previewBitmap == null || shownHistogram == null || effectSignal != null) {
+            return;
+        }
+        int[] points = keepColors ? shownHistogram.autoContrast(LEVELS_CLIP) : shownHistogram.autoLevels(LEVELS_CLIP);
+        addStage(FilterPipeline.Stage.levels(points));
+    }
+
+    private void showHistogram(Histogram histogram) {
+        shownHistogram = histogram;
+        histogramView.setHistogram(histogram);
+    }
+
+    private float blurSigma() {
+        if (previewBitmap == null) {
+            return MIN_BLUR_SIGMA;
+        }
+        // In full-resolution pixels, like every size in the pipeline
+        int shortSide = Math.min(sourceWidth, sourceHeight);
+        return Math.max(MIN_BLUR_SIGMA, shortSide * BLUR_SIGMA_FRACTION);
+    }
+
+    private void undo() {
+        if (previewBitmap != null && history.undo()) {
+            showHistoryPosition();
+        }
+    }
+
+    private void redo() {
+        if (previewBitmap != null && history.redo()) {
+            showHistoryPosition();
+        }
+    }
+
+    // Renders the history at its current position, or shows the preview if nothing is applied
+    private void showHistoryPosition() {
+        if (history.getPosition() == 0) {
+            cancelEffect();
+            imageViewPhoto.setImageBitmap(previewBitmap);
+            showHistogram(previewHistogram);
+            hideSaveReplaceButtons();
+        } else {
+            applyEffect(history.renderer(previewScale));
+        }
+    }
+
+    // Effects run off the main thread. Picking another effect cancels the one still
+    // running, and only the latest result is shown.
     private void applyEffect(BitmapProcessor processor) {
-        if (originalBitmap != null) {
-            editedBitmap = processor.process(originalBitmap);
-            imageViewPhoto.setImageBitmap(editedBitmap);
-            showSaveReplaceButtons();
+        if (previewBitmap == null) {
+            return;
+        }
+        cancelEffect();
+        CancellationSignal signal = new CancellationSignal();
+        effectSignal = signal;
+        Bitmap source = previewBitmap;
+        effectExecutor.execute(() -> {
+            Bitmap result = null;
+            Histogram histogram;
+            try {
+                result = processor.process(source, signal);
+                // A few milliseconds at preview size, so the overlay follows every change
+                histogram = FilterEngine.getInstance().histogram(result, signal);
+            } catch (OperationCanceledException e) {
+                BitmapPool.getInstance().put(result);
+                return;
+            } catch (RuntimeException e) {
+                BitmapPool.getInstance().put(result);
+                if (!signal.isCanceled()) {
+                    Log.e("EditPhotoActivity", "Error applying effect", e);
+                }
+                return;
+            }
+            Bitmap shown = result;
+            runOnUiThread(() -> showEffectResult(shown, histogram, signal));
+        });
+    }
+
+    private void showEffectResult(Bitmap result, Histogram histogram, CancellationSignal signal) {
+        if (signal.isCanceled() || isDestroyed()) {
+            BitmapPool.getInstance().put(result);
+            return;
+        }
+        effectSignal = null;
+        Bitmap previousBitmap = editedBitmap;
+        editedBitmap = result;
+        imageViewPhoto.setImageBitmap(editedBitmap);
+        showHistogram(histogram);
+        if (previousBitmap != null && previousBitmap != editedBitmap) {
+            BitmapPool.getInstance().put(previousBitmap);
+        }
+        showSaveReplaceButtons();
+    }
+
+    private void cancelEffect() {
+        if (effectSignal != null) {
+            effectSignal.cancel();
+            effectSignal = null;
         }
     }
 
+    // Undoable: the edits stay in the history and redo brings them back one by one
     private void resetImage() {
-        imageViewPhoto.setImageBitmap(originalBitmap);
-        hideSaveReplaceButtons();
+        if (previewBitmap != null) {
+            history.reset();
+            showHistoryPosition();
+        }
     }
 
     private void showSaveReplaceButtons() {
@@ -93,68 +316,254 @@ public class EditPhotoActivity extends AppCompatActivity {
 
     private void saveNewPhoto() {
         if (checkPermissions()) {
-            try {
-                String savedImageURL = MediaStore.Images.Media.insertImage(
-                        getContentResolver(),
-                        editedBitmap,
-                        "Edited Photo",
-                        "Edited photo from app"
-                );
-
-                Uri savedImageUri = Uri.parse(savedImageURL);
-                if (savedImageUri != null) {
-                    Toast.makeText(this, "Image saved: " + savedImageUri, Toast.LENGTH_SHORT).show();
-                    notifyGalleryUpdate();
-                    hideSaveReplaceButtons();
-                } else {
-                    Toast.makeText(this, "Failed to save image", Toast.LENGTH_SHORT).show();
-                }
-            } catch (Exception e) {
-                e.printStackTrace();
-                Toast.makeText(this, "Failed to save image", Toast.LENGTH_SHORT).show();
-            }
+            showExportDialog(false);
+        } else {
+            requestPermissions();
+        }
+    }
+
+    private void replaceOriginalPhoto() {
+        if (checkPermissions()) {
+            showExportDialog(true);
         } else {
             requestPermissions();
         }
     }
 
-    private void showReplaceConfirmationDialog() {
+    // Lets the user pick the format and quality. Replacing keeps the photo's own format,
+    // since the item is rewritten under its existing name, and photos too large to
+    // render whole can only be written as PNG.
+    private void showExportDialog(boolean replace) {
+        if (previewBitmap == null) {
+            return;
+        }
+        boolean tiled = !fitsInMemory(sourceWidth, sourceHeight);
+        int fixedFormat = -1;
+        String formatNote = null;
+        if (replace) {
+            fixedFormat = PhotoExporter.formatOf(getContentResolver().getType(imageUri));
+            if (fixedFormat < 0 || (tiled && fixedFormat != PhotoExporter.FORMAT_PNG)) {
+                Toast.makeText(this, "This photo cannot be replaced, save a copy instead", Toast.LENGTH_SHORT).show();
+                return;
+            }
+            formatNote = "Replacing keeps the format of the photo";
+        } else if (tiled) {
+            fixedFormat = PhotoExporter.FORMAT_PNG;
+            formatNote = "Photos this large are saved as PNG";
+        }
+
+        View view = getLayoutInflater().inflate(R.layout.dialog_export, null);
+        RadioGroup radioGroupFormat = view.findViewById(R.id.radioGroupFormat);
+        TextView textViewFormatNote = view.findViewById(R.id.textViewFormatNote);
+        TextView textViewQuality = view.findViewById(R.id.textViewQuality);
+        SeekBar seekBarQuality = view.findViewById(R.id.seekBarQuality);
+        if (fixedFormat >= 0) {
+            for (int format = 0; format < FORMAT_BUTTONS.length; format++) {
+                view.findViewById(FORMAT_BUTTONS[format]).setEnabled(format == fixedFormat);
+            }
+            textViewFormatNote.setText(formatNote);
+            textViewFormatNote.setVisibility(View.VISIBLE);
+        }
+        radioGroupFormat.check(FORMAT_BUTTONS[fixedFormat >= 0 ? fixedFormat : exportFormat]);
+        seekBarQuality.setProgress(exportQuality);
+
+        Runnable showQuality = () -> {
+            boolean lossy = checkedFormat(radioGroupFormat) != PhotoExporter.FORMAT_PNG;
+            seekBarQuality.setEnabled(lossy);
+            textViewQuality.setText(lossy
+                    ? "Quality: " + Math.max(MIN_QUALITY, seekBarQuality.getProgress())
+                    : "Quality: lossless");
+        };
+        showQuality.run();
+        radioGroupFormat.setOnCheckedChangeListener((group, checkedId) -> showQuality.run());
+        seekBarQuality.setOnSeekBarChangeListener(new SeekBar.OnSeekBarChangeListener() {
+            @Override
+            public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
+                showQuality.run();
+            }
+
+            @Override
+            public void onStartTrackingTouch(SeekBar seekBar) {
+            }
+
+            @Override
+            public void onStopTrackingTouch(SeekBar seekBar) {
+            }
+        });
+
         new AlertDialog.Builder(this)
-                .setTitle("Replace Photo")
-                .setMessage("You are about to replace the image. Proceed?")
-                .setPositiveButton("Yes", (dialog, which) -> replaceOriginalPhoto())
-                .setNegativeButton("No", null)
+                .setTitle(replace ? "Replace Photo" : "Save Photo")
+                .setMessage(replace ? "You are about to replace the image. Proceed?" : null)
+                .setView(view)
+                .setPositiveButton(replace ? "Replace" : "Save", (dialog, which) -> {
+                    int format = checkedFormat(radioGroupFormat);
+                    int quality = Math.max(MIN_QUALITY, seekBarQuality.getProgress());
+                    if (!replace) {
+                        exportFormat = format;
+                    }
+                    exportQuality = quality;
+                    exportPhoto(replace, format, quality);
+                })
+                .setNegativeButton("Cancel", null)
                 .show();
     }
 
-    private void replaceOriginalPhoto() {
-        if (checkPermissions()) {
-            try {
-                String imagePath = getImagePathFromUri(imageUri);
+    private static int checkedFormat(RadioGroup radioGroupFormat) {
+        int checkedId = radioGroupFormat.getCheckedRadioButtonId();
+        for (int format = 0; format < FORMAT_BUTTONS.length; format++) {
+            if (FORMAT_BUTTONS[format] == checkedId) {
+                return format;
+            }
+        }
+        return PhotoExporter.FORMAT_JPEG;
+    }
 
-                getContentResolver().delete(MediaStore.Images.Media.EXTERNAL_CONTENT_URI,
-                        MediaStore.Images.Media.DATA + "=?", new String[]{imagePath});
+    // Runs the recipe over the full-resolution photo and writes it out, all in the
+    // background, with a progress dialog that can cancel it. Photos that fit in memory
+    // are decoded whole and encoded in the chosen format; larger ones are rendered tile
+    // by tile and streamed out as PNG, the one format that can be encoded that way.
+    private void exportPhoto(boolean replace, int format, int quality) {
+        FilterPipeline recipe = history.recipe();
+        boolean tiled = !fitsInMemory(sourceWidth, sourceHeight);
+        CancellationSignal signal = new CancellationSignal();
+        ProgressBar progressBar = new ProgressBar(this, null, android.R.attr.progressBarStyleHorizontal);
+        progressBar.setIndeterminate(false);
+        // Decoding and writing count as one step each, tiled renders count rows
+        progressBar.setMax(tiled ? sourceHeight : recipe.getStages().size() + 2);
+        int padding = Math.round(16 * getResources().getDisplayMetrics().density);
+        progressBar.setPadding(padding, padding, padding, padding);
+        AlertDialog progressDialog = new AlertDialog.Builder(this)
+                .setTitle(replace ? "Replacing Photo" : "Saving Photo")
+                .setView(progressBar)
+                .setCancelable(false)
+                .setNegativeButton("Cancel", (dialog, which) -> signal.cancel())
+                .show();
 
-                String savedImageURL = MediaStore.Images.Media.insertImage(
-                        getContentResolver(),
-                        editedBitmap,
-                        "Replaced Photo",
-                        "Replaced photo"
-                );
-                Uri savedImageUri = Uri.parse(savedImageURL);
-                Toast.makeText(this, "Image replaced: " + savedImageUri, Toast.LENGTH_SHORT).show();
-
-                notifyGalleryUpdate();
-                hideSaveReplaceButtons();
+        Uri sourceUri = imageUri;
+        PhotoExporter exporter = new PhotoExporter(getContentResolver());
+        exportExecutor.execute(() -> {
+            Bitmap source = null;
+            Bitmap rendered = null;
+            try {
+                PhotoExporter.Encoder encoder;
+                if (tiled) {
+                    encoder = out -> TiledRenderer.renderToPng(
+                            () -> getContentResolver().openInputStream(sourceUri), recipe, out, signal,
+                            (rowsWritten, totalRows) -> runOnUiThread(() -> progressBar.setProgress(rowsWritten)));
+                } else {
+                    source = loadImageFromUri(sourceUri);
+                    if (source == null) {
+                        throw new IOException("Cannot decode " + sourceUri);
+                    }
+                    runOnUiThread(() -> progressBar.setProgress(1));
+                    rendered = recipe.process(source, 1, signal, (finishedPasses, totalPasses) -> runOnUiThread(() -> {
+                        // Fused stages make fewer passes than stages, so spread them over the bar
+                        progressBar.setMax(totalPasses + 2);
+                        progressBar.setProgress(finishedPasses + 1);
+                    }));
+                    encoder = PhotoExporter.bitmapEncoder(rendered, format, quality);
+                }
+                signal.throwIfCanceled();
+
+                if (replace) {
+                    exporter.overwrite(sourceUri, encoder, getCacheDir());
+                    finishExport(progressDialog, this::onPhotoReplaced);
+                } else {
+                    Uri uri = exporter.insert("Edited Photo", format, encoder);
+                    finishExport(progressDialog, () -> onPhotoSaved(uri));
+                }
+            } catch (OperationCanceledException e) {
+                finishExport(progressDialog, () -> Toast.makeText(this, "Export cancelled", Toast.LENGTH_SHORT).show());
+            } catch (SecurityException e) {
+                // Photos of other apps can be rewritten once the user allows it
+                finishExport(progressDialog, () -> requestWriteAccess(e, () -> exportPhoto(replace, format, quality)));
             } catch (Exception e) {
-                e.printStackTrace();
-                Toast.makeText(this, "Failed to replace image", Toast.LENGTH_SHORT).show();
+                Log.e("EditPhotoActivity", "Error exporting photo", e);
+                finishExport(progressDialog, () -> Toast.makeText(this,
+                        replace ? "Failed to replace image" : "Failed to save image", Toast.LENGTH_SHORT).show());
+            } finally {
+                BitmapPool.getInstance().put(rendered);
+                BitmapPool.getInstance().put(source);
             }
+        });
+    }
+
+    // Worker thread. Runs then on the main thread unless the editor is gone.
+    private void finishExport(AlertDialog progressDialog, Runnable then) {
+        runOnUiThread(() -> {
+            if (isDestroyed()) {
+                return;
+            }
+            progressDialog.dismiss();
+            then.run();
+        });
+    }
+
+    private void onPhotoSaved(Uri savedImageUri) {
+        if (savedImageUri != null) {
+            Toast.makeText(this, "Image saved: " + savedImageUri, Toast.LENGTH_SHORT).show();
+            notifyGalleryUpdate(GalleryChanges.OP_INSERT, savedImageUri);
+            hideSaveReplaceButtons();
         } else {
-            requestPermissions();
+            Toast.makeText(this, "Failed to save image", Toast.LENGTH_SHORT).show();
+        }
+    }
+
+    // The edits are part of the photo now, so editing goes on from there with an empty
+    // history. The item keeps its uri, only its pixels changed.
+    private void onPhotoReplaced() {
+        Toast.makeText(this, "Image replaced", Toast.LENGTH_SHORT).show();
+        notifyGalleryUpdate(GalleryChanges.OP_UPDATE, imageUri);
+        hideSaveReplaceButtons();
+        String replacedUri = imageUri.toString();
+        exportExecutor.execute(() -> databaseHelper.deleteEditRecipe(replacedUri));
+        cancelEffect();
+        effectExecutor.execute(history::releaseCheckpoints);
+        history.clear();
+        loadPreview();
+    }
+
+    private void requestWriteAccess(SecurityException e, Runnable retry) {
+        IntentSender writeRequest = null;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+            writeRequest = MediaStore.createWriteRequest(getContentResolver(),
+                    Collections.singletonList(imageUri)).getIntentSender();
+        } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q && e instanceof RecoverableSecurityException) {
+            writeRequest = ((RecoverableSecurityException) e).getUserAction().getActionIntent().getIntentSender();
+        }
+        if (writeRequest == null) {
+            Log.e("EditPhotoActivity", "Not allowed to replace " + imageUri, e);
+            Toast.makeText(this, "Failed to replace image", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        pendingWrite = retry;
+        try {
+            startIntentSenderForResult(writeRequest, REQUEST_WRITE, null, 0, 0, 0);
+        } catch (IntentSender.SendIntentException ex) {
+            pendingWrite = null;
+            Log.e("EditPhotoActivity", "Error requesting write access", ex);
+            Toast.makeText(this, "Failed to replace image", Toast.LENGTH_SHORT).show();
+        }
+    }
+
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        super.onActivityResult(requestCode, resultCode, data);
+        if (requestCode == REQUEST_WRITE) {
+            Runnable retry = pendingWrite;
+            pendingWrite = null;
+            if (resultCode == RESULT_OK && retry != null) {
+                retry.run();
+            }
         }
     }
 
+    // The source, the result and one intermediate pass all at full size
+    private static boolean fitsInMemory(int width, int height) {
+        long bytes = (long) width * height * 4;
+        return bytes * 4 <= Runtime.getRuntime().maxMemory();
+    }
+
     private void showDeleteConfirmationDialog() {
         new AlertDialog.Builder(this)
                 .setTitle("Delete Photo")
@@ -171,7 +580,9 @@ public class EditPhotoActivity extends AppCompatActivity {
                 getContentResolver().delete(MediaStore.Images.Media.EXTERNAL_CONTENT_URI,
                         MediaStore.Images.Media.DATA + "=?", new String[]{imagePath});
                 Toast.makeText(this, "Photo deleted", Toast.LENGTH_SHORT).show();
-                notifyGalleryUpdate();
+                // Saving an empty history in onPause drops the stored recipe
+                history.clear();
+                notifyGalleryUpdate(GalleryChanges.OP_DELETE, imageUri);
                 finish();
             } catch (Exception e) {
                 e.printStackTrace();
@@ -192,7 +603,12 @@ public class EditPhotoActivity extends AppCompatActivity {
         return null;
     }
 
+    // Since Android 10 the app writes its own MediaStore items without a permission and
+    // asks per photo for those of other apps
     private boolean checkPermissions() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            return true;
+        }
         return ContextCompat.checkSelfPermission(this, Manifest.permission.WRITE_EXTERNAL_STORAGE) == PackageManager.PERMISSION_GRANTED;
     }
 
@@ -211,38 +627,46 @@ public class EditPhotoActivity extends AppCompatActivity {
         }
     }
 
-    private void notifyGalleryUpdate() {
-        Intent intent = new Intent("ACTION_UPDATE_GALLERY");
-        sendBroadcast(intent);
-    }
-
-    private interface BitmapProcessor {
-        Bitmap process(Bitmap bitmap);
+    @Override
+    protected void onPause() {
+        super.onPause();
+        saveHistory();
     }
 
-    private Bitmap applyGreyscale(Bitmap bitmap) {
-        return applyColorTransformation(bitmap, Color.rgb(0, 0, 0));
+    private void saveHistory() {
+        if (imageUri == null || previewBitmap == null) {
+            return;
+        }
+        String uri = imageUri.toString();
+        if (history.size() == 0) {
+            exportExecutor.execute(() -> databaseHelper.deleteEditRecipe(uri));
+        } else {
+            EditRecipe recipe = new EditRecipe(uri, history.encode(), history.getPosition());
+            exportExecutor.execute(() -> databaseHelper.saveEditRecipe(recipe));
+        }
     }
 
-    private Bitmap applyInvertColors(Bitmap bitmap) {
-        return applyColorTransformation(bitmap, Color.rgb(255, 255, 255));
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        cancelEffect();
+        imageViewPhoto.setImageDrawable(null);
+        // Queued behind any render still running, which may be using the checkpoints or
+        // reading the preview; a pooled bitmap can be reused by another decode right away
+        Bitmap edited = editedBitmap;
+        Bitmap preview = previewBitmap;
+        effectExecutor.execute(history::releaseCheckpoints);
+        effectExecutor.execute(() -> {
+            BitmapPool.getInstance().put(edited);
+            BitmapPool.getInstance().put(preview);
+        });
+        effectExecutor.shutdown();
+        exportExecutor.shutdown();
+        editedBitmap = null;
+        previewBitmap = null;
     }
 
-    private Bitmap applyColorTransformation(Bitmap bitmap, int colorTransform) {
-        int width = bitmap.getWidth();
-        int height = bitmap.getHeight();
-        Bitmap transformedBitmap = Bitmap.createBitmap(width, height, bitmap.getConfig());
-
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                int pixel = bitmap.getPixel(x, y);
-                int r = colorTransform == Color.rgb(0, 0, 0) ? (Color.red(pixel) + Color.green(pixel) + Color.blue(pixel)) / 3 : 255 - Color.red(pixel);
-                int g = colorTransform == Color.rgb(0, 0, 0) ? (Color.red(pixel) + Color.green(pixel) + Color.blue(pixel)) / 3 : 255 - Color.green(pixel);
-                int b = colorTransform == Color.rgb(0, 0, 0) ? (Color.red(pixel) + Color.green(pixel) + Color.blue(pixel)) / 3 : 255 - Color.blue(pixel);
-                transformedBitmap.setPixel(x, y, Color.rgb(r, g, b));
-            }
-        }
-        return transformedBitmap;
+    private void notifyGalleryUpdate(int op, Uri uri) {
+        GalleryChanges.getInstance(this).notifyChange(op, uri);
     }
 }
-
@@ -0,0 +1,16 @@
+package com.nbuit.galleryapp104204;
+
+// The stored edit history of one photo: the operation log as written by
+// EditHistory.encode, and how many of the operations are applied.
+public class EditRecipe {
+
+    public final String uri;
+    public final String operations;
+    public final int position;
+
+    public EditRecipe(String uri, String operations, int position) {
+        this.uri = uri;
+        this.operations = operations;
+        this.position = position;
+    }
+}
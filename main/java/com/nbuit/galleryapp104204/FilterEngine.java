@@ -0,0 +1,264 @@
+package com.nbuit.galleryapp104204;
+
+import android.graphics.Bitmap;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
+
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// Applies pixel filters to whole bitmaps. The image is split into stripes of rows
+// that are processed on every core through fork-join; each stripe is read with one
+// bulk getPixels into a per-thread buffer, filtered in place and written back with
+// one setPixels. Stripes are sized to stay in cache. Neighbourhood filters run the
+// same way over square tiles that are read with a halo of surrounding pixels.
+public class FilterEngine {
+
+    private static final int STRIPE_PIXELS = 64 * 1024;
+    private static final int TILE_SIZE = 256;
+    private static final int SLOT_IN = 0;
+    private static final int SLOT_OUT = 1;
+
+    private static FilterEngine instance;
+
+    private final ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    private final ThreadLocal<int[]> stripeBuffers = new ThreadLocal<>();
+    private final ThreadLocal<SpatialKernels.Scratch> tileScratch = new ThreadLocal<>();
+
+    public interface PixelFilter {
+        // Filters pixels[offset, offset + length) in place
+        void apply(int[] pixels, int offset, int length);
+    }
+
+    public interface SpatialFilter {
+        // Pixels of context the filter needs on every side of its output
+        int halo();
+
+        // in is inWidth x inHeight, halo() pixels larger than the output on every side.
+        // Writes the output tile row by row into out.
+        void apply(int[] in, int inWidth, int inHeight, int[] out, SpatialKernels.Scratch scratch);
+    }
+
+    public static synchronized FilterEngine getInstance() {
+        if (instance == null) {
+            instance = new FilterEngine();
+        }
+        return instance;
+    }
+
+    // Blocks until done, so call it from a worker thread. The result comes from the
+    // BitmapPool. Throws OperationCanceledException if the signal is cancelled first.
+    public Bitmap apply(Bitmap source, PixelFilter filter, CancellationSignal signal) {
+        int width = source.getWidth();
+        int height = source.getHeight();
+        Bitmap target = BitmapPool.getInstance().getDirty(width, height, source.getConfig());
+        int stripeRows = Math.max(1, STRIPE_PIXELS / width);
+        try {
+            pool.invoke(new StripeTask(source, target, filter, signal, 0, height, stripeRows));
+            if (signal != null) {
+                signal.throwIfCanceled();
+            }
+        } catch (RuntimeException e) {
+            BitmapPool.getInstance().put(target);
+            throw e;
+        }
+        return target;
+    }
+
+    // Like apply, for a neighbourhood filter. Pixels past the edges of the image repeat
+    // the nearest edge pixel. after, if not null, runs over every output tile before
+    // it is written, which saves a pass for point filters that follow.
+    public Bitmap convolve(Bitmap source, SpatialFilter filter, PixelFilter after, CancellationSignal signal) {
+        int width = source.getWidth();
+        int height = source.getHeight();
+        Bitmap target = BitmapPool.getInstance().getDirty(width, height, source.getConfig());
+        // Large halos get larger tiles so the overlap stays a fraction of the work
+        int tileSize = Math.max(TILE_SIZE, 2 * filter.halo());
+        int columns = (width + tileSize - 1) / tileSize;
+        int rows = (height + tileSize - 1) / tileSize;
+        try {
+            pool.invoke(new TileTask(source, target, filter, after, signal, tileSize, columns, 0, columns * rows));
+            if (signal != null) {
+                signal.throwIfCanceled();
+            }
+        } catch (RuntimeException e) {
+            BitmapPool.getInstance().put(target);
+            throw e;
+        }
+        return target;
+    }
+
+    // Red, green, blue and luma counts of every pixel, in one parallel pass that reads
+    // the stripes like apply but writes nothing back. Every worker thread counts into
+    // bins of its own and they are added up at the end, so the threads never share a
+    // counter. Blocks like apply.
+    public Histogram histogram(Bitmap source, CancellationSignal signal) {
+        ThreadLocal<int[]> threadBins = new ThreadLocal<>();
+        Queue<int[]> allBins = new ConcurrentLinkedQueue<>();
+        PixelFilter count = (pixels, offset, length) -> {
+            int[] bins = threadBins.get();
+            if (bins == null) {
+                bins = new int[Histogram.SIZE];
+                threadBins.set(bins);
+                allBins.add(bins);
+            }
+            Histogram.accumulate(pixels, offset, length, bins);
+        };
+        int stripeRows = Math.max(1, STRIPE_PIXELS / source.getWidth());
+        pool.invoke(new StripeTask(source, null, count, signal, 0, source.getHeight(), stripeRows));
+        if (signal != null) {
+            signal.throwIfCanceled();
+        }
+        int[] merged = new int[Histogram.SIZE];
+        for (int[] bins : allBins) {
+            Histogram.merge(bins, merged);
+        }
+        return new Histogram(merged);
+    }
+
+    private SpatialKernels.Scratch scratch() {
+        SpatialKernels.Scratch scratch = tileScratch.get();
+        if (scratch == null) {
+            scratch = new SpatialKernels.Scratch();
+            tileScratch.set(scratch);
+        }
+        return scratch;
+    }
+
+    private int[] stripeBuffer(int size) {
+        int[] buffer = stripeBuffers.get();
+        if (buffer == null || buffer.length < size) {
+            buffer = new int[size];
+            stripeBuffers.set(buffer);
+        }
+        return buffer;
+    }
+
+    private class StripeTask extends RecursiveAction {
+        private final Bitmap source;
+        private final Bitmap target;
+        private final PixelFilter filter;
+        private final CancellationSignal signal;
+        private final int startRow;
+        private final int endRow;
+        private final int stripeRows;
+
+        StripeTask(Bitmap source, Bitmap target, PixelFilter filter, CancellationSignal signal,
+                   int startRow, int endRow, int stripeRows) {
+            this.source = source;
+            this.target = target;
+            this.filter = filter;
+            this.signal = signal;
+            this.startRow = startRow;
+            this.endRow = endRow;
+            this.stripeRows = stripeRows;
+        }
+
+        @Override
+        protected void compute() {
+            if (signal != null && signal.isCanceled()) {
+                return;
+            }
+            int rows = endRow - startRow;
+            if (rows > stripeRows) {
+                // Split on a stripe boundary so every leaf is a whole stripe
+                int middle = startRow + ((rows / stripeRows + 1) / 2) * stripeRows;
+                invokeAll(new StripeTask(source, target, filter, signal, startRow, middle, stripeRows),
+                        new StripeTask(source, target, filter, signal, middle, endRow, stripeRows));
+                return;
+            }
+            int width = source.getWidth();
+            int[] pixels = stripeBuffer(width * rows);
+            source.getPixels(pixels, 0, width, 0, startRow, width, rows);
+            filter.apply(pixels, 0, width * rows);
+            // No target when the pass only reads
+            if (target != null) {
+                target.setPixels(pixels, 0, width, 0, startRow, width, rows);
+            }
+        }
+    }
+
+    private class TileTask extends RecursiveAction {
+        private final Bitmap source;
+        private final Bitmap target;
+        private final SpatialFilter filter;
+        private final PixelFilter after;
+        private final CancellationSignal signal;
+        private final int tileSize;
+        private final int columns;
+        private final int startTile;
+        private final int endTile;
+
+        TileTask(Bitmap source, Bitmap target, SpatialFilter filter, PixelFilter after,
+                 CancellationSignal signal, int tileSize, int columns, int startTile, int endTile) {
+            this.source = source;
+            this.target = target;
+            this.filter = filter;
+            this.after = after;
+            this.signal = signal;
+            this.tileSize = tileSize;
+            this.columns = columns;
+            this.startTile = startTile;
+            this.endTile = endTile;
+        }
+
+        @Override
+        protected void compute() {
+            if (signal != null && signal.isCanceled()) {
+                return;
+            }
+            if (endTile - startTile > 1) {
+                int middle = (startTile + endTile) >>> 1;
+                invokeAll(new TileTask(source, target, filter, after, signal, tileSize, columns, startTile, middle),
+                        new TileTask(source, target, filter, after, signal, tileSize, columns, middle, endTile));
+                return;
+            }
+            int x = (startTile % columns) * tileSize;
+            int y = (startTile / columns) * tileSize;
+            int width = Math.min(tileSize, source.getWidth() - x);
+            int height = Math.min(tileSize, source.getHeight() - y);
+            int halo = filter.halo();
+            int inWidth = width + 2 * halo;
+            int inHeight = height + 2 * halo;
+
+            SpatialKernels.Scratch scratch = scratch();
+            int[] in = scratch.get(SLOT_IN, inWidth * inHeight);
+            int[] out = scratch.get(SLOT_OUT, width * height);
+            readTile(source, x - halo, y - halo, inWidth, inHeight, in);
+            filter.apply(in, inWidth, inHeight, out, scratch);
+            if (after != null) {
+                after.apply(out, 0, width * height);
+            }
+            target.setPixels(out, 0, width, x, y, width, height);
+        }
+    }
+
+    // Reads the inWidth x inHeight area at (left, top) with one getPixels, then fills
+    // whatever lies outside the bitmap from the nearest edge
+    private static void readTile(Bitmap source, int left, int top, int inWidth, int inHeight, int[] in) {
+        int startX = Math.max(0, left);
+        int startY = Math.max(0, top);
+        int endX = Math.min(source.getWidth(), left + inWidth);
+        int endY = Math.min(source.getHeight(), top + inHeight);
+        int firstRow = startY - top;
+        int lastRow = endY - top - 1;
+        int firstColumn = startX - left;
+        int lastColumn = endX - left - 1;
+        source.getPixels(in, firstRow * inWidth + firstColumn, inWidth, startX, startY, endX - startX, endY - startY);
+
+        for (int row = firstRow; row <= lastRow; row++) {
+            int offset = row * inWidth;
+            Arrays.fill(in, offset, offset + firstColumn, in[offset + firstColumn]);
+            Arrays.fill(in, offset + lastColumn + 1, offset + inWidth, in[offset + lastColumn]);
+        }
+        for (int row = 0; row < firstRow; row++) {
+            System.arraycopy(in, firstRow * inWidth, in, row * inWidth, inWidth);
+        }
+        for (int row = lastRow + 1; row < inHeight; row++) {
+            System.arraycopy(in, lastRow * inWidth, in, row * inWidth, inWidth);
+        }
+    }
+}
@@ -0,0 +1,385 @@
+package com.nbuit.galleryapp104204;
+
+import android.graphics.Bitmap;
+import android.os.CancellationSignal;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// An ordered stack of editor effects that is rendered in one go. Runs of consecutive
+// color matrix stages are multiplied into a single matrix, and per-pixel stages are
+// chained inside one FilterEngine pass, so every stripe is read and written once
+// however many of them are stacked. Neighbourhood stages (blurs, sharpening, edges)
+// need the finished pixels around them and start a new pass; the per-pixel stages
+// after one run on its output tiles before they are written.
+//
+// Sizes given to neighbourhood stages are in pixels of the full-resolution source.
+// Rendering at another scale, e.g. for a screen-sized preview, scales them along.
+public class FilterPipeline implements BitmapProcessor {
+
+    // Keeps a single tile, halo included, to a few megabytes
+    private static final float MAX_SIGMA = 50;
+    // Below this a Gaussian barely reaches the neighbouring pixels
+    private static final float MIN_SIGMA = 0.3f;
+    private static final int MAX_RADIUS = 100;
+
+    private final List<Stage> stages;
+
+    // A single effect. Stages are immutable and know how to write themselves to a
+    // recipe, as a name and the arguments the factory method took.
+    public static class Stage {
+        public final String name;
+        private final float[] args;
+        // Exactly one of the three is set
+        final float[] matrix;
+        final FilterEngine.PixelFilter kernel;
+        final SpatialFactory spatial;
+
+        private Stage(String name, float[] args, float[] matrix, FilterEngine.PixelFilter kernel,
+                      SpatialFactory spatial) {
+            this.name = name;
+            this.args = args;
+            this.matrix = matrix;
+            this.kernel = kernel;
+            this.spatial = spatial;
+        }
+
+        private static Stage matrix(String name, float[] args, float[] matrix) {
+            return new Stage(name, args, matrix, null, null);
+        }
+
+        private static Stage spatial(String name, float[] args, SpatialFactory spatial) {
+            return new Stage(name, args, null, null, spatial);
+        }
+
+        public static Stage brightness(float offset) {
+            return matrix("brightness", new float[]{offset}, ColorMatrices.brightness(offset));
+        }
+
+        public static Stage contrast(float scale) {
+            return matrix("contrast", new float[]{scale}, ColorMatrices.contrast(scale));
+        }
+
+        public static Stage saturation(float saturation) {
+            return matrix("saturation", new float[]{saturation}, ColorMatrices.saturation(saturation));
+        }
+
+        public static Stage sepia() {
+            return matrix("sepia", new float[0], ColorMatrices.sepia());
+        }
+
+        // Only the RGB part of color is used, which a float holds exactly
+        public static Stage tint(int color, float amount) {
+            return matrix("tint", new float[]{color & 0xFFFFFF, amount}, ColorMatrices.tint(color, amount));
+        }
+
+        public static Stage channelMix(float[] weights) {
+            return matrix("channel_mix", weights.clone(), ColorMatrices.channelMix(weights));
+        }
+
+        public static Stage invert() {
+            return matrix("invert", new float[0], ColorMatrices.invert());
+        }
+
+        // Kept as a kernel rather than a matrix so it matches the original effect bit for bit
+        public static Stage greyscale() {
+            return new Stage("greyscale", new float[0], null, PixelKernels::greyscale, null);
+        }
+
+        // points: {black red, green, blue, white red, green, blue}, as measured by
+        // Histogram.autoLevels or autoContrast when the stage is added. Kept fixed so the
+        // preview and the full-resolution render stretch the same way.
+        public static Stage levels(int[] points) {
+            float[] args = new float[6];
+            for (int i = 0; i < args.length; i++) {
+                args[i] = points[i];
+            }
+            int[] table = PixelKernels.levelsTable(points);
+            return new Stage("levels", args, null,
+                    (pixels, offset, length) -> PixelKernels.lookup(pixels, offset, length, table), null);
+        }
+
+        public static Stage gaussianBlur(float sigma) {
+            return spatial("gaussian_blur", new float[]{sigma}, scale -> {
+                float scaled = scaleSigma(sigma, scale);
+                return tileFilter(SpatialKernels.gaussianHalo(scaled), (in, inWidth, inHeight, out, scratch) ->
+                        SpatialKernels.gaussianBlur(in, inWidth, inHeight, scaled, out, scratch));
+            });
+        }
+
+        public static Stage boxBlur(int radius) {
+            return spatial("box_blur", new float[]{radius}, scale -> {
+                int scaled = Math.min(Math.round(radius * scale), MAX_RADIUS);
+                return tileFilter(scaled, (in, inWidth, inHeight, out, scratch) ->
+                        SpatialKernels.boxBlur(in, inWidth, inHeight, scaled, out, scratch));
+            });
+        }
+
+        public static Stage unsharpMask(float sigma, float amount, int threshold) {
+            return spatial("unsharp_mask", new float[]{sigma, amount, threshold}, scale -> {
+                float scaled = scaleSigma(sigma, scale);
+                return tileFilter(SpatialKernels.gaussianHalo(scaled), (in, inWidth, inHeight, out, scratch) ->
+                        SpatialKernels.unsharpMask(in, inWidth, inHeight, scaled, amount, threshold, out, scratch));
+            });
+        }
+
+        // A fixed 3x3 kernel, so it does not scale
+        public static Stage edgeDetect() {
+            return spatial("edge_detect", new float[0], scale -> tileFilter(1, SpatialKernels::edgeDetect));
+        }
+
+        private static float scaleSigma(float sigma, float scale) {
+            return Math.max(MIN_SIGMA, Math.min(sigma * scale, MAX_SIGMA));
+        }
+
+        public JSONObject toJson() throws JSONException {
+            JSONArray values = new JSONArray();
+            for (float arg : args) {
+                values.put((double) arg);
+            }
+            return new JSONObject().put("name", name).put("args", values);
+        }
+
+        // Throws JSONException for a stage this version does not know
+        public static Stage fromJson(JSONObject json) throws JSONException {
+            String name = json.getString("name");
+            JSONArray values = json.getJSONArray("args");
+            float[] args = new float[values.length()];
+            for (int i = 0; i < args.length; i++) {
+                args[i] = (float) values.getDouble(i);
+            }
+            switch (name) {
+                case "brightness":
+                    return brightness(arg(args, 0));
+                case "contrast":
+                    return contrast(arg(args, 0));
+                case "saturation":
+                    return saturation(arg(args, 0));
+                case "sepia":
+                    return sepia();
+                case "tint":
+                    return tint((int) arg(args, 0), arg(args, 1));
+                case "channel_mix":
+                    if (args.length != 9) {
+                        throw new JSONException("Channel mix needs 9 weights");
+                    }
+                    return channelMix(args);
+                case "invert":
+                    return invert();
+                case "greyscale":
+                    return greyscale();
+                case "levels":
+                    if (args.length != 6) {
+                        throw new JSONException("Levels needs 6 points");
+                    }
+                    int[] points = new int[6];
+                    for (int i = 0; i < points.length; i++) {
+                        points[i] = Math.round(args[i]);
+                    }
+                    return levels(points);
+                case "gaussian_blur":
+                    return gaussianBlur(arg(args, 0));
+                case "box_blur":
+                    return boxBlur(Math.round(arg(args, 0)));
+                case "unsharp_mask":
+                    return unsharpMask(arg(args, 0), arg(args, 1), Math.round(arg(args, 2)));
+                case "edge_detect":
+                    return edgeDetect();
+                default:
+                    throw new JSONException("Unknown stage " + name);
+            }
+        }
+
+        private static float arg(float[] args, int index) throws JSONException {
+            if (index >= args.length) {
+                throw new JSONException("Missing argument " + index);
+            }
+            return args[index];
+        }
+    }
+
+    private interface SpatialFactory {
+        FilterEngine.SpatialFilter create(float scale);
+    }
+
+    public interface ProgressListener {
+        // Worker thread, after each pass over the image
+        void onProgress(int finishedPasses, int totalPasses);
+    }
+
+    private interface TileKernel {
+        void apply(int[] in, int inWidth, int inHeight, int[] out, SpatialKernels.Scratch scratch);
+    }
+
+    private static FilterEngine.SpatialFilter tileFilter(int halo, TileKernel kernel) {
+        return new FilterEngine.SpatialFilter() {
+            @Override
+            public int halo() {
+                return halo;
+            }
+
+            @Override
+            public void apply(int[] in, int inWidth, int inHeight, int[] out, SpatialKernels.Scratch scratch) {
+                kernel.apply(in, inWidth, inHeight, out, scratch);
+            }
+        };
+    }
+
+    // One traversal of the image: a neighbourhood filter followed by per-pixel ones,
+    // or per-pixel ones alone when spatial is null
+    static class Pass {
+        final FilterEngine.SpatialFilter spatial;
+        FilterEngine.PixelFilter point;
+
+        Pass(FilterEngine.SpatialFilter spatial, FilterEngine.PixelFilter point) {
+            this.spatial = spatial;
+            this.point = point;
+        }
+    }
+
+    public FilterPipeline() {
+        stages = new ArrayList<>();
+    }
+
+    public FilterPipeline(List<Stage> stages) {
+        this.stages = new ArrayList<>(stages);
+    }
+
+    public FilterPipeline add(Stage stage) {
+        stages.add(stage);
+        return this;
+    }
+
+    public void clear() {
+        stages.clear();
+    }
+
+    public boolean isEmpty() {
+        return stages.isEmpty();
+    }
+
+    public List<Stage> getStages() {
+        return Collections.unmodifiableList(stages);
+    }
+
+    // Renders at full resolution
+    @Override
+    public Bitmap process(Bitmap bitmap, CancellationSignal signal) {
+        return process(bitmap, 1, signal, null);
+    }
+
+    // For a bitmap that is scale times the size of the source the recipe was made for
+    public BitmapProcessor atScale(float scale) {
+        return (bitmap, signal) -> process(bitmap, scale, signal, null);
+    }
+
+    public Bitmap process(Bitmap bitmap, float scale, CancellationSignal signal, ProgressListener listener) {
+        FilterEngine engine = FilterEngine.getInstance();
+        List<Pass> passes = compile(scale);
+        Bitmap current = bitmap;
+        try {
+            for (int i = 0; i < passes.size(); i++) {
+                Pass pass = passes.get(i);
+                Bitmap next = pass.spatial != null
+                        ? engine.convolve(current, pass.spatial, pass.point, signal)
+                        : engine.apply(current, pass.point, signal);
+                if (current != bitmap) {
+                    BitmapPool.getInstance().put(current);
+                }
+                current = next;
+                if (listener != null) {
+                    listener.onProgress(i + 1, passes.size());
+                }
+            }
+        } catch (RuntimeException e) {
+            if (current != bitmap) {
+                BitmapPool.getInstance().put(current);
+            }
+            throw e;
+        }
+        return current;
+    }
+
+    // How far a pixel of the result can depend on the pixels around it, the sum of the
+    // halos of all neighbourhood stages. A region processed with this much margin is
+    // exact in its interior.
+    public int halo(float scale) {
+        int halo = 0;
+        for (Pass pass : compile(scale)) {
+            if (pass.spatial != null) {
+                halo += pass.spatial.halo();
+            }
+        }
+        return halo;
+    }
+
+    // The passes to run in order, with matrix runs fused into one kernel each. There is
+    // always at least one, so the result is never the input bitmap.
+    List<Pass> compile(float scale) {
+        List<Pass> passes = new ArrayList<>();
+        List<FilterEngine.PixelFilter> kernels = new ArrayList<>();
+        float[] fused = null;
+        for (Stage stage : stages) {
+            if (stage.matrix != null) {
+                fused = fused == null ? stage.matrix : ColorMatrices.concat(stage.matrix, fused);
+                continue;
+            }
+            if (fused != null) {
+                kernels.add(matrixKernel(fused));
+                fused = null;
+            }
+            if (stage.kernel != null) {
+                kernels.add(stage.kernel);
+            } else {
+                addPointPass(passes, kernels);
+                passes.add(new Pass(stage.spatial.create(scale), null));
+            }
+        }
+        if (fused != null) {
+            kernels.add(matrixKernel(fused));
+        }
+        addPointPass(passes, kernels);
+        if (passes.isEmpty()) {
+            passes.add(new Pass(null, (pixels, offset, length) -> {
+            }));
+        }
+        return passes;
+    }
+
+    // Hands the pending per-pixel kernels to the neighbourhood pass before them, or to
+    // a pass of their own at the start of the pipeline
+    private static void addPointPass(List<Pass> passes, List<FilterEngine.PixelFilter> kernels) {
+        if (kernels.isEmpty()) {
+            return;
+        }
+        FilterEngine.PixelFilter point = chain(kernels);
+        kernels.clear();
+        if (passes.isEmpty()) {
+            passes.add(new Pass(null, point));
+        } else {
+            passes.get(passes.size() - 1).point = point;
+        }
+    }
+
+    private static FilterEngine.PixelFilter chain(List<FilterEngine.PixelFilter> kernels) {
+        if (kernels.size() == 1) {
+            return kernels.get(0);
+        }
+        FilterEngine.PixelFilter[] chain = kernels.toArray(new FilterEngine.PixelFilter[0]);
+        return (pixels, offset, length) -> {
+            for (FilterEngine.PixelFilter kernel : chain) {
+                kernel.apply(pixels, offset, length);
+            }
+        };
+    }
+
+    private static FilterEngine.PixelFilter matrixKernel(float[] matrix) {
+        int[] fixed = ColorMatrices.toFixedPoint(matrix);
+        return (pixels, offset, length) -> PixelKernels.colorMatrix(pixels, offset, length, fixed);
+    }
+}
@@ -2,11 +2,7 @@ package com.nbuit.galleryapp104204;
 
 import android.content.Context;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.net.Uri;
-import android.os.AsyncTask;
-import android.os.Handler;
-import android.os.Looper;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -14,29 +10,31 @@ import android.view.ViewGroup;
 import android.widget.ImageView;
 
 import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.GridLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
-import java.io.InputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class GalleriesAdapter extends RecyclerView.Adapter<GalleriesAdapter.PhotoViewHolder> {
 
     public static final int IMAGE_SOURCE_INTERNAL = 0;
     public static final int IMAGE_SOURCE_API = 1;
 
+    private static final Object PAYLOAD_THUMBNAIL_SIZE = new Object();
+
     private List<Uri> imageUris;
     private Context context;
     private OnPhotoClickListener clickListener;
     private OnPhotoLongClickListener longClickListener;
     private int imageSource;
     private Set<Uri> markedImages = new HashSet<>();
-    private ExecutorService executorService = Executors.newCachedThreadPool();
+    private ThumbnailLoader thumbnailLoader;
+    private RecyclerView recyclerView;
+    private int thumbnailSize;
 
     public GalleriesAdapter(Context context, List<Uri> imageUris,
                             OnPhotoClickListener clickListener,
@@ -47,6 +45,7 @@ public class GalleriesAdapter extends RecyclerView.Adapter<GalleriesAdapter.Phot
         this.clickListener = clickListener;
         this.longClickListener = longClickListener;
         this.imageSource = imageSource;
+        this.thumbnailLoader = new ThumbnailLoader(context);
     }
 
     @NonNull
@@ -56,49 +55,29 @@ public class GalleriesAdapter extends RecyclerView.Adapter<GalleriesAdapter.Phot
         return new PhotoViewHolder(view);
     }
 
-    private static class DownloadImageTask extends AsyncTask<String, Void, Bitmap> {
-        private ImageView imageView;
-
-        DownloadImageTask(ImageView imageView) {
-            this.imageView = imageView;
-        }
-
-        @Override
-        protected Bitmap doInBackground(String... urls) {
-            String url = urls[0];
-            Bitmap bmp = null;
-            HttpURLConnection connection = null;
-            InputStream inputStream = null;
-
-            try {
-                URL imageUrl = new URL(url);
-                connection = (HttpURLConnection) imageUrl.openConnection();
-                connection.setConnectTimeout(10000);
-                connection.setReadTimeout(10000);
-                inputStream = connection.getInputStream();
-                bmp = BitmapFactory.decodeStream(inputStream);
-            } catch (Exception e) {
-                e.printStackTrace();
-            } finally {
-                if (connection != null) {
-                    connection.disconnect();
-                }
-                if (inputStream != null) {
-                    try {
-                        inputStream.close();
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                    }
-                }
-            }
+    @Override
+    public void onAttachedToRecyclerView(@NonNull RecyclerView recyclerView) {
+        super.onAttachedToRecyclerView(recyclerView);
+        this.recyclerView = recyclerView;
+        thumbnailSize = 0;
+    }
 
-            return bmp;
-        }
+    @Override
+    public void onDetachedFromRecyclerView(@NonNull RecyclerView recyclerView) {
+        super.onDetachedFromRecyclerView(recyclerView);
+        this.recyclerView = null;
+    }
 
-        @Override
-        protected void onPostExecute(Bitmap result) {
-            if (result != null) {
-                imageView.setImageBitmap(result);
+    @Override
+    public void onBindViewHolder(@NonNull PhotoViewHolder holder, int position, @NonNull List<Object> payloads) {
+        if (payloads.isEmpty()) {
+            onBindViewHolder(holder, position);
+            return;
+        }
+        for (Object payload : payloads) {
+            if (payload == PAYLOAD_THUMBNAIL_SIZE && holder.loadedSize < getThumbnailSize()) {
+                // Keep showing the smaller thumbnail until the sharper one is ready
+                loadThumbnail(holder, imageUris.get(position), false);
             }
         }
     }
@@ -107,24 +86,7 @@ public class GalleriesAdapter extends RecyclerView.Adapter<GalleriesAdapter.Phot
     public void onBindViewHolder(@NonNull PhotoViewHolder holder, int position) {
         Uri imageUri = imageUris.get(position);
 
-        if (imageSource == IMAGE_SOURCE_API) {
-            new DownloadImageTask(holder.imageViewPhoto).execute(imageUri.toString());
-        } else {
-            final PhotoViewHolder finalHolder = holder;
-            new Thread(() -> {
-                try {
-                    InputStream inputStream = context.getContentResolver().openInputStream(imageUri);
-                    Bitmap bitmap = BitmapFactory.decodeStream(inputStream);
-                    inputStream.close();
-
-                    final Handler handler = new Handler(Looper.getMainLooper());
-                    handler.post(() -> finalHolder.imageViewPhoto.setImageBitmap(bitmap));
-
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
-            }).start();
-        }
+        loadThumbnail(holder, imageUri, true);
 
         updateMarkVisuals(holder, imageUri);
 
@@ -143,11 +105,27 @@ public class GalleriesAdapter extends RecyclerView.Adapter<GalleriesAdapter.Phot
         });
     }
 
+    // Shows a different list, e.g. search results, keeping the view holders and caches
+    public void setImageUris(List<Uri> imageUris) {
+        this.imageUris = imageUris;
+        notifyDataSetChanged();
+    }
+
     @Override
     public int getItemCount() {
         return imageUris.size();
     }
 
+    public Set<Uri> getMarkedImages() {
+        return new HashSet<>(markedImages);
+    }
+
+    public void setMarkedImages(Collection<Uri> uris) {
+        markedImages.clear();
+        markedImages.addAll(uris);
+        notifyDataSetChanged();
+    }
+
     private void toggleMarkImage(PhotoViewHolder holder, Uri imageUri) {
         if (markedImages.contains(imageUri)) {
             markedImages.remove(imageUri);
@@ -167,21 +145,140 @@ public class GalleriesAdapter extends RecyclerView.Adapter<GalleriesAdapter.Phot
         }
     }
 
-    private void loadImageFromUri(PhotoViewHolder holder, Uri imageUri) {
-        executorService.execute(() -> {
-            try (InputStream inputStream = context.getContentResolver().openInputStream(imageUri)) {
-                Bitmap bitmap = BitmapFactory.decodeStream(inputStream);
-                new Handler(Looper.getMainLooper()).post(() -> holder.imageViewPhoto.setImageBitmap(bitmap));
-            } catch (Exception e) {
-                e.printStackTrace();
+    @Override
+    public void onViewRecycled(@NonNull PhotoViewHolder holder) {
+        super.onViewRecycled(holder);
+        cancelPendingLoad(holder);
+        showThumbnail(holder, null, 0);
+    }
+
+    // Call after the span count or layout manager changes. Cells are only decoded again
+    // when the new cell size needs more pixels than the thumbnail they already show.
+    public void onGridChanged() {
+        int previousSize = thumbnailSize;
+        thumbnailSize = computeThumbnailSize();
+        if (thumbnailSize > previousSize) {
+            notifyItemRangeChanged(0, getItemCount(), PAYLOAD_THUMBNAIL_SIZE);
+        }
+    }
+
+    private int getThumbnailSize() {
+        if (thumbnailSize == 0) {
+            thumbnailSize = computeThumbnailSize();
+        }
+        return thumbnailSize;
+    }
+
+    private int computeThumbnailSize() {
+        int spanCount = 1;
+        int width = 0;
+        if (recyclerView != null) {
+            if (recyclerView.getLayoutManager() instanceof GridLayoutManager) {
+                spanCount = ((GridLayoutManager) recyclerView.getLayoutManager()).getSpanCount();
             }
-        });
+            width = recyclerView.getWidth() - recyclerView.getPaddingLeft() - recyclerView.getPaddingRight();
+        }
+        if (width <= 0) {
+            width = context.getResources().getDisplayMetrics().widthPixels;
+        }
+
+        int cellWidth = width / Math.max(1, spanCount);
+        int cellHeight = context.getResources().getDimensionPixelSize(R.dimen.photo_cell_height);
+        // Cells crop to fill, so the thumbnail's shorter side has to cover the longer cell side
+        int size = Math.max(cellWidth, cellHeight);
+        return ((size + ThumbnailCache.SIZE_STEP - 1) / ThumbnailCache.SIZE_STEP) * ThumbnailCache.SIZE_STEP;
+    }
+
+    private void loadThumbnail(PhotoViewHolder holder, Uri imageUri, boolean clearFirst) {
+        cancelPendingLoad(holder);
+
+        final int targetSize = getThumbnailSize();
+        Bitmap cached = thumbnailLoader.getCached(imageUri, targetSize);
+        if (cached != null) {
+            showThumbnail(holder, cached, targetSize);
+            return;
+        }
+        if (clearFirst) {
+            showThumbnail(holder, null, 0);
+        }
+
+        final int bindToken = holder.bindToken;
+        final boolean remote = imageSource == IMAGE_SOURCE_API;
+        holder.pendingLoad = InFlightDecodes.getInstance().submit(
+                ThumbnailLoader.requestKey(imageUri, targetSize),
+                () -> thumbnailLoader.load(imageUri, targetSize, remote, ImageFetcher.PRIORITY_VISIBLE),
+                bitmap -> {
+                    if (bitmap != null) {
+                        thumbnailLoader.deliver(imageUri, targetSize, bitmap);
+                    }
+                    if (holder.bindToken != bindToken) {
+                        return;
+                    }
+                    holder.pendingLoad = null;
+                    if (bitmap != null) {
+                        showThumbnail(holder, bitmap, targetSize);
+                    }
+                },
+                DecodeScheduler.PRIORITY_VISIBLE);
+    }
+
+    // Warms the cache for a cell that is about to scroll into view.
+    public Future<Bitmap> prefetchThumbnail(int position) {
+        if (position < 0 || position >= imageUris.size()) {
+            return null;
+        }
+        final Uri imageUri = imageUris.get(position);
+        final int targetSize = getThumbnailSize();
+        if (thumbnailLoader.isCached(imageUri, targetSize)) {
+            return null;
+        }
+
+        final boolean remote = imageSource == IMAGE_SOURCE_API;
+        return InFlightDecodes.getInstance().submit(
+                ThumbnailLoader.requestKey(imageUri, targetSize),
+                () -> thumbnailLoader.load(imageUri, targetSize, remote, ImageFetcher.PRIORITY_PREFETCH),
+                bitmap -> {
+                    if (bitmap != null) {
+                        thumbnailLoader.deliver(imageUri, targetSize, bitmap);
+                    }
+                },
+                DecodeScheduler.PRIORITY_PREFETCH);
+    }
+
+    private void showThumbnail(PhotoViewHolder holder, Bitmap bitmap, int size) {
+        if (holder.shownBitmap == bitmap) {
+            holder.loadedSize = size;
+            return;
+        }
+        if (bitmap != null) {
+            thumbnailLoader.acquire(bitmap);
+            holder.imageViewPhoto.setImageBitmap(bitmap);
+        } else {
+            holder.imageViewPhoto.setImageDrawable(null);
+        }
+        if (holder.shownBitmap != null) {
+            thumbnailLoader.release(holder.shownBitmap);
+        }
+        holder.shownBitmap = bitmap;
+        holder.loadedSize = size;
+    }
+
+    private void cancelPendingLoad(PhotoViewHolder holder) {
+        holder.bindToken++;
+        if (holder.pendingLoad != null) {
+            DecodeScheduler.getInstance().cancel(holder.pendingLoad);
+            holder.pendingLoad = null;
+        }
     }
 
     public static class PhotoViewHolder extends RecyclerView.ViewHolder {
         ImageView imageViewPhoto;
         View overlayView;
         View borderView;
+        int bindToken;
+        int loadedSize;
+        Bitmap shownBitmap;
+        Future<Bitmap> pendingLoad;
 
         public PhotoViewHolder(@NonNull View itemView) {
             super(itemView);
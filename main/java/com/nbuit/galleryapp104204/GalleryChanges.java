@@ -0,0 +1,214 @@
+package com.nbuit.galleryapp104204;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.provider.MediaStore;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Process-wide stream of gallery changes. The app reports its own edits here, and a
+// MediaStore observer reports changes made by other apps while anyone is listening.
+// Changes are collected until the stream has been quiet for a moment (or for at most
+// MAX_DELAY_MILLIS under a steady stream), merged per uri, and handed to the
+// listeners as one change set on the main thread.
+public class GalleryChanges {
+
+    public static final int OP_INSERT = 1;
+    public static final int OP_UPDATE = 2;
+    public static final int OP_DELETE = 3;
+
+    private static final long COALESCE_MILLIS = 250;
+    private static final long MAX_DELAY_MILLIS = 1000;
+
+    private static final Uri MEDIA_URI = MediaStore.Images.Media.EXTERNAL_CONTENT_URI;
+
+    private static GalleryChanges instance;
+
+    private final ContentResolver contentResolver;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final List<GalleryUpdateListener> listeners = new ArrayList<>();
+    // Main thread only, like everything below
+    private final Map<Uri, Integer> pending = new LinkedHashMap<>();
+    private boolean pendingUnknown;
+    private boolean flushScheduled;
+    private long firstPendingAt;
+    private final Runnable flush = this::flush;
+
+    private final ContentObserver mediaObserver = new ContentObserver(mainHandler) {
+        @Override
+        public void onChange(boolean selfChange, Collection<Uri> uris, int flags) {
+            int op = OP_UPDATE;
+            if ((flags & ContentResolver.NOTIFY_INSERT) != 0) {
+                op = OP_INSERT;
+            } else if ((flags & ContentResolver.NOTIFY_DELETE) != 0) {
+                op = OP_DELETE;
+            }
+            for (Uri uri : uris) {
+                enqueue(op, uri);
+            }
+        }
+
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            // Before Android 11 the operation is not reported
+            enqueue(OP_UPDATE, uri);
+        }
+    };
+
+    public static class ChangeSet {
+        public final Set<Uri> inserted = new HashSet<>();
+        public final Set<Uri> updated = new HashSet<>();
+        public final Set<Uri> deleted = new HashSet<>();
+        // Something changed that could not be pinned to an image, e.g. a whole volume
+        public boolean unknown;
+
+        public boolean isEmpty() {
+            return !unknown && inserted.isEmpty() && updated.isEmpty() && deleted.isEmpty();
+        }
+    }
+
+    public static synchronized GalleryChanges getInstance(Context context) {
+        if (instance == null) {
+            instance = new GalleryChanges(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private GalleryChanges(Context context) {
+        this.contentResolver = context.getContentResolver();
+    }
+
+    // Main thread. The MediaStore observer only runs while there is a listener.
+    public void addListener(GalleryUpdateListener listener) {
+        if (listeners.isEmpty()) {
+            contentResolver.registerContentObserver(MEDIA_URI, true, mediaObserver);
+        }
+        listeners.add(listener);
+    }
+
+    public void removeListener(GalleryUpdateListener listener) {
+        if (listeners.remove(listener) && listeners.isEmpty()) {
+            contentResolver.unregisterContentObserver(mediaObserver);
+            mainHandler.removeCallbacks(flush);
+            flushScheduled = false;
+            pending.clear();
+            pendingUnknown = false;
+        }
+    }
+
+    // Any thread.
+    public void notifyChange(int op, Uri uri) {
+        notifyChanges(op, Collections.singletonList(uri));
+    }
+
+    public void notifyChanges(int op, Collection<Uri> uris) {
+        List<Uri> copy = new ArrayList<>(uris);
+        mainHandler.post(() -> {
+            for (Uri uri : copy) {
+                enqueue(op, uri);
+            }
+        });
+    }
+
+    private void enqueue(int op, Uri uri) {
+        if (listeners.isEmpty()) {
+            return;
+        }
+        Uri imageUri = normalize(uri);
+        if (imageUri == null) {
+            pendingUnknown = true;
+        } else {
+            Integer merged = merge(pending.get(imageUri), op);
+            if (merged == null) {
+                pending.remove(imageUri);
+            } else {
+                pending.put(imageUri, merged);
+            }
+        }
+        scheduleFlush();
+    }
+
+    // Collapses two changes to the same image into the one that has the same effect.
+    private static Integer merge(Integer previous, int op) {
+        if (previous == null) {
+            return op;
+        }
+        if (previous == OP_INSERT) {
+            // Inserted and gone again before anyone saw it
+            return op == OP_DELETE ? null : OP_INSERT;
+        }
+        if (previous == OP_DELETE) {
+            // The id came back, so to a listener the row only changed
+            return op == OP_DELETE ? OP_DELETE : OP_UPDATE;
+        }
+        return op == OP_DELETE ? OP_DELETE : OP_UPDATE;
+    }
+
+    private void scheduleFlush() {
+        long now = SystemClock.uptimeMillis();
+        if (!flushScheduled) {
+            flushScheduled = true;
+            firstPendingAt = now;
+        }
+        mainHandler.removeCallbacks(flush);
+        long delay = Math.min(COALESCE_MILLIS, Math.max(0, firstPendingAt + MAX_DELAY_MILLIS - now));
+        mainHandler.postDelayed(flush, delay);
+    }
+
+    private void flush() {
+        flushScheduled = false;
+        ChangeSet changes = new ChangeSet();
+        changes.unknown = pendingUnknown;
+        for (Map.Entry<Uri, Integer> entry : pending.entrySet()) {
+            switch (entry.getValue()) {
+                case OP_INSERT:
+                    changes.inserted.add(entry.getKey());
+                    break;
+                case OP_UPDATE:
+                    changes.updated.add(entry.getKey());
+                    break;
+                case OP_DELETE:
+                    changes.deleted.add(entry.getKey());
+                    break;
+            }
+        }
+        pending.clear();
+        pendingUnknown = false;
+        if (changes.isEmpty()) {
+            return;
+        }
+        for (GalleryUpdateListener listener : new ArrayList<>(listeners)) {
+            listener.onGalleryUpdated(changes);
+        }
+    }
+
+    // Maps the many forms MediaStore reports an image in (per volume, with or without
+    // a query) onto the uri the images table stores. Null if it names no single image.
+    private static Uri normalize(Uri uri) {
+        if (uri == null || !"media".equals(uri.getAuthority())) {
+            return null;
+        }
+        List<String> segments = uri.getPathSegments();
+        if (segments.size() < 4 || !"images".equals(segments.get(1))) {
+            return null;
+        }
+        try {
+            return ContentUris.withAppendedId(MEDIA_URI, ContentUris.parseId(uri));
+        } catch (NumberFormatException | UnsupportedOperationException e) {
+            return null;
+        }
+    }
+}
@@ -3,20 +3,68 @@ package com.nbuit.galleryapp104204;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.net.Uri;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 
 public class GalleryDatabaseHelper extends SQLiteOpenHelper {
 
     public static final String DATABASE_NAME = "gallery_showcase.db";
-    private static final int DATABASE_VERSION = 1;
+    private static final int DATABASE_VERSION = 7;
     public static final String TABLE_IMAGES = "images";
-    private static final String COLUMN_ID = "id";
-    private static final String COLUMN_URI = "uri";
-    private static final String COLUMN_NAME = "name";
+    public static final String TABLE_IMAGES_FTS = "images_fts";
+    public static final String COLUMN_ID = "id";
+    public static final String COLUMN_URI = "uri";
+    public static final String COLUMN_NAME = "name";
+    public static final String COLUMN_WIDTH = "width";
+    public static final String COLUMN_HEIGHT = "height";
+    public static final String COLUMN_SIZE = "size";
+    public static final String COLUMN_MIME_TYPE = "mime_type";
+    public static final String COLUMN_DATE_TAKEN = "date_taken";
+    public static final String COLUMN_DATE_MODIFIED = "date_modified";
+    public static final String COLUMN_ORIENTATION = "orientation";
+    public static final String COLUMN_THUMBNAIL_KEY = "thumbnail_key";
+    public static final String COLUMN_PHASH = "phash";
+    // Thumbnail key of the version the hash belongs to, empty if the row has none
+    public static final String COLUMN_PHASH_KEY = "phash_key";
+    private static final String INDEX_IMAGES_URI = "index_images_uri";
+    // Edit history per photo, so the editor can reopen and change earlier edits
+    public static final String TABLE_EDIT_RECIPES = "edit_recipes";
+    public static final String COLUMN_OPERATIONS = "operations";
+    public static final String COLUMN_POSITION = "position";
+    public static final String COLUMN_UPDATED = "updated";
+
+    // Columns the grid can be sorted by. Each gets an index, which also covers the
+    // id tie breaker since id is the rowid.
+    private static final String[] SORT_COLUMNS = {
+            COLUMN_NAME, COLUMN_SIZE, COLUMN_DATE_TAKEN, COLUMN_DATE_MODIFIED};
+
+    // Every column a record writes, in binding order
+    private static final String[] RECORD_COLUMNS = {
+            COLUMN_URI, COLUMN_NAME, COLUMN_WIDTH, COLUMN_HEIGHT, COLUMN_SIZE, COLUMN_MIME_TYPE,
+            COLUMN_DATE_TAKEN, COLUMN_DATE_MODIFIED, COLUMN_ORIENTATION, COLUMN_THUMBNAIL_KEY};
+
+    private static GalleryDatabaseHelper instance;
+
+    // One helper, and so one connection pool, for the whole process. The database
+    // stays open between calls instead of being closed after every write.
+    public static synchronized GalleryDatabaseHelper getInstance(Context context) {
+        if (instance == null) {
+            instance = new GalleryDatabaseHelper(context.getApplicationContext());
+        }
+        return instance;
+    }
 
-    public GalleryDatabaseHelper(Context context) {
+    private GalleryDatabaseHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        setWriteAheadLoggingEnabled(true);
     }
 
     @Override
@@ -24,30 +72,453 @@ public class GalleryDatabaseHelper extends SQLiteOpenHelper {
         String createTable = "CREATE TABLE " + TABLE_IMAGES + " (" +
                 COLUMN_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
                 COLUMN_URI + " TEXT, " +
-                COLUMN_NAME + " TEXT)";
+                COLUMN_NAME + " TEXT, " +
+                COLUMN_WIDTH + " INTEGER, " +
+                COLUMN_HEIGHT + " INTEGER, " +
+                COLUMN_SIZE + " INTEGER, " +
+                COLUMN_MIME_TYPE + " TEXT, " +
+                COLUMN_DATE_TAKEN + " INTEGER, " +
+                COLUMN_DATE_MODIFIED + " INTEGER, " +
+                COLUMN_ORIENTATION + " INTEGER, " +
+                COLUMN_THUMBNAIL_KEY + " TEXT, " +
+                COLUMN_PHASH + " INTEGER, " +
+                COLUMN_PHASH_KEY + " TEXT)";
         db.execSQL(createTable);
+        createUriIndex(db);
+        createSortIndexes(db);
+        createNameIndex(db);
+        createEditRecipes(db);
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        db.execSQL("DROP TABLE IF EXISTS " + TABLE_IMAGES);
-        onCreate(db);
+        if (oldVersion < 2) {
+            // Version 1 inserted a row on every load, keep the oldest copy of each uri
+            db.execSQL("DELETE FROM " + TABLE_IMAGES + " WHERE " + COLUMN_ID + " NOT IN (" +
+                    "SELECT MIN(" + COLUMN_ID + ") FROM " + TABLE_IMAGES + " GROUP BY " + COLUMN_URI + ")");
+            createUriIndex(db);
+        }
+        if (oldVersion < 3) {
+            // Existing rows keep their ids and names until MediaStoreSync backfills the new columns
+            addColumn(db, COLUMN_WIDTH, "INTEGER");
+            addColumn(db, COLUMN_HEIGHT, "INTEGER");
+            addColumn(db, COLUMN_SIZE, "INTEGER");
+            addColumn(db, COLUMN_MIME_TYPE, "TEXT");
+            addColumn(db, COLUMN_DATE_TAKEN, "INTEGER");
+            addColumn(db, COLUMN_DATE_MODIFIED, "INTEGER");
+            addColumn(db, COLUMN_ORIENTATION, "INTEGER");
+            addColumn(db, COLUMN_THUMBNAIL_KEY, "TEXT");
+            createSortIndexes(db);
+        }
+        if (oldVersion < 4) {
+            createNameIndex(db);
+            db.execSQL("INSERT INTO " + TABLE_IMAGES_FTS + "(" + TABLE_IMAGES_FTS + ") VALUES('rebuild')");
+        }
+        if (oldVersion < 5) {
+            addColumn(db, COLUMN_PHASH, "INTEGER");
+            addColumn(db, COLUMN_PHASH_KEY, "TEXT");
+        }
+        if (oldVersion < 6) {
+            createEditRecipes(db);
+        }
+        if (oldVersion >= 4 && oldVersion < 7) {
+            // Versions 4 to 6 reindexed the name on every update of a row
+            db.execSQL("DROP TRIGGER images_fts_before_update");
+            db.execSQL("DROP TRIGGER images_fts_after_update");
+            createNameUpdateTriggers(db);
+        }
+    }
+
+    private static void addColumn(SQLiteDatabase db, String column, String type) {
+        db.execSQL("ALTER TABLE " + TABLE_IMAGES + " ADD COLUMN " + column + " " + type);
+    }
+
+    private static void createSortIndexes(SQLiteDatabase db) {
+        for (String column : SORT_COLUMNS) {
+            db.execSQL("CREATE INDEX index_images_" + column +
+                    " ON " + TABLE_IMAGES + " (" + column + ")");
+        }
+    }
+
+    private static void createUriIndex(SQLiteDatabase db) {
+        db.execSQL("CREATE UNIQUE INDEX " + INDEX_IMAGES_URI +
+                " ON " + TABLE_IMAGES + " (" + COLUMN_URI + ")");
+    }
+
+    // Keyed by the photo's uri rather than the images row, so a full resync that
+    // rebuilds the images table keeps the recipes
+    private static void createEditRecipes(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_EDIT_RECIPES + " (" +
+                COLUMN_URI + " TEXT PRIMARY KEY, " +
+                COLUMN_OPERATIONS + " TEXT NOT NULL, " +
+                COLUMN_POSITION + " INTEGER NOT NULL, " +
+                COLUMN_UPDATED + " INTEGER NOT NULL)");
+    }
+
+    // Full-text index over file names. It reads the names from the images table rather
+    // than keeping its own copy, and the triggers keep it in step with every write.
+    private static void createNameIndex(SQLiteDatabase db) {
+        db.execSQL("CREATE VIRTUAL TABLE " + TABLE_IMAGES_FTS + " USING fts4(content=\"" + TABLE_IMAGES + "\", "
+                + COLUMN_NAME + ")");
+        createNameUpdateTriggers(db);
+        // External content must be removed from the index while the old row still exists
+        db.execSQL("CREATE TRIGGER images_fts_before_delete BEFORE DELETE ON " + TABLE_IMAGES + " BEGIN "
+                + "DELETE FROM " + TABLE_IMAGES_FTS + " WHERE docid = old." + COLUMN_ID + "; END");
+        db.execSQL("CREATE TRIGGER images_fts_after_insert AFTER INSERT ON " + TABLE_IMAGES + " BEGIN "
+                + "INSERT INTO " + TABLE_IMAGES_FTS + "(docid, " + COLUMN_NAME + ") "
+                + "VALUES (new." + COLUMN_ID + ", new." + COLUMN_NAME + "); END");
+    }
+
+    // Only a rename touches the index. Hash and metadata updates leave it alone, and so
+    // do upserts that write the same name back.
+    private static void createNameUpdateTriggers(SQLiteDatabase db) {
+        String renamed = " WHEN old." + COLUMN_NAME + " IS NOT new." + COLUMN_NAME;
+        db.execSQL("CREATE TRIGGER images_fts_before_update BEFORE UPDATE OF " + COLUMN_NAME + " ON " + TABLE_IMAGES
+                + renamed + " BEGIN "
+                + "DELETE FROM " + TABLE_IMAGES_FTS + " WHERE docid = old." + COLUMN_ID + "; END");
+        db.execSQL("CREATE TRIGGER images_fts_after_update AFTER UPDATE OF " + COLUMN_NAME + " ON " + TABLE_IMAGES
+                + renamed + " BEGIN "
+                + "INSERT INTO " + TABLE_IMAGES_FTS + "(docid, " + COLUMN_NAME + ") "
+                + "VALUES (new." + COLUMN_ID + ", new." + COLUMN_NAME + "); END");
     }
 
     // Insert new image metadata into the database
     public void insertImageMetadata(String uri, String name) {
+        insertImages(Collections.singletonList(new ImageRecord(uri, name)));
+    }
+
+    public void deleteImageMetadata(String uri) {
+        deleteImages(Collections.singletonList(uri));
+    }
+
+    // Inserts all records in one transaction. Records whose uri is already stored are skipped.
+    public void insertImages(List<ImageRecord> records) {
+        SQLiteDatabase db = this.getWritableDatabase();
+        SQLiteStatement insert = db.compileStatement("INSERT OR IGNORE INTO " + TABLE_IMAGES + recordColumns());
+        db.beginTransaction();
+        try {
+            for (ImageRecord record : records) {
+                bindRecord(insert, record);
+                insert.executeInsert();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            insert.close();
+        }
+    }
+
+    // Updates records whose uri is already stored and inserts the rest, in one
+    // transaction. Returns the records that were inserted.
+    public List<ImageRecord> upsertImages(List<ImageRecord> records) {
+        List<ImageRecord> inserted = new ArrayList<>();
+        SQLiteDatabase db = this.getWritableDatabase();
+        // Binds like a record, so uri comes first and is matched in the WHERE clause
+        StringBuilder updateSql = new StringBuilder("UPDATE " + TABLE_IMAGES + " SET " + COLUMN_URI + " = ?1");
+        for (int i = 1; i < RECORD_COLUMNS.length; i++) {
+            updateSql.append(", ").append(RECORD_COLUMNS[i]).append(" = ?").append(i + 1);
+        }
+        updateSql.append(" WHERE ").append(COLUMN_URI).append(" = ?1");
+        SQLiteStatement update = db.compileStatement(updateSql.toString());
+        SQLiteStatement insert = db.compileStatement("INSERT INTO " + TABLE_IMAGES + recordColumns());
+        db.beginTransaction();
+        try {
+            for (ImageRecord record : records) {
+                bindRecord(update, record);
+                if (update.executeUpdateDelete() == 0) {
+                    bindRecord(insert, record);
+                    insert.executeInsert();
+                    inserted.add(record);
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            update.close();
+            insert.close();
+        }
+        return inserted;
+    }
+
+    // Deletes in one transaction. Returns the uris that were stored.
+    public List<String> deleteImages(Collection<String> uris) {
+        List<String> deleted = new ArrayList<>();
+        SQLiteDatabase db = this.getWritableDatabase();
+        SQLiteStatement delete = db.compileStatement("DELETE FROM " + TABLE_IMAGES +
+                " WHERE " + COLUMN_URI + " = ?");
+        db.beginTransaction();
+        try {
+            for (String uri : uris) {
+                delete.bindString(1, uri);
+                if (delete.executeUpdateDelete() > 0) {
+                    deleted.add(uri);
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            delete.close();
+        }
+        return deleted;
+    }
+
+    private static String recordColumns() {
+        StringBuilder sql = new StringBuilder(" (");
+        StringBuilder values = new StringBuilder(" VALUES (");
+        for (int i = 0; i < RECORD_COLUMNS.length; i++) {
+            sql.append(i > 0 ? ", " : "").append(RECORD_COLUMNS[i]);
+            values.append(i > 0 ? ", ?" : "?");
+        }
+        return sql.append(")").append(values).append(")").toString();
+    }
+
+    private static void bindRecord(SQLiteStatement statement, ImageRecord record) {
+        statement.bindString(1, record.uri);
+        bindNullable(statement, 2, record.name);
+        bindNullable(statement, 3, record.width);
+        bindNullable(statement, 4, record.height);
+        bindNullable(statement, 5, record.size);
+        bindNullable(statement, 6, record.mimeType);
+        bindNullable(statement, 7, record.dateTaken);
+        bindNullable(statement, 8, record.dateModified);
+        bindNullable(statement, 9, record.orientation);
+        bindNullable(statement, 10, record.thumbnailKey);
+    }
+
+    // 0 means MediaStore did not report the value
+    private static void bindNullable(SQLiteStatement statement, int index, long value) {
+        if (value == 0) {
+            statement.bindNull(index);
+        } else {
+            statement.bindLong(index, value);
+        }
+    }
+
+    private static void bindNullable(SQLiteStatement statement, int index, String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
+
+    // Rows that were never hashed or changed since. Columns: id, uri, thumbnail key.
+    public Cursor queryImagesWithoutHash(int limit) {
+        SQLiteDatabase db = this.getReadableDatabase();
+        return db.query(TABLE_IMAGES, new String[]{COLUMN_ID, COLUMN_URI, COLUMN_THUMBNAIL_KEY},
+                COLUMN_PHASH_KEY + " IS NULL OR " + COLUMN_PHASH_KEY + " != IFNULL(" + COLUMN_THUMBNAIL_KEY + ", '')",
+                null, null, null, COLUMN_ID, Integer.toString(limit));
+    }
+
+    public int countImagesWithoutHash() {
+        SQLiteDatabase db = this.getReadableDatabase();
+        return (int) DatabaseUtils.queryNumEntries(db, TABLE_IMAGES,
+                COLUMN_PHASH_KEY + " IS NULL OR " + COLUMN_PHASH_KEY + " != IFNULL(" + COLUMN_THUMBNAIL_KEY + ", '')");
+    }
+
+    // Stores the hashes in one transaction. A row that changed again after it was read
+    // keeps its old key and is picked up by the next pass.
+    public void updateHashes(List<ImageHash> hashes) {
         SQLiteDatabase db = this.getWritableDatabase();
+        SQLiteStatement update = db.compileStatement("UPDATE " + TABLE_IMAGES +
+                " SET " + COLUMN_PHASH + " = ?, " + COLUMN_PHASH_KEY + " = ?" +
+                " WHERE " + COLUMN_ID + " = ? AND IFNULL(" + COLUMN_THUMBNAIL_KEY + ", '') = ?");
+        db.beginTransaction();
+        try {
+            for (ImageHash hash : hashes) {
+                String key = hash.key != null ? hash.key : "";
+                if (hash.hash != null) {
+                    update.bindLong(1, hash.hash);
+                } else {
+                    update.bindNull(1);
+                }
+                update.bindString(2, key);
+                update.bindLong(3, hash.id);
+                update.bindString(4, key);
+                update.executeUpdateDelete();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            update.close();
+        }
+    }
+
+    public List<ImageHash> getAllHashes() {
+        List<ImageHash> hashes = new ArrayList<>();
+        SQLiteDatabase db = this.getReadableDatabase();
+        try (Cursor cursor = db.query(TABLE_IMAGES,
+                new String[]{COLUMN_ID, COLUMN_URI, COLUMN_PHASH, COLUMN_PHASH_KEY},
+                COLUMN_PHASH + " IS NOT NULL", null, null, null, COLUMN_ID)) {
+            while (cursor.moveToNext()) {
+                hashes.add(new ImageHash(cursor.getLong(0), Uri.parse(cursor.getString(1)),
+                        cursor.getLong(2), cursor.getString(3)));
+            }
+        }
+        return hashes;
+    }
+
+    public void saveEditRecipe(EditRecipe recipe) {
         ContentValues values = new ContentValues();
-        values.put(COLUMN_URI, uri);
-        values.put(COLUMN_NAME, name);
-        db.insert(TABLE_IMAGES, null, values);
-        db.close();
+        values.put(COLUMN_URI, recipe.uri);
+        values.put(COLUMN_OPERATIONS, recipe.operations);
+        values.put(COLUMN_POSITION, recipe.position);
+        values.put(COLUMN_UPDATED, System.currentTimeMillis());
+        SQLiteDatabase db = this.getWritableDatabase();
+        db.insertWithOnConflict(TABLE_EDIT_RECIPES, null, values, SQLiteDatabase.CONFLICT_REPLACE);
     }
 
-    public void deleteImageMetadata(String uri) {
+    // Null if the photo was never edited
+    public EditRecipe getEditRecipe(String uri) {
+        SQLiteDatabase db = this.getReadableDatabase();
+        try (Cursor cursor = db.query(TABLE_EDIT_RECIPES, new String[]{COLUMN_OPERATIONS, COLUMN_POSITION},
+                COLUMN_URI + " = ?", new String[]{uri}, null, null, null)) {
+            if (cursor.moveToFirst()) {
+                return new EditRecipe(uri, cursor.getString(0), cursor.getInt(1));
+            }
+        }
+        return null;
+    }
+
+    public void deleteEditRecipe(String uri) {
+        SQLiteDatabase db = this.getWritableDatabase();
+        db.delete(TABLE_EDIT_RECIPES, COLUMN_URI + " = ?", new String[]{uri});
+    }
+
+    public int getImageCount() {
+        return getImageCount(null);
+    }
+
+    public int getImageCount(ImageFilter filter) {
+        List<String> selectionArgs = new ArrayList<>();
+        String selection = filter != null ? filter.selection(selectionArgs) : null;
+        SQLiteDatabase db = this.getReadableDatabase();
+        return (int) DatabaseUtils.queryNumEntries(db, TABLE_IMAGES, selection,
+                selection != null ? selectionArgs.toArray(new String[0]) : null);
+    }
+
+    public List<String> getAllImageUris() {
+        List<String> uris = new ArrayList<>();
+        SQLiteDatabase db = this.getReadableDatabase();
+        try (Cursor cursor = db.query(TABLE_IMAGES, new String[]{COLUMN_URI},
+                null, null, null, null, COLUMN_ID)) {
+            while (cursor.moveToNext()) {
+                uris.add(cursor.getString(0));
+            }
+        }
+        return uris;
+    }
+
+    // Keyset page: the rows that sort after (afterSortValue, afterId), ordered by the
+    // sort column with id as tie breaker. Pass an afterId of 0 for the first page and a
+    // null filter for the whole table. afterSortValue is null when the last row's sort
+    // value is NULL. Columns: uri, sort value, id.
+    public Cursor queryImagesPage(String sortColumn, boolean descending, ImageFilter filter,
+                                  String afterSortValue, long afterId, int limit) {
+        String comparison = descending ? " < ?" : " > ?";
+        String[] afterIdArgs = {Long.toString(afterId)};
+        if (afterId <= 0) {
+            return queryPage(sortColumn, descending, filter, null, null, limit);
+        }
+        if (COLUMN_ID.equals(sortColumn)) {
+            return queryPage(sortColumn, descending, filter, COLUMN_ID + comparison, afterIdArgs, limit);
+        }
+        // Missing dates and sizes are NULL, which SQLite sorts before every value: first
+        // ascending, last descending. NULL never compares past an anchor, so the NULL run
+        // is read as a separate segment. An OR in one query would stop SQLite from seeking
+        // the sort column's index.
+        String nullRun = sortColumn + " IS NULL AND " + COLUMN_ID + comparison;
+        if (afterSortValue == null) {
+            if (descending) {
+                return queryPage(sortColumn, true, filter, nullRun, afterIdArgs, limit);
+            }
+            return queryPageSegments(sortColumn, false, filter, nullRun, afterIdArgs,
+                    sortColumn + " IS NOT NULL", new String[0], limit);
+        }
+        // The leading range term lets SQLite seek the sort column's index
+        // instead of scanning it from the start
+        String rangeComparison = descending ? " <= ?" : " >= ?";
+        String range = sortColumn + rangeComparison + " AND (" + sortColumn + comparison + " OR " + COLUMN_ID + comparison + ")";
+        String[] rangeArgs = {afterSortValue, afterSortValue, Long.toString(afterId)};
+        if (!descending) {
+            return queryPage(sortColumn, false, filter, range, rangeArgs, limit);
+        }
+        return queryPageSegments(sortColumn, true, filter, range, rangeArgs,
+                sortColumn + " IS NULL", new String[0], limit);
+    }
+
+    private Cursor queryPage(String sortColumn, boolean descending, ImageFilter filter,
+                             String selection, String[] selectionArgs, int limit) {
+        List<String> args = new ArrayList<>();
+        String where = pageWhere(filter, selection, selectionArgs, args);
+        SQLiteDatabase db = this.getReadableDatabase();
+        return db.query(TABLE_IMAGES, new String[]{COLUMN_URI, sortColumn, COLUMN_ID},
+                where, where != null ? args.toArray(new String[0]) : null, null, null,
+                pageOrder(sortColumn, descending), Integer.toString(limit));
+    }
+
+    // The first page of rows matching first, followed by the rows matching second. Each
+    // segment is ordered and limited on its own, so each can use the sort column's index.
+    private Cursor queryPageSegments(String sortColumn, boolean descending, ImageFilter filter,
+                                     String first, String[] firstArgs,
+                                     String second, String[] secondArgs, int limit) {
+        List<String> args = new ArrayList<>();
+        String columns = COLUMN_URI + ", " + sortColumn + ", " + COLUMN_ID;
+        String order = pageOrder(sortColumn, descending);
+        String direction = descending ? " DESC" : " ASC";
+        String sql = "SELECT * FROM (SELECT " + columns + " FROM " + TABLE_IMAGES
+                + " WHERE " + pageWhere(filter, first, firstArgs, args)
+                + " ORDER BY " + order + " LIMIT " + limit + ")"
+                + " UNION ALL SELECT * FROM (SELECT " + columns + " FROM " + TABLE_IMAGES
+                + " WHERE " + pageWhere(filter, second, secondArgs, args)
+                + " ORDER BY " + order + " LIMIT " + limit + ")"
+                // By position, NULLs land where the single-query order puts them
+                + " ORDER BY 2" + direction + ", 3" + direction + " LIMIT " + limit;
+        SQLiteDatabase db = this.getReadableDatabase();
+        return db.rawQuery(sql, args.toArray(new String[0]));
+    }
+
+    // Adds the filter's and then selection's arguments to args, matching their place in
+    // the returned clause. Null when there is neither.
+    private static String pageWhere(ImageFilter filter, String selection, String[] selectionArgs,
+                                    List<String> args) {
+        String filterSelection = filter != null ? filter.selection(args) : null;
+        if (selection == null) {
+            return filterSelection;
+        }
+        Collections.addAll(args, selectionArgs);
+        return filterSelection != null ? filterSelection + " AND (" + selection + ")" : selection;
+    }
+
+    // Offset page, for jumping to a page whose predecessor has not been read yet.
+    public Cursor queryImagesAtOffset(String sortColumn, boolean descending, ImageFilter filter,
+                                      int offset, int limit) {
+        List<String> args = new ArrayList<>();
+        String selection = filter != null ? filter.selection(args) : null;
+        SQLiteDatabase db = this.getReadableDatabase();
+        return db.query(TABLE_IMAGES, new String[]{COLUMN_URI, sortColumn, COLUMN_ID},
+                selection, selection != null ? args.toArray(new String[0]) : null, null, null,
+                pageOrder(sortColumn, descending), offset + ", " + limit);
+    }
+
+    private static String pageOrder(String sortColumn, boolean descending) {
+        String direction = descending ? " DESC" : " ASC";
+        if (COLUMN_ID.equals(sortColumn)) {
+            return COLUMN_ID + direction;
+        }
+        return sortColumn + direction + ", " + COLUMN_ID + direction;
+    }
+
+    public void clearImages() {
         SQLiteDatabase db = this.getWritableDatabase();
-        db.delete(TABLE_IMAGES, COLUMN_URI + " = ?", new String[]{uri});
-        db.close();
+        db.beginTransaction();
+        try {
+            db.delete(TABLE_IMAGES, null, null);
+            db.execSQL("DELETE FROM sqlite_sequence WHERE name='" + TABLE_IMAGES + "'");
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
     }
 
     public Cursor getAllImages() {
@@ -0,0 +1,141 @@
+package com.nbuit.galleryapp104204;
+
+import android.net.Uri;
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.OperationCanceledException;
+import android.os.Process;
+import android.util.Log;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Runs the MediaStore sync on a background thread and streams its progress to the
+// main thread batch by batch, so the grid fills in while the cursor is still being
+// read. Only the newest load is reported: starting a refresh cancels the one in
+// progress and anything it already posted is dropped. Listener calls run on the main
+// thread and carry the row count the images table has at that point.
+public class GalleryLoader {
+
+    private final GalleryDatabaseHelper databaseHelper;
+    private final MediaStoreSync mediaStoreSync;
+    private final ThumbnailCache thumbnailCache;
+    private final Listener listener;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(() -> {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            runnable.run();
+        }, "gallery-loader");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Only touched on the main thread
+    private int generation;
+    private CancellationSignal currentSignal;
+
+    public interface Listener {
+        // The table was reset or the load found it in an unknown state, rebind everything
+        void onLoadStarted(int count);
+
+        void onRowsAdded(int count, int addedCount);
+
+        void onLoadFinished(MediaStoreSync.Result result, int count);
+    }
+
+    public GalleryLoader(GalleryDatabaseHelper databaseHelper, MediaStoreSync mediaStoreSync,
+                         ThumbnailCache thumbnailCache, Listener listener) {
+        this.databaseHelper = databaseHelper;
+        this.mediaStoreSync = mediaStoreSync;
+        this.thumbnailCache = thumbnailCache;
+        this.listener = listener;
+    }
+
+    public void refresh() {
+        cancel();
+        int loadGeneration = ++generation;
+        CancellationSignal signal = new CancellationSignal();
+        currentSignal = signal;
+        executor.execute(() -> runLoad(loadGeneration, signal));
+    }
+
+    // Refreshes after a change set. Deletions are only looked for among the images it
+    // names, unless it reports a change that could not be pinned to an image.
+    public void refresh(GalleryChanges.ChangeSet changes) {
+        if (changes.unknown) {
+            mediaStoreSync.checkAllRemoved();
+        }
+        mediaStoreSync.checkRemoved(changes.deleted);
+        // Before Android 11 a deletion is reported as an update
+        mediaStoreSync.checkRemoved(changes.updated);
+        refresh();
+    }
+
+    public void cancel() {
+        generation++;
+        if (currentSignal != null) {
+            currentSignal.cancel();
+            currentSignal = null;
+        }
+    }
+
+    public void shutdown() {
+        cancel();
+        executor.shutdown();
+    }
+
+    private void runLoad(int loadGeneration, CancellationSignal signal) {
+        if (signal.isCanceled()) {
+            return;
+        }
+        // Rows are only added at the end of the id order, so keeping a running count
+        // is enough to turn each batch into a range insert
+        int[] count = new int[1];
+        try {
+            MediaStoreSync.Result result = mediaStoreSync.sync(new MediaStoreSync.Listener() {
+                @Override
+                public void onSyncStarted(boolean fullResync) {
+                    count[0] = fullResync ? 0 : databaseHelper.getImageCount();
+                    int startCount = count[0];
+                    post(loadGeneration, () -> listener.onLoadStarted(startCount));
+                }
+
+                @Override
+                public void onBatchWritten(int addedCount, int updatedCount) {
+                    if (addedCount == 0) {
+                        return;
+                    }
+                    count[0] += addedCount;
+                    int batchCount = count[0];
+                    post(loadGeneration, () -> listener.onRowsAdded(batchCount, addedCount));
+                }
+            }, signal);
+
+            // Stale thumbnails must be off the disk before the cells are rebound
+            if (!result.metadataBackfill) {
+                for (Uri uri : result.updated) {
+                    thumbnailCache.removeFromDisk(uri);
+                }
+            }
+            for (Uri uri : result.removed) {
+                thumbnailCache.removeFromDisk(uri);
+            }
+            int finalCount = count[0] - result.removed.size();
+            post(loadGeneration, () -> listener.onLoadFinished(result, finalCount));
+        } catch (OperationCanceledException e) {
+            // A newer refresh took over
+        } catch (RuntimeException e) {
+            Log.e("GalleryLoader", "Error loading gallery", e);
+        }
+    }
+
+    private void post(int loadGeneration, Runnable update) {
+        mainHandler.post(() -> {
+            if (loadGeneration == generation) {
+                update.run();
+            }
+        });
+    }
+}
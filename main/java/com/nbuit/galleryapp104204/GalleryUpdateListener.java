@@ -1,6 +1,7 @@
 package com.nbuit.galleryapp104204;
 
 public interface GalleryUpdateListener {
-    void onGalleryUpdated();
+    // Main thread, with the changes since the previous call merged per image
+    void onGalleryUpdated(GalleryChanges.ChangeSet changes);
 }
 
@@ -0,0 +1,104 @@
+package com.nbuit.galleryapp104204;
+
+// Red, green, blue and luma histograms of an image, 256 bins each, kept in one array
+// so a pass over the pixels touches a single small block of memory. Luma uses the
+// Rec. 709 weights, like the saturation matrix. No Android dependencies.
+public class Histogram {
+
+    public static final int RED = 0;
+    public static final int GREEN = 1;
+    public static final int BLUE = 2;
+    public static final int LUMA = 3;
+    public static final int LEVELS = 256;
+    // Bins of all four channels, channel by channel
+    public static final int SIZE = 4 * LEVELS;
+
+    private static final int GREEN_BINS = GREEN * LEVELS;
+    private static final int BLUE_BINS = BLUE * LEVELS;
+    private static final int LUMA_BINS = LUMA * LEVELS;
+
+    private final int[] bins;
+    private final long total;
+
+    // bins: SIZE counts as filled by accumulate
+    public Histogram(int[] bins) {
+        this.bins = bins;
+        long total = 0;
+        for (int i = 0; i < LEVELS; i++) {
+            total += bins[i];
+        }
+        this.total = total;
+    }
+
+    // Adds pixels[offset, offset + length) to bins. Alpha is ignored.
+    public static void accumulate(int[] pixels, int offset, int length, int[] bins) {
+        int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            int pixel = pixels[i];
+            int r = (pixel >> 16) & 0xFF;
+            int g = (pixel >> 8) & 0xFF;
+            int b = pixel & 0xFF;
+            bins[r]++;
+            bins[GREEN_BINS + g]++;
+            bins[BLUE_BINS + b]++;
+            bins[LUMA_BINS + ((54 * r + 183 * g + 19 * b) >> 8)]++;
+        }
+    }
+
+    // Adds the counts of from into into
+    public static void merge(int[] from, int[] into) {
+        for (int i = 0; i < SIZE; i++) {
+            into[i] += from[i];
+        }
+    }
+
+    public int count(int channel, int level) {
+        return bins[channel * LEVELS + level];
+    }
+
+    public long total() {
+        return total;
+    }
+
+    public int max(int channel) {
+        int max = 0;
+        for (int i = channel * LEVELS, end = i + LEVELS; i < end; i++) {
+            max = Math.max(max, bins[i]);
+        }
+        return max;
+    }
+
+    // Lowest level that at least fraction of the pixels are at or below
+    public int percentile(int channel, float fraction) {
+        long target = (long) Math.ceil(total * (double) fraction);
+        long sum = 0;
+        int start = channel * LEVELS;
+        for (int level = 0; level < LEVELS; level++) {
+            sum += bins[start + level];
+            if (sum >= target && sum > 0) {
+                return level;
+            }
+        }
+        return LEVELS - 1;
+    }
+
+    // Black and white point of each color channel, ignoring the darkest and brightest
+    // clip fraction of pixels. Stretching the channels apart also corrects color casts.
+    // Returns {black red, green, blue, white red, green, blue}.
+    public int[] autoLevels(float clip) {
+        int[] points = new int[6];
+        for (int channel = RED; channel <= BLUE; channel++) {
+            points[channel] = percentile(channel, clip);
+            points[3 + channel] = percentile(channel, 1 - clip);
+        }
+        return points;
+    }
+
+    // Like autoLevels, with one pair of points from the luma for all channels, so
+    // contrast is stretched without shifting the colors
+    public int[] autoContrast(float clip) {
+        int black = percentile(LUMA, clip);
+        int white = percentile(LUMA, 1 - clip);
+        return new int[]{black, black, black, white, white, white};
+    }
+}
@@ -0,0 +1,92 @@
+package com.nbuit.galleryapp104204;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.util.AttributeSet;
+import android.view.View;
+
+// Overlay that draws a Histogram: luma as a grey area with the red, green and blue
+// curves on top, all scaled to the tallest color bin.
+public class HistogramView extends View {
+
+    private static final int[] CHANNEL_COLORS = {
+            Color.argb(200, 255, 80, 80), Color.argb(200, 80, 255, 80), Color.argb(200, 80, 160, 255)};
+
+    private final Paint backgroundPaint = new Paint();
+    private final Paint lumaPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint channelPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Path path = new Path();
+    private Histogram histogram;
+
+    public HistogramView(Context context) {
+        this(context, null);
+    }
+
+    public HistogramView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        backgroundPaint.setColor(Color.argb(140, 0, 0, 0));
+        lumaPaint.setColor(Color.argb(110, 255, 255, 255));
+        lumaPaint.setStyle(Paint.Style.FILL);
+        channelPaint.setStyle(Paint.Style.STROKE);
+        channelPaint.setStrokeWidth(getResources().getDisplayMetrics().density);
+    }
+
+    // Null clears the overlay
+    public void setHistogram(Histogram histogram) {
+        this.histogram = histogram;
+        invalidate();
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        float width = getWidth();
+        float height = getHeight();
+        canvas.drawRect(0, 0, width, height, backgroundPaint);
+        if (histogram == null || histogram.total() == 0) {
+            return;
+        }
+        // Pure black or white areas would flatten everything else, so the end bins may
+        // run off the top
+        int max = 1;
+        for (int channel = Histogram.RED; channel <= Histogram.LUMA; channel++) {
+            for (int level = 1; level < Histogram.LEVELS - 1; level++) {
+                max = Math.max(max, histogram.count(channel, level));
+            }
+        }
+
+        buildPath(Histogram.LUMA, width, height, max, true);
+        canvas.drawPath(path, lumaPaint);
+        for (int channel = Histogram.RED; channel <= Histogram.BLUE; channel++) {
+            buildPath(channel, width, height, max, false);
+            channelPaint.setColor(CHANNEL_COLORS[channel]);
+            canvas.drawPath(path, channelPaint);
+        }
+    }
+
+    private void buildPath(int channel, float width, float height, int max, boolean closed) {
+        path.reset();
+        float step = width / (Histogram.LEVELS - 1);
+        for (int level = 0; level < Histogram.LEVELS; level++) {
+            float x = level * step;
+            float y = height - Math.min(height, height * histogram.count(channel, level) / max);
+            if (level == 0) {
+                if (closed) {
+                    path.moveTo(0, height);
+                    path.lineTo(x, y);
+                } else {
+                    path.moveTo(x, y);
+                }
+            } else {
+                path.lineTo(x, y);
+            }
+        }
+        if (closed) {
+            path.lineTo(width, height);
+            path.close();
+        }
+    }
+}
@@ -0,0 +1,319 @@
+package com.nbuit.galleryapp104204;
+
+import android.content.Context;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Properties;
+
+// Shared HTTP fetcher for remote images. Responses are streamed straight into a disk
+// cache and revalidated with ETag/Last-Modified once they go stale. Connections are
+// limited per host and handed out by priority, and since successful responses are
+// read to the end and closed without disconnect(), the platform keeps the
+// connections alive for reuse.
+public class ImageFetcher {
+
+    public static final int PRIORITY_SAVE = 0;
+    public static final int PRIORITY_PREFETCH = 1;
+    public static final int PRIORITY_VISIBLE = 2;
+
+    private static final int MAX_CONNECTIONS_PER_HOST = 4;
+    private static final long DISK_CACHE_BYTES = 128L * 1024 * 1024;
+    private static final int TIMEOUT_MILLIS = 10000;
+    private static final String META_SUFFIX = "#meta";
+
+    private static ImageFetcher instance;
+
+    private final DiskCache diskCache;
+    private final int maxConnectionsPerHost;
+    private final Map<String, HostGate> hostGates = new HashMap<>();
+    private final SingleFlight<String, FetchedImage> inFlight = new SingleFlight<>();
+    // The connection ticket of each url being fetched, shared by everyone waiting on it
+    private final Map<String, Ticket> downloads = new HashMap<>();
+
+    public static synchronized ImageFetcher getInstance(Context context) {
+        if (instance == null) {
+            instance = new ImageFetcher(
+                    new DiskCache(new File(context.getCacheDir(), "http"), DISK_CACHE_BYTES),
+                    MAX_CONNECTIONS_PER_HOST);
+        }
+        return instance;
+    }
+
+    public ImageFetcher(DiskCache diskCache, int maxConnectionsPerHost) {
+        this.diskCache = diskCache;
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+    }
+
+    public static class FetchedImage {
+        public final File file;
+        public final String mimeType;
+
+        FetchedImage(File file, String mimeType) {
+            this.file = file;
+            this.mimeType = mimeType;
+        }
+    }
+
+    // Blocks until the image is on disk. Concurrent fetches of the same url share one
+    // request, which waits for a connection at the highest priority any of them asked for.
+    public FetchedImage fetch(String url, int priority) throws Exception {
+        HostGate gate = gateFor(new URL(url).getHost());
+        Ticket ticket;
+        synchronized (downloads) {
+            ticket = downloads.get(url);
+            if (ticket == null) {
+                ticket = new Ticket(priority);
+                downloads.put(url, ticket);
+            }
+            ticket.callers++;
+        }
+        try {
+            // A visible cell joining a queued prefetch or save moves it up
+            gate.raise(ticket, priority);
+            Ticket shared = ticket;
+            return inFlight.execute(url, () -> fetchOnce(url, gate, shared));
+        } finally {
+            synchronized (downloads) {
+                if (--ticket.callers == 0) {
+                    downloads.remove(url);
+                }
+            }
+        }
+    }
+
+    private FetchedImage fetchOnce(String url, HostGate gate, Ticket ticket) throws IOException, InterruptedException {
+        File cachedFile = diskCache.get(url);
+        Properties meta = cachedFile != null ? readMeta(url) : null;
+        if (cachedFile != null && meta != null && isFresh(meta)) {
+            return new FetchedImage(cachedFile, meta.getProperty("mimeType"));
+        }
+
+        URL requestUrl = new URL(url);
+        gate.acquire(ticket);
+        HttpURLConnection connection = null;
+        boolean reusable = false;
+        try {
+            connection = (HttpURLConnection) requestUrl.openConnection();
+            connection.setConnectTimeout(TIMEOUT_MILLIS);
+            connection.setReadTimeout(TIMEOUT_MILLIS);
+            // Our disk cache does the caching, skip the platform one
+            connection.setUseCaches(false);
+            if (cachedFile != null && meta != null) {
+                String etag = meta.getProperty("etag");
+                String lastModified = meta.getProperty("lastModified");
+                if (etag != null) {
+                    connection.setRequestProperty("If-None-Match", etag);
+                }
+                if (lastModified != null) {
+                    connection.setRequestProperty("If-Modified-Since", lastModified);
+                }
+            }
+
+            int status = connection.getResponseCode();
+            if (status == HttpURLConnection.HTTP_NOT_MODIFIED && cachedFile != null && meta != null) {
+                drain(connection);
+                reusable = true;
+                updateMeta(url, meta, connection);
+                return new FetchedImage(cachedFile, meta.getProperty("mimeType"));
+            }
+            if (status != HttpURLConnection.HTTP_OK) {
+                throw new IOException("Unexpected HTTP " + status + " for " + url);
+            }
+
+            File tempFile = diskCache.newTempFile();
+            try (InputStream inputStream = connection.getInputStream();
+                 OutputStream outputStream = new FileOutputStream(tempFile)) {
+                byte[] buffer = new byte[16 * 1024];
+                int read;
+                while ((read = inputStream.read(buffer)) != -1) {
+                    outputStream.write(buffer, 0, read);
+                }
+            } catch (IOException e) {
+                tempFile.delete();
+                throw e;
+            }
+            reusable = true;
+
+            File file = diskCache.commit(url, tempFile);
+            if (file == null) {
+                throw new IOException("Unable to cache " + url);
+            }
+            Properties newMeta = new Properties();
+            updateMeta(url, newMeta, connection);
+            return new FetchedImage(file, newMeta.getProperty("mimeType"));
+        } finally {
+            if (connection != null && !reusable) {
+                connection.disconnect();
+            }
+            gate.release();
+        }
+    }
+
+    private void updateMeta(String url, Properties meta, HttpURLConnection connection) {
+        putIfPresent(meta, "etag", connection.getHeaderField("ETag"));
+        putIfPresent(meta, "lastModified", connection.getHeaderField("Last-Modified"));
+        putIfPresent(meta, "mimeType", connection.getContentType());
+        meta.setProperty("fetchedAt", String.valueOf(System.currentTimeMillis()));
+        meta.setProperty("maxAge", String.valueOf(parseMaxAge(connection.getHeaderField("Cache-Control"))));
+        writeMeta(url, meta);
+    }
+
+    private static void putIfPresent(Properties properties, String key, String value) {
+        if (value != null) {
+            properties.setProperty(key, value);
+        }
+    }
+
+    private static boolean isFresh(Properties meta) {
+        try {
+            long fetchedAt = Long.parseLong(meta.getProperty("fetchedAt", "0"));
+            long maxAgeSeconds = Long.parseLong(meta.getProperty("maxAge", "0"));
+            return System.currentTimeMillis() - fetchedAt < maxAgeSeconds * 1000;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    static long parseMaxAge(String cacheControl) {
+        if (cacheControl == null) {
+            return 0;
+        }
+        for (String directive : cacheControl.split(",")) {
+            directive = directive.trim().toLowerCase();
+            if (directive.equals("no-cache") || directive.equals("no-store")) {
+                return 0;
+            }
+            if (directive.startsWith("max-age=")) {
+                try {
+                    return Long.parseLong(directive.substring("max-age=".length()).trim());
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 0;
+    }
+
+    private Properties readMeta(String url) {
+        File file = diskCache.get(url + META_SUFFIX);
+        if (file == null) {
+            return null;
+        }
+        Properties meta = new Properties();
+        try (InputStream inputStream = new FileInputStream(file)) {
+            meta.load(inputStream);
+            return meta;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private void writeMeta(String url, Properties meta) {
+        File tempFile = null;
+        try {
+            tempFile = diskCache.newTempFile();
+            try (OutputStream outputStream = new FileOutputStream(tempFile)) {
+                meta.store(outputStream, null);
+            }
+            diskCache.commit(url + META_SUFFIX, tempFile);
+        } catch (IOException e) {
+            if (tempFile != null) {
+                tempFile.delete();
+            }
+        }
+    }
+
+    private static void drain(HttpURLConnection connection) throws IOException {
+        try (InputStream inputStream = connection.getInputStream()) {
+            byte[] buffer = new byte[1024];
+            while (inputStream.read(buffer) != -1) {
+                // discard, so the connection can go back to the pool
+            }
+        }
+    }
+
+    private synchronized HostGate gateFor(String host) {
+        HostGate gate = hostGates.get(host);
+        if (gate == null) {
+            gate = new HostGate(maxConnectionsPerHost);
+            hostGates.put(host, gate);
+        }
+        return gate;
+    }
+
+    // Counting semaphore that admits waiters by priority, then first come first served.
+    private static class HostGate {
+        private final int limit;
+        private final PriorityQueue<Ticket> waiting = new PriorityQueue<>();
+        private int active;
+        private long nextOrder;
+
+        HostGate(int limit) {
+            this.limit = limit;
+        }
+
+        synchronized void acquire(Ticket ticket) throws InterruptedException {
+            ticket.order = nextOrder++;
+            waiting.add(ticket);
+            try {
+                while (waiting.peek() != ticket || active >= limit) {
+                    wait();
+                }
+            } catch (InterruptedException e) {
+                waiting.remove(ticket);
+                notifyAll();
+                throw e;
+            }
+            waiting.poll();
+            active++;
+            notifyAll();
+        }
+
+        synchronized void release() {
+            active--;
+            notifyAll();
+        }
+
+        // Raises a ticket's priority, moving it up the queue if it is waiting
+        synchronized void raise(Ticket ticket, int priority) {
+            if (priority <= ticket.priority) {
+                return;
+            }
+            boolean queued = waiting.remove(ticket);
+            ticket.priority = priority;
+            if (queued) {
+                waiting.add(ticket);
+                notifyAll();
+            }
+        }
+    }
+
+    // Priority and order are guarded by the HostGate, callers by downloads
+    private static class Ticket implements Comparable<Ticket> {
+        private int priority;
+        private long order;
+        private int callers;
+
+        Ticket(int priority) {
+            this.priority = priority;
+        }
+
+        @Override
+        public int compareTo(Ticket other) {
+            if (priority != other.priority) {
+                return priority > other.priority ? -1 : 1;
+            }
+            return Long.compare(order, other.order);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.nbuit.galleryapp104204;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+// Search criteria for the images table: words matched against file names through the
+// full-text index, plus range filters on the metadata columns. Unset fields (null or 0)
+// do not filter. Dates are in milliseconds.
+public class ImageFilter {
+
+    public String text;
+    public long minDateTaken;
+    public long maxDateTaken;
+    public long minSize;
+    public long maxSize;
+    // Shorter side in pixels, so portrait and landscape shots compare alike
+    public int minShortSide;
+    // A full type such as image/png, or a prefix such as image/
+    public String mimeType;
+
+    public ImageFilter copy() {
+        ImageFilter copy = new ImageFilter();
+        copy.text = text;
+        copy.minDateTaken = minDateTaken;
+        copy.maxDateTaken = maxDateTaken;
+        copy.minSize = minSize;
+        copy.maxSize = maxSize;
+        copy.minShortSide = minShortSide;
+        copy.mimeType = mimeType;
+        return copy;
+    }
+
+    public boolean isEmpty() {
+        return ftsQuery() == null && minDateTaken == 0 && maxDateTaken == 0
+                && minSize == 0 && maxSize == 0 && minShortSide == 0 && mimeType == null;
+    }
+
+    // Null when there is nothing to filter on
+    String selection(List<String> selectionArgs) {
+        List<String> terms = new ArrayList<>();
+        String ftsQuery = ftsQuery();
+        if (ftsQuery != null) {
+            terms.add(GalleryDatabaseHelper.COLUMN_ID + " IN (SELECT docid FROM "
+                    + GalleryDatabaseHelper.TABLE_IMAGES_FTS + " WHERE "
+                    + GalleryDatabaseHelper.TABLE_IMAGES_FTS + " MATCH ?)");
+            selectionArgs.add(ftsQuery);
+        }
+        addRange(terms, selectionArgs, GalleryDatabaseHelper.COLUMN_DATE_TAKEN, minDateTaken, maxDateTaken);
+        addRange(terms, selectionArgs, GalleryDatabaseHelper.COLUMN_SIZE, minSize, maxSize);
+        if (minShortSide > 0) {
+            terms.add("MIN(" + GalleryDatabaseHelper.COLUMN_WIDTH + ", "
+                    + GalleryDatabaseHelper.COLUMN_HEIGHT + ") >= CAST(? AS INTEGER)");
+            selectionArgs.add(Integer.toString(minShortSide));
+        }
+        if (mimeType != null) {
+            if (mimeType.endsWith("/")) {
+                terms.add(GalleryDatabaseHelper.COLUMN_MIME_TYPE + " LIKE ?");
+                selectionArgs.add(mimeType + "%");
+            } else {
+                terms.add(GalleryDatabaseHelper.COLUMN_MIME_TYPE + " = ?");
+                selectionArgs.add(mimeType);
+            }
+        }
+        if (terms.isEmpty()) {
+            return null;
+        }
+        return "(" + join(terms) + ")";
+    }
+
+    private static void addRange(List<String> terms, List<String> selectionArgs, String column, long min, long max) {
+        if (min > 0) {
+            terms.add(column + " >= ?");
+            selectionArgs.add(Long.toString(min));
+        }
+        if (max > 0) {
+            terms.add(column + " <= ?");
+            selectionArgs.add(Long.toString(max));
+        }
+    }
+
+    // Every word of the search text as a prefix, all of which must match. Anything
+    // that is not a letter or digit separates words, the way the FTS tokenizer splits
+    // file names, so "IMG_2024" finds IMG_20240101_1200.jpg.
+    String ftsQuery() {
+        if (text == null) {
+            return null;
+        }
+        StringBuilder query = new StringBuilder();
+        for (String word : text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+            if (!word.isEmpty()) {
+                if (query.length() > 0) {
+                    query.append(' ');
+                }
+                query.append(word).append('*');
+            }
+        }
+        return query.length() > 0 ? query.toString() : null;
+    }
+
+    private static String join(List<String> terms) {
+        StringBuilder joined = new StringBuilder();
+        for (String term : terms) {
+            if (joined.length() > 0) {
+                joined.append(" AND ");
+            }
+            joined.append(term);
+        }
+        return joined.toString();
+    }
+}
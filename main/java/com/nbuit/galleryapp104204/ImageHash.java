@@ -0,0 +1,20 @@
+package com.nbuit.galleryapp104204;
+
+import android.net.Uri;
+
+// Perceptual hash of one row of the images table, null if the image could not be
+// decoded. key is the thumbnail key of the version that was hashed.
+public class ImageHash {
+
+    public final long id;
+    public final Uri uri;
+    public final Long hash;
+    public final String key;
+
+    public ImageHash(long id, Uri uri, Long hash, String key) {
+        this.id = id;
+        this.uri = uri;
+        this.hash = hash;
+        this.key = key;
+    }
+}
@@ -0,0 +1,41 @@
+package com.nbuit.galleryapp104204;
+
+// One row of the images table. Metadata that MediaStore did not report is 0 (or null)
+// and is stored as NULL.
+public class ImageRecord {
+
+    public final String uri;
+    public final String name;
+    public final int width;
+    public final int height;
+    public final long size;
+    public final String mimeType;
+    public final long dateTaken;
+    public final long dateModified;
+    public final int orientation;
+    public final String thumbnailKey;
+
+    public ImageRecord(String uri, String name) {
+        this(uri, name, 0, 0, 0, null, 0, 0, 0);
+    }
+
+    // Dates are in milliseconds
+    public ImageRecord(String uri, String name, int width, int height, long size, String mimeType,
+                       long dateTaken, long dateModified, int orientation) {
+        this.uri = uri;
+        this.name = name;
+        this.width = width;
+        this.height = height;
+        this.size = size;
+        this.mimeType = mimeType;
+        this.dateTaken = dateTaken;
+        this.dateModified = dateModified;
+        this.orientation = orientation;
+        this.thumbnailKey = thumbnailKeyFor(uri, dateModified);
+    }
+
+    // Changes whenever the image does, so thumbnails cached under it never go stale
+    public static String thumbnailKeyFor(String uri, long dateModified) {
+        return dateModified != 0 ? uri + "#" + dateModified : null;
+    }
+}
@@ -0,0 +1,129 @@
+package com.nbuit.galleryapp104204;
+
+import android.graphics.Bitmap;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+// Coalesces decode requests for the same key: the first request is scheduled and
+// later ones wait on it, so one fetch and one decode serve every caller. Each caller
+// gets its own Future; the shared work is only cancelled once every caller has
+// cancelled. Main thread only, like the callbacks it delivers.
+public class InFlightDecodes {
+
+    private static InFlightDecodes instance;
+
+    private final Map<String, Flight> flights = new HashMap<>();
+
+    public static synchronized InFlightDecodes getInstance() {
+        if (instance == null) {
+            instance = new InFlightDecodes();
+        }
+        return instance;
+    }
+
+    public Future<Bitmap> submit(String key, Callable<Bitmap> decodeTask,
+                                 DecodeScheduler.Callback callback, int priority) {
+        Flight flight = flights.get(key);
+        if (flight == null) {
+            Flight newFlight = new Flight(key, priority);
+            flights.put(key, newFlight);
+            newFlight.request = DecodeScheduler.getInstance().submit(decodeTask, newFlight::deliver, priority);
+            flight = newFlight;
+        } else if (priority > flight.priority) {
+            DecodeScheduler.getInstance().promote(flight.request, priority);
+            flight.priority = priority;
+        }
+
+        Waiter waiter = new Waiter(flight, callback);
+        flight.waiters.add(waiter);
+        return waiter;
+    }
+
+    public int getInFlightCount() {
+        return flights.size();
+    }
+
+    private class Flight {
+        private final String key;
+        private final List<Waiter> waiters = new ArrayList<>();
+        private int priority;
+        private Future<Bitmap> request;
+
+        Flight(String key, int priority) {
+            this.key = key;
+            this.priority = priority;
+        }
+
+        void deliver(Bitmap bitmap) {
+            if (flights.get(key) == this) {
+                flights.remove(key);
+            }
+            List<Waiter> delivered = new ArrayList<>(waiters);
+            waiters.clear();
+            for (Waiter waiter : delivered) {
+                waiter.done = true;
+                waiter.callback.onDecoded(bitmap);
+            }
+        }
+
+        void release(Waiter waiter) {
+            waiters.remove(waiter);
+            if (waiters.isEmpty()) {
+                DecodeScheduler.getInstance().cancel(request);
+                if (flights.get(key) == this) {
+                    flights.remove(key);
+                }
+            }
+        }
+    }
+
+    private static class Waiter implements Future<Bitmap> {
+        private final Flight flight;
+        private final DecodeScheduler.Callback callback;
+        private boolean cancelled;
+        private boolean done;
+
+        Waiter(Flight flight, DecodeScheduler.Callback callback) {
+            this.flight = flight;
+            this.callback = callback;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            if (done || cancelled) {
+                return false;
+            }
+            cancelled = true;
+            flight.release(this);
+            return true;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public boolean isDone() {
+            return done || cancelled;
+        }
+
+        @Override
+        public Bitmap get() throws ExecutionException, InterruptedException {
+            return flight.request.get();
+        }
+
+        @Override
+        public Bitmap get(long timeout, TimeUnit unit) throws ExecutionException, InterruptedException, TimeoutException {
+            return flight.request.get(timeout, unit);
+        }
+    }
+}
@@ -2,8 +2,6 @@ package com.nbuit.galleryapp104204;
 
 import android.content.ContentValues;
 import android.content.Intent;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.Bundle;
 import android.provider.MediaStore;
@@ -19,6 +17,7 @@ import org.json.JSONArray;
 import org.json.JSONObject;
 
 import java.io.BufferedReader;
+import java.io.FileInputStream;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
@@ -64,6 +63,7 @@ public class InspirationsActivity extends AppCompatActivity {
         );
         recyclerViewInspirations.setLayoutManager(new GridLayoutManager(this, 3));
         recyclerViewInspirations.setAdapter(galleriesAdapter);
+        ThumbnailPrefetcher.attach(recyclerViewInspirations, galleriesAdapter);
 
         downloadPhotosFromUnsplash();
 
@@ -76,6 +76,7 @@ public class InspirationsActivity extends AppCompatActivity {
         isGridView = !isGridView;
         int spanCount = isGridView ? 3 : 1;
         recyclerViewInspirations.setLayoutManager(new GridLayoutManager(this, spanCount));
+        galleriesAdapter.onGridChanged();
     }
 
     private void sharePhotos() {
@@ -180,22 +181,29 @@ public class InspirationsActivity extends AppCompatActivity {
 
     private void savePhotoToGallery(Uri photoUri) {
         executorService.submit(() -> {
-            Bitmap bitmap = null;
             try {
-                InputStream inputStream = new URL(photoUri.toString()).openStream();
-                bitmap = BitmapFactory.decodeStream(inputStream);
-                inputStream.close();
+                ImageFetcher.FetchedImage image = ImageFetcher.getInstance(this)
+                        .fetch(photoUri.toString(), ImageFetcher.PRIORITY_SAVE);
+                String mimeType = image.mimeType != null && image.mimeType.startsWith("image/")
+                        ? image.mimeType
+                        : "image/jpeg";
 
                 ContentValues values = new ContentValues();
                 values.put(MediaStore.Images.Media.TITLE, "Saved Photo");
                 values.put(MediaStore.Images.Media.DISPLAY_NAME, "Saved_Photo_" + System.currentTimeMillis());
-                values.put(MediaStore.Images.Media.MIME_TYPE, "image/jpeg");
+                values.put(MediaStore.Images.Media.MIME_TYPE, mimeType);
                 Uri uri = getContentResolver().insert(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, values);
 
                 if (uri != null) {
-                    OutputStream outputStream = getContentResolver().openOutputStream(uri);
-                    bitmap.compress(Bitmap.CompressFormat.JPEG, 100, outputStream);
-                    outputStream.close();
+                    // Copy the downloaded file as is instead of decoding and re-encoding it
+                    try (InputStream inputStream = new FileInputStream(image.file);
+                         OutputStream outputStream = getContentResolver().openOutputStream(uri)) {
+                        byte[] buffer = new byte[16 * 1024];
+                        int read;
+                        while ((read = inputStream.read(buffer)) != -1) {
+                            outputStream.write(buffer, 0, read);
+                        }
+                    }
                     runOnUiThread(() -> Toast.makeText(this, "Photo saved to gallery", Toast.LENGTH_SHORT).show());
                 } else {
                     runOnUiThread(() -> Toast.makeText(this, "Failed to save photo", Toast.LENGTH_SHORT).show());
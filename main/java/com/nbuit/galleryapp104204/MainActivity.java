@@ -1,23 +1,22 @@
 package com.nbuit.galleryapp104204;
 
 import android.Manifest;
-import android.content.BroadcastReceiver;
-import android.content.Context;
 import android.content.Intent;
-import android.content.IntentFilter;
 import android.content.pm.PackageManager;
-import android.database.Cursor;
-import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
-import android.provider.MediaStore;
-import android.util.Log;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.Editable;
+import android.text.TextWatcher;
 import android.widget.Button;
+import android.widget.EditText;
 import android.widget.Toast;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.RequiresApi;
+import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
@@ -25,6 +24,7 @@ import androidx.recyclerview.widget.GridLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 public class MainActivity extends AppCompatActivity implements GalleryUpdateListener {
@@ -32,22 +32,40 @@ public class MainActivity extends AppCompatActivity implements GalleryUpdateList
     private static final int REQUEST_MEDIA_PERMISSION = 101;
     private static final int REQUEST_CODE_PICK_IMAGES = 102;
     private static final int IMAGE_SELECTION_LIMIT = 10;
+    private static final long SEARCH_DELAY_MILLIS = 150;
+
+    private static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+    private static final long MEGABYTE = 1024L * 1024;
+
+    private static final String[] FACETS = {"Type", "Date", "Size", "Resolution", "Clear filters"};
+    private static final String[][] FACET_CHOICES = {
+            {"Any type", "JPEG", "PNG", "WebP", "GIF", "HEIC"},
+            {"Any date", "Last 7 days", "Last 30 days", "Last year"},
+            {"Any size", "Under 1 MB", "1 MB to 5 MB", "Over 5 MB"},
+            {"Any resolution", "720p and up", "1080p and up", "4K and up"},
+    };
+    private static final String[] MIME_TYPES = {null, "image/jpeg", "image/png", "image/webp", "image/gif", "image/heic"};
+    private static final long[] DATE_RANGES_DAYS = {0, 7, 30, 365};
+    private static final long[][] SIZE_RANGES = {{0, 0}, {0, MEGABYTE}, {MEGABYTE, 5 * MEGABYTE}, {5 * MEGABYTE, 0}};
+    private static final int[] SHORT_SIDES = {0, 720, 1080, 2160};
 
     private RecyclerView recyclerViewGallery;
     private GalleriesAdapter galleriesAdapter;
+    private PagedImageList imageList;
+    private ThumbnailPrefetcher thumbnailPrefetcher;
     private Button buttonChangeGrid;
     private Button buttonInspirations;
+    private EditText editTextSearch;
+    private Button buttonFilters;
+    private final ImageFilter searchFilter = new ImageFilter();
+    private final int[] facetChoices = new int[FACET_CHOICES.length];
+    private final Handler searchHandler = new Handler(Looper.getMainLooper());
+    private final Runnable applySearch = this::applySearchFilter;
     private int currentSpanCount = 3;
     private GalleryDatabaseHelper databaseHelper;
+    private GalleryLoader galleryLoader;
     private List<Uri> selectedImages = new ArrayList<>();
 
-    private final BroadcastReceiver galleryUpdateReceiver = new BroadcastReceiver() {
-        @Override
-        public void onReceive(Context context, Intent intent) {
-            onGalleryUpdated();
-        }
-    };
-
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -56,8 +74,12 @@ public class MainActivity extends AppCompatActivity implements GalleryUpdateList
         recyclerViewGallery = findViewById(R.id.recyclerViewGallery);
         buttonChangeGrid = findViewById(R.id.buttonChangeGrid);
         buttonInspirations = findViewById(R.id.buttonInspirations);
+        editTextSearch = findViewById(R.id.editTextSearch);
+        buttonFilters = findViewById(R.id.buttonFilters);
 
-        databaseHelper = new GalleryDatabaseHelper(this);
+        databaseHelper = GalleryDatabaseHelper.getInstance(this);
+        galleryLoader = new GalleryLoader(databaseHelper, new MediaStoreSync(this, databaseHelper),
+                ThumbnailCache.getInstance(this), galleryLoaderListener);
 
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.UPSIDE_DOWN_CAKE) {
             openPhotoPicker();
@@ -72,12 +94,47 @@ public class MainActivity extends AppCompatActivity implements GalleryUpdateList
             startActivity(intent);
         });
 
-        registerReceiver(galleryUpdateReceiver, new IntentFilter("ACTION_UPDATE_GALLERY"));
+        findViewById(R.id.buttonDuplicates).setOnClickListener(v ->
+                startActivity(new Intent(MainActivity.this, DuplicatesActivity.class)));
+
+        editTextSearch.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                searchFilter.text = s.toString();
+                // Wait for a pause in typing rather than querying on every key
+                searchHandler.removeCallbacks(applySearch);
+                searchHandler.postDelayed(applySearch, SEARCH_DELAY_MILLIS);
+            }
+        });
+        buttonFilters.setOnClickListener(v -> showFilters());
+
+        GalleryChanges.getInstance(this).addListener(this);
     }
 
+    // Our own edits and those of other apps arrive here, already coalesced. The sync
+    // they trigger reports exactly which rows moved, and the grid is updated from that.
     @Override
-    public void onGalleryUpdated() {
-        loadImages();
+    public void onGalleryUpdated(GalleryChanges.ChangeSet changes) {
+        if (galleriesAdapter == null) {
+            // Nothing is shown yet, the first load will pick the changes up
+            return;
+        }
+        ThumbnailCache thumbnailCache = ThumbnailCache.getInstance(this);
+        for (Uri uri : changes.updated) {
+            thumbnailCache.removeFromMemory(uri);
+        }
+        for (Uri uri : changes.deleted) {
+            thumbnailCache.removeFromMemory(uri);
+        }
+        galleryLoader.refresh(changes);
     }
 
     private void requestMediaPermission() {
@@ -108,53 +165,110 @@ public class MainActivity extends AppCompatActivity implements GalleryUpdateList
         startActivityForResult(intent, REQUEST_CODE_PICK_IMAGES);
     }
 
-    private boolean isDatabaseEmpty() {
-        SQLiteDatabase db = databaseHelper.getReadableDatabase();
-        String query = "SELECT COUNT(*) FROM " + GalleryDatabaseHelper.TABLE_IMAGES;
-        Cursor cursor = db.rawQuery(query, null);
-        cursor.moveToFirst();
-        int count = cursor.getInt(0);
-        cursor.close();
-        return count == 0;
-    }
+    private void loadImages() {
+        if (galleriesAdapter == null) {
+            setUpGallery();
+        }
 
-    private void resetDatabase() {
-        SQLiteDatabase db = databaseHelper.getWritableDatabase();
-        db.delete(GalleryDatabaseHelper.TABLE_IMAGES, null, null);
-        db.execSQL("DELETE FROM sqlite_sequence WHERE name='" + GalleryDatabaseHelper.TABLE_IMAGES + "'");
-        db.close();
+        // Syncs in the background; a load still running from an earlier update is cancelled
+        galleryLoader.refresh();
     }
 
-    private void loadImages() {
-        List<Uri> photoUris = new ArrayList<>();
-        String[] projection = {MediaStore.Images.Media._ID, MediaStore.Images.Media.DISPLAY_NAME};
-        Cursor cursor = getContentResolver().query(
-                MediaStore.Images.Media.EXTERNAL_CONTENT_URI,
-                projection,
-                null,
-                null,
-                null
-        );
+    // Applies the loader's progress to the grid. New rows land at the end of the id order,
+    // so every batch is a range insert at the tail and the cells already on screen stay put.
+    private final GalleryLoader.Listener galleryLoaderListener = new GalleryLoader.Listener() {
+        @Override
+        public void onLoadStarted(int count) {
+            if (imageList.isFiltered()) {
+                // The counts are for the whole table, search results catch up once the load is done
+                return;
+            }
+            if (imageList.size() != count) {
+                imageList.refresh();
+                imageList.setCount(count);
+                galleriesAdapter.notifyDataSetChanged();
+            }
+        }
+
+        @Override
+        public void onRowsAdded(int count, int addedCount) {
+            if (imageList.isFiltered()) {
+                return;
+            }
+            int oldCount = imageList.size();
+            imageList.setCount(count);
+            if (count > oldCount) {
+                galleriesAdapter.notifyItemRangeInserted(oldCount, count - oldCount);
+            }
+        }
 
-        if (isDatabaseEmpty()) {
-            resetDatabase();
+        @Override
+        public void onLoadFinished(MediaStoreSync.Result result, int count) {
+            // Hash new and changed images while the user is browsing, so the duplicate
+            // search has little left to do
+            DuplicateFinder.getInstance(MainActivity.this).indexInBackground();
+            if (imageList.isFiltered()) {
+                if (!result.isEmpty()) {
+                    imageList.refresh();
+                    galleriesAdapter.notifyDataSetChanged();
+                }
+                return;
+            }
+            applyItemChanges(result, count);
         }
+    };
 
-        if (cursor != null) {
-            while (cursor.moveToNext()) {
-                int id = cursor.getInt(cursor.getColumnIndexOrThrow(MediaStore.Images.Media._ID));
-                String name = cursor.getString(cursor.getColumnIndexOrThrow(MediaStore.Images.Media.DISPLAY_NAME));
-                Uri contentUri = Uri.withAppendedPath(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, Integer.toString(id));
+    // Turns a finished sync into item-level notifications, so only the affected cells
+    // are rebound and the scroll position is kept. Changed rows off screen need no
+    // notification; a removed row that is not in a loaded page has an unknown position,
+    // and only then does the whole grid rebind.
+    private void applyItemChanges(MediaStoreSync.Result result, int count) {
+        ThumbnailCache thumbnailCache = ThumbnailCache.getInstance(this);
+        if (!result.metadataBackfill) {
+            for (Uri uri : result.updated) {
+                thumbnailCache.removeFromMemory(uri);
+                int position = imageList.indexOfLoaded(uri);
+                if (position >= 0) {
+                    galleriesAdapter.notifyItemChanged(position);
+                }
+            }
+        }
 
-                databaseHelper.insertImageMetadata(contentUri.toString(), name);
-                photoUris.add(contentUri);
+        List<Integer> removedPositions = new ArrayList<>();
+        for (Uri uri : result.removed) {
+            thumbnailCache.removeFromMemory(uri);
+            int position = imageList.indexOfLoaded(uri);
+            if (position >= 0) {
+                removedPositions.add(position);
             }
-            cursor.close();
         }
+        if (result.removed.isEmpty() && imageList.size() == count) {
+            return;
+        }
+
+        boolean positionsKnown = removedPositions.size() == result.removed.size()
+                && imageList.size() - removedPositions.size() == count;
+        // Removals shift positions, reread the pages
+        imageList.refresh();
+        imageList.setCount(count);
+        if (!positionsKnown) {
+            galleriesAdapter.notifyDataSetChanged();
+            return;
+        }
+        // Highest first, so each position is still valid when it is applied
+        Collections.sort(removedPositions, Collections.reverseOrder());
+        for (int position : removedPositions) {
+            galleriesAdapter.notifyItemRemoved(position);
+        }
+    }
 
+    // The grid binds straight from the images table, a page at a time, so the first
+    // screen only needs the first page to be read.
+    private void setUpGallery() {
+        imageList = new PagedImageList(databaseHelper, GalleryDatabaseHelper.COLUMN_ID, false);
         galleriesAdapter = new GalleriesAdapter(
                 this,
-                photoUris,
+                imageList,
                 this::onPhotoClick,
                 null,
                 GalleriesAdapter.IMAGE_SOURCE_INTERNAL
@@ -162,8 +276,65 @@ public class MainActivity extends AppCompatActivity implements GalleryUpdateList
 
         recyclerViewGallery.setLayoutManager(new GridLayoutManager(this, currentSpanCount));
         recyclerViewGallery.setAdapter(galleriesAdapter);
+        thumbnailPrefetcher = ThumbnailPrefetcher.attach(recyclerViewGallery, galleriesAdapter);
+    }
 
-        logDatabaseEntries();
+    // Matches come straight from the name index and metadata columns, a page at a time
+    private void applySearchFilter() {
+        if (galleriesAdapter == null) {
+            return;
+        }
+        imageList = new PagedImageList(databaseHelper, GalleryDatabaseHelper.COLUMN_ID, false, searchFilter.copy());
+        galleriesAdapter.setImageUris(imageList);
+        recyclerViewGallery.scrollToPosition(0);
+    }
+
+    private void showFilters() {
+        new AlertDialog.Builder(this)
+                .setTitle("Filters")
+                .setItems(FACETS, (dialog, which) -> {
+                    if (which < FACET_CHOICES.length) {
+                        showFacetChoices(which);
+                    } else {
+                        for (int facet = 0; facet < facetChoices.length; facet++) {
+                            setFacetChoice(facet, 0);
+                        }
+                        applySearchFilter();
+                    }
+                })
+                .show();
+    }
+
+    private void showFacetChoices(int facet) {
+        new AlertDialog.Builder(this)
+                .setTitle(FACETS[facet])
+                .setSingleChoiceItems(FACET_CHOICES[facet], facetChoices[facet], (dialog, which) -> {
+                    setFacetChoice(facet, which);
+                    applySearchFilter();
+                    dialog.dismiss();
+                })
+                .show();
+    }
+
+    private void setFacetChoice(int facet, int choice) {
+        facetChoices[facet] = choice;
+        switch (facet) {
+            case 0:
+                searchFilter.mimeType = MIME_TYPES[choice];
+                break;
+            case 1:
+                searchFilter.minDateTaken = DATE_RANGES_DAYS[choice] > 0
+                        ? System.currentTimeMillis() - DATE_RANGES_DAYS[choice] * DAY_MILLIS
+                        : 0;
+                break;
+            case 2:
+                searchFilter.minSize = SIZE_RANGES[choice][0];
+                searchFilter.maxSize = SIZE_RANGES[choice][1];
+                break;
+            case 3:
+                searchFilter.minShortSide = SHORT_SIDES[choice];
+                break;
+        }
     }
 
     private void onPhotoClick(Uri uri) {
@@ -177,34 +348,30 @@ public class MainActivity extends AppCompatActivity implements GalleryUpdateList
         GridLayoutManager layoutManager = (GridLayoutManager) recyclerViewGallery.getLayoutManager();
         if (layoutManager != null) {
             layoutManager.setSpanCount(currentSpanCount);
-            galleriesAdapter.notifyDataSetChanged();
+            galleriesAdapter.onGridChanged();
         }
     }
 
-    private void logDatabaseEntries() {
-        Cursor cursor = databaseHelper.getAllImages();
-
-        if (cursor != null && cursor.moveToFirst()) {
-            do {
-                int id = cursor.getInt(cursor.getColumnIndexOrThrow("id"));
-                String uri = cursor.getString(cursor.getColumnIndexOrThrow("uri"));
-                String name = cursor.getString(cursor.getColumnIndexOrThrow("name"));
-
-                Log.d("GalleryDatabase", "ID: " + id + ", URI: " + uri + ", Name: " + name);
-            } while (cursor.moveToNext());
-        } else {
-            Log.d("GalleryDatabase", "No entries found in the database.");
-        }
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        ThumbnailCache.getInstance(this).trimMemory(level);
 
-        if (cursor != null) {
-            cursor.close();
+        BitmapPool bitmapPool = BitmapPool.getInstance();
+        if (level >= TRIM_MEMORY_MODERATE) {
+            bitmapPool.clear();
         }
     }
 
     @Override
     protected void onDestroy() {
         super.onDestroy();
-        unregisterReceiver(galleryUpdateReceiver);
+        GalleryChanges.getInstance(this).removeListener(this);
+        galleryLoader.shutdown();
+        searchHandler.removeCallbacks(applySearch);
+        if (thumbnailPrefetcher != null) {
+            thumbnailPrefetcher.detach(recyclerViewGallery);
+        }
     }
 
     @Override
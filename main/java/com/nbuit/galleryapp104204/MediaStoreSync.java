@@ -0,0 +1,340 @@
+package com.nbuit.galleryapp104204;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+import android.os.CancellationSignal;
+import android.provider.MediaStore;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// Keeps the images table in step with MediaStore without rescanning the library.
+// A watermark (the MediaStore generation on Android 11+, DATE_MODIFIED plus _ID
+// before that) is persisted after every sync so the next one only reads rows that
+// were added or changed since. Deletions leave no trace in MediaStore, so the rows
+// named by reported changes are looked up again and dropped if they are gone. Only the
+// first sync, and one after a change that names no single image, diffs every id.
+// A sync can report each batch as it is written and be cancelled between batches; a
+// cancelled sync leaves the watermark where it was, so the next one picks up the rest.
+public class MediaStoreSync {
+
+    private static final String PREFS_NAME = "media_store_sync";
+    private static final String KEY_INITIALIZED = "initialized";
+    private static final String KEY_MEDIA_VERSION = "media_version";
+    private static final String KEY_GENERATION = "generation";
+    private static final String KEY_DATE_MODIFIED = "date_modified";
+    private static final String KEY_LAST_ID = "last_id";
+    private static final String KEY_METADATA_VERSION = "metadata_version";
+
+    // Bump when the record gains columns, so existing rows are read again once
+    private static final int METADATA_VERSION = 1;
+
+    private static final int BATCH_SIZE = 500;
+
+    private static final Uri MEDIA_URI = MediaStore.Images.Media.EXTERNAL_CONTENT_URI;
+
+    private final Context context;
+    private final GalleryDatabaseHelper databaseHelper;
+    private final SharedPreferences preferences;
+    // Guarded by this. Changes made while nothing was observing went unreported, so the
+    // first sync compares every id.
+    private final Set<String> removalCandidates = new HashSet<>();
+    private boolean checkAllRemoved = true;
+
+    public static class Result {
+        public final boolean fullResync;
+        // Every row was read again to fill in new metadata columns, so most of the
+        // updated rows did not actually change
+        public boolean metadataBackfill;
+        public final List<Uri> added = new ArrayList<>();
+        public final List<Uri> updated = new ArrayList<>();
+        public final List<Uri> removed = new ArrayList<>();
+
+        Result(boolean fullResync) {
+            this.fullResync = fullResync;
+        }
+
+        public boolean isEmpty() {
+            return added.isEmpty() && updated.isEmpty() && removed.isEmpty();
+        }
+    }
+
+    public interface Listener {
+        // Called once the table is ready to receive rows, after the reset of a full resync
+        void onSyncStarted(boolean fullResync);
+
+        void onBatchWritten(int addedCount, int updatedCount);
+    }
+
+    public MediaStoreSync(Context context, GalleryDatabaseHelper databaseHelper) {
+        this.context = context.getApplicationContext();
+        this.databaseHelper = databaseHelper;
+        this.preferences = this.context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    public Result sync() {
+        return sync(null, null);
+    }
+
+    // Any thread. The next sync drops the rows of these images if MediaStore no longer has them.
+    public synchronized void checkRemoved(Collection<Uri> uris) {
+        for (Uri uri : uris) {
+            removalCandidates.add(uri.toString());
+        }
+    }
+
+    // Any thread. For changes that could not be pinned to an image, e.g. a whole volume.
+    public synchronized void checkAllRemoved() {
+        checkAllRemoved = true;
+    }
+
+    // Throws OperationCanceledException if the signal is cancelled before the sync completes.
+    public Result sync(Listener listener, CancellationSignal cancellationSignal) {
+        String mediaVersion = MediaStore.getVersion(context);
+        boolean fullResync = !preferences.getBoolean(KEY_INITIALIZED, false)
+                || !mediaVersion.equals(preferences.getString(KEY_MEDIA_VERSION, null));
+
+        Result result = new Result(fullResync);
+        // Rows written before the metadata columns existed are refreshed in place by
+        // reading the whole library once, without clearing the table
+        boolean readAll = fullResync || preferences.getInt(KEY_METADATA_VERSION, 0) < METADATA_VERSION;
+        result.metadataBackfill = readAll && !fullResync;
+        if (fullResync) {
+            // Also drops the duplicate rows earlier versions piled up
+            databaseHelper.clearImages();
+        }
+        if (listener != null) {
+            listener.onSyncStarted(fullResync);
+        }
+
+        applyChangedRows(result, fullResync, readAll, listener, cancellationSignal);
+        applyRemovedRows(result, fullResync, cancellationSignal);
+
+        preferences.edit()
+                .putBoolean(KEY_INITIALIZED, true)
+                .putString(KEY_MEDIA_VERSION, mediaVersion)
+                .putInt(KEY_METADATA_VERSION, METADATA_VERSION)
+                .apply();
+        return result;
+    }
+
+    private void applyChangedRows(Result result, boolean fullResync, boolean readAll, Listener listener,
+                                  CancellationSignal cancellationSignal) {
+        boolean useGeneration = Build.VERSION.SDK_INT >= Build.VERSION_CODES.R;
+        List<String> projectionColumns = new ArrayList<>();
+        projectionColumns.add(MediaStore.Images.Media._ID);
+        projectionColumns.add(MediaStore.Images.Media.DISPLAY_NAME);
+        projectionColumns.add(MediaStore.Images.Media.DATE_MODIFIED);
+        projectionColumns.add(MediaStore.Images.Media.DATE_TAKEN);
+        projectionColumns.add(MediaStore.Images.Media.WIDTH);
+        projectionColumns.add(MediaStore.Images.Media.HEIGHT);
+        projectionColumns.add(MediaStore.Images.Media.SIZE);
+        projectionColumns.add(MediaStore.Images.Media.MIME_TYPE);
+        projectionColumns.add(MediaStore.Images.Media.ORIENTATION);
+        if (useGeneration) {
+            projectionColumns.add(MediaStore.MediaColumns.GENERATION_MODIFIED);
+        }
+        String[] projection = projectionColumns.toArray(new String[0]);
+
+        String selection = null;
+        String[] selectionArgs = null;
+        long generation = preferences.getLong(KEY_GENERATION, 0);
+        long dateModified = preferences.getLong(KEY_DATE_MODIFIED, 0);
+        long lastId = preferences.getLong(KEY_LAST_ID, 0);
+        if (!readAll) {
+            if (useGeneration) {
+                selection = MediaStore.MediaColumns.GENERATION_MODIFIED + " > ?";
+                selectionArgs = new String[]{Long.toString(generation)};
+            } else {
+                selection = MediaStore.Images.Media.DATE_MODIFIED + " > ? OR ("
+                        + MediaStore.Images.Media.DATE_MODIFIED + " = ? AND "
+                        + MediaStore.Images.Media._ID + " > ?)";
+                selectionArgs = new String[]{
+                        Long.toString(dateModified), Long.toString(dateModified), Long.toString(lastId)};
+            }
+        }
+
+        ContentResolver resolver = context.getContentResolver();
+        try (Cursor cursor = resolver.query(
+                MEDIA_URI, projection, selection, selectionArgs, null, cancellationSignal)) {
+            if (cursor == null) {
+                return;
+            }
+            int idColumn = cursor.getColumnIndexOrThrow(MediaStore.Images.Media._ID);
+            int nameColumn = cursor.getColumnIndexOrThrow(MediaStore.Images.Media.DISPLAY_NAME);
+            int dateColumn = cursor.getColumnIndexOrThrow(MediaStore.Images.Media.DATE_MODIFIED);
+            int dateTakenColumn = cursor.getColumnIndexOrThrow(MediaStore.Images.Media.DATE_TAKEN);
+            int widthColumn = cursor.getColumnIndexOrThrow(MediaStore.Images.Media.WIDTH);
+            int heightColumn = cursor.getColumnIndexOrThrow(MediaStore.Images.Media.HEIGHT);
+            int sizeColumn = cursor.getColumnIndexOrThrow(MediaStore.Images.Media.SIZE);
+            int mimeColumn = cursor.getColumnIndexOrThrow(MediaStore.Images.Media.MIME_TYPE);
+            int orientationColumn = cursor.getColumnIndexOrThrow(MediaStore.Images.Media.ORIENTATION);
+            int generationColumn = useGeneration
+                    ? cursor.getColumnIndexOrThrow(MediaStore.MediaColumns.GENERATION_MODIFIED)
+                    : -1;
+
+            List<ImageRecord> batch = new ArrayList<>(BATCH_SIZE);
+            while (cursor.moveToNext()) {
+                long id = cursor.getLong(idColumn);
+                String name = cursor.getString(nameColumn);
+                String uri = Uri.withAppendedPath(MEDIA_URI, Long.toString(id)).toString();
+                // DATE_MODIFIED is in seconds, DATE_TAKEN in milliseconds and often missing
+                long modifiedMillis = cursor.getLong(dateColumn) * 1000;
+                long takenMillis = cursor.isNull(dateTakenColumn) ? modifiedMillis : cursor.getLong(dateTakenColumn);
+                batch.add(new ImageRecord(uri, name,
+                        cursor.getInt(widthColumn), cursor.getInt(heightColumn), cursor.getLong(sizeColumn),
+                        cursor.getString(mimeColumn), takenMillis, modifiedMillis,
+                        cursor.getInt(orientationColumn)));
+                if (batch.size() == BATCH_SIZE) {
+                    throwIfCanceled(cancellationSignal);
+                    writeBatch(batch, fullResync, result, listener);
+                    batch.clear();
+                }
+
+                if (useGeneration) {
+                    generation = Math.max(generation, cursor.getLong(generationColumn));
+                } else {
+                    long rowDate = cursor.getLong(dateColumn);
+                    if (rowDate > dateModified || (rowDate == dateModified && id > lastId)) {
+                        dateModified = rowDate;
+                        lastId = id;
+                    }
+                }
+            }
+            throwIfCanceled(cancellationSignal);
+            writeBatch(batch, fullResync, result, listener);
+        }
+
+        preferences.edit()
+                .putLong(KEY_GENERATION, generation)
+                .putLong(KEY_DATE_MODIFIED, dateModified)
+                .putLong(KEY_LAST_ID, lastId)
+                .apply();
+    }
+
+    private void writeBatch(List<ImageRecord> batch, boolean fullResync, Result result, Listener listener) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        int addedBefore = result.added.size();
+        int updatedBefore = result.updated.size();
+        if (fullResync) {
+            databaseHelper.insertImages(batch);
+            for (ImageRecord record : batch) {
+                result.added.add(Uri.parse(record.uri));
+            }
+        } else {
+            Set<String> inserted = new HashSet<>();
+            for (ImageRecord record : databaseHelper.upsertImages(batch)) {
+                inserted.add(record.uri);
+                result.added.add(Uri.parse(record.uri));
+            }
+            for (ImageRecord record : batch) {
+                if (!inserted.contains(record.uri)) {
+                    result.updated.add(Uri.parse(record.uri));
+                }
+            }
+        }
+        if (listener != null) {
+            listener.onBatchWritten(result.added.size() - addedBefore, result.updated.size() - updatedBefore);
+        }
+    }
+
+    private static void throwIfCanceled(CancellationSignal cancellationSignal) {
+        if (cancellationSignal != null) {
+            cancellationSignal.throwIfCanceled();
+        }
+    }
+
+    private void applyRemovedRows(Result result, boolean fullResync, CancellationSignal cancellationSignal) {
+        Set<String> candidates;
+        boolean checkAll;
+        synchronized (this) {
+            candidates = new HashSet<>(removalCandidates);
+            checkAll = checkAllRemoved;
+        }
+        // A full resync rebuilt the table from MediaStore, so nothing in it is stale
+        if (!fullResync) {
+            List<String> goneUris = checkAll
+                    ? findAllRemoved(cancellationSignal)
+                    : findRemoved(candidates, cancellationSignal);
+            for (String uri : databaseHelper.deleteImages(goneUris)) {
+                result.removed.add(Uri.parse(uri));
+            }
+        }
+        // Changes reported while this sync ran are checked by the next one
+        synchronized (this) {
+            removalCandidates.removeAll(candidates);
+            if (checkAll) {
+                checkAllRemoved = false;
+            }
+        }
+    }
+
+    // The candidates MediaStore no longer has, looked up a batch of ids at a time.
+    private List<String> findRemoved(Set<String> candidates, CancellationSignal cancellationSignal) {
+        List<String> removedUris = new ArrayList<>();
+        List<String> uris = new ArrayList<>(candidates);
+        for (int start = 0; start < uris.size(); start += BATCH_SIZE) {
+            List<String> batch = uris.subList(start, Math.min(uris.size(), start + BATCH_SIZE));
+            StringBuilder selection = new StringBuilder(MediaStore.Images.Media._ID + " IN (");
+            String[] selectionArgs = new String[batch.size()];
+            for (int i = 0; i < batch.size(); i++) {
+                selection.append(i > 0 ? ", ?" : "?");
+                selectionArgs[i] = Uri.parse(batch.get(i)).getLastPathSegment();
+            }
+            selection.append(")");
+
+            Set<String> present = new HashSet<>();
+            try (Cursor cursor = context.getContentResolver().query(MEDIA_URI,
+                    new String[]{MediaStore.Images.Media._ID}, selection.toString(), selectionArgs,
+                    null, cancellationSignal)) {
+                if (cursor == null) {
+                    // Nothing can be told apart, keep the rows
+                    continue;
+                }
+                int idColumn = cursor.getColumnIndexOrThrow(MediaStore.Images.Media._ID);
+                while (cursor.moveToNext()) {
+                    present.add(Uri.withAppendedPath(MEDIA_URI, Long.toString(cursor.getLong(idColumn))).toString());
+                }
+            }
+            for (String uri : batch) {
+                if (!present.contains(uri)) {
+                    removedUris.add(uri);
+                }
+            }
+        }
+        throwIfCanceled(cancellationSignal);
+        return removedUris;
+    }
+
+    // Every stored uri MediaStore no longer has. Reads all of MediaStore's ids.
+    private List<String> findAllRemoved(CancellationSignal cancellationSignal) {
+        List<String> removedUris = new ArrayList<>();
+        try (Cursor cursor = context.getContentResolver().query(
+                MEDIA_URI, new String[]{MediaStore.Images.Media._ID}, null, null, null, cancellationSignal)) {
+            if (cursor == null) {
+                return removedUris;
+            }
+            Set<String> mediaUris = new HashSet<>(cursor.getCount());
+            int idColumn = cursor.getColumnIndexOrThrow(MediaStore.Images.Media._ID);
+            while (cursor.moveToNext()) {
+                mediaUris.add(Uri.withAppendedPath(MEDIA_URI, Long.toString(cursor.getLong(idColumn))).toString());
+            }
+            throwIfCanceled(cancellationSignal);
+            for (String uri : databaseHelper.getAllImageUris()) {
+                if (!mediaUris.contains(uri)) {
+                    removedUris.add(uri);
+                }
+            }
+        }
+        return removedUris;
+    }
+}
@@ -0,0 +1,169 @@
+package com.nbuit.galleryapp104204;
+
+import android.database.Cursor;
+import android.net.Uri;
+
+import java.util.AbstractList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Read-only list view of the images table that loads fixed-size pages on demand and
+// keeps only the most recently used pages in memory. Pages are read by keyset (sort
+// value plus id, continuing from the end of the previous page), so reading any page
+// costs the same however deep into the library it is.
+public class PagedImageList extends AbstractList<Uri> {
+
+    public static final int DEFAULT_PAGE_SIZE = 120;
+    public static final int DEFAULT_MAX_PAGES = 6;
+
+    private final GalleryDatabaseHelper databaseHelper;
+    private final String sortColumn;
+    private final boolean descending;
+    private final ImageFilter filter;
+    private final int pageSize;
+    private final int maxPages;
+
+    private int count = -1;
+    private final LinkedHashMap<Integer, Page> pages;
+    // Where each page read so far ends, so the next one can continue from it
+    private final Map<Integer, Anchor> pageEnds = new HashMap<>();
+
+    public PagedImageList(GalleryDatabaseHelper databaseHelper, String sortColumn, boolean descending) {
+        this(databaseHelper, sortColumn, descending, null);
+    }
+
+    // Lists only the rows matching the filter, which must not change afterwards
+    public PagedImageList(GalleryDatabaseHelper databaseHelper, String sortColumn, boolean descending,
+                          ImageFilter filter) {
+        this(databaseHelper, sortColumn, descending, filter, DEFAULT_PAGE_SIZE, DEFAULT_MAX_PAGES);
+    }
+
+    public PagedImageList(GalleryDatabaseHelper databaseHelper, String sortColumn, boolean descending,
+                          ImageFilter filter, int pageSize, int maxPages) {
+        this.databaseHelper = databaseHelper;
+        this.sortColumn = sortColumn;
+        this.descending = descending;
+        this.filter = filter != null && !filter.isEmpty() ? filter : null;
+        this.pageSize = pageSize;
+        this.maxPages = maxPages;
+        this.pages = new LinkedHashMap<Integer, Page>(maxPages + 1, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Page> eldest) {
+                return size() > PagedImageList.this.maxPages;
+            }
+        };
+    }
+
+    @Override
+    public Uri get(int position) {
+        if (position < 0 || position >= size()) {
+            throw new IndexOutOfBoundsException("Position " + position + ", size " + size());
+        }
+        int pageIndex = position / pageSize;
+        Page page = pages.get(pageIndex);
+        if (page == null) {
+            page = loadPage(pageIndex);
+            pages.put(pageIndex, page);
+        }
+        int offset = position - pageIndex * pageSize;
+        return offset < page.uris.length ? page.uris[offset] : Uri.EMPTY;
+    }
+
+    @Override
+    public int size() {
+        if (count < 0) {
+            count = databaseHelper.getImageCount(filter);
+        }
+        return count;
+    }
+
+    // Drops everything loaded so far, call after the table changed.
+    public void refresh() {
+        count = -1;
+        pages.clear();
+        pageEnds.clear();
+    }
+
+    // Rows were appended to the end of the sort order, e.g. by a load still in progress.
+    // Loaded full pages stay valid; a short last page is dropped so it is read again.
+    public void setCount(int count) {
+        this.count = count;
+        Iterator<Map.Entry<Integer, Page>> iterator = pages.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Integer, Page> entry = iterator.next();
+            if (entry.getValue().uris.length < pageSize) {
+                iterator.remove();
+                pageEnds.remove(entry.getKey());
+            }
+        }
+    }
+
+    // Position of the uri if it is in a page that is currently loaded, otherwise -1.
+    // The cells on screen always are.
+    public int indexOfLoaded(Uri uri) {
+        for (Map.Entry<Integer, Page> entry : pages.entrySet()) {
+            Uri[] uris = entry.getValue().uris;
+            for (int i = 0; i < uris.length; i++) {
+                if (uri.equals(uris[i])) {
+                    return entry.getKey() * pageSize + i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    public boolean isFiltered() {
+        return filter != null;
+    }
+
+    public int getLoadedPageCount() {
+        return pages.size();
+    }
+
+    private Page loadPage(int pageIndex) {
+        Anchor previousEnd = pageIndex > 0 ? pageEnds.get(pageIndex - 1) : null;
+        Cursor cursor;
+        if (pageIndex == 0) {
+            cursor = databaseHelper.queryImagesPage(sortColumn, descending, filter, null, 0, pageSize);
+        } else if (previousEnd != null) {
+            cursor = databaseHelper.queryImagesPage(sortColumn, descending, filter,
+                    previousEnd.sortValue, previousEnd.id, pageSize);
+        } else {
+            cursor = databaseHelper.queryImagesAtOffset(sortColumn, descending, filter, pageIndex * pageSize, pageSize);
+        }
+
+        try {
+            Uri[] uris = new Uri[cursor.getCount()];
+            int index = 0;
+            while (cursor.moveToNext()) {
+                uris[index++] = Uri.parse(cursor.getString(0));
+                if (cursor.isLast()) {
+                    pageEnds.put(pageIndex, new Anchor(cursor.getString(1), cursor.getLong(2)));
+                }
+            }
+            return new Page(uris);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static class Page {
+        final Uri[] uris;
+
+        Page(Uri[] uris) {
+            this.uris = uris;
+        }
+    }
+
+    private static class Anchor {
+        final String sortValue;
+        final long id;
+
+        Anchor(String sortValue, long id) {
+            this.sortValue = sortValue;
+            this.id = id;
+        }
+    }
+}
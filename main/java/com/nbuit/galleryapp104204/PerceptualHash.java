@@ -0,0 +1,47 @@
+package com.nbuit.galleryapp104204;
+
+import android.graphics.Bitmap;
+
+// 64-bit difference hash (dHash). The image is shrunk to 9x8, turned to luma, and each
+// bit records whether a pixel is brighter than its right neighbour. Re-encodes, small
+// edits and rescaled copies land within a few bits of each other.
+public final class PerceptualHash {
+
+    public static final int WIDTH = 9;
+    public static final int HEIGHT = 8;
+
+    private PerceptualHash() {
+    }
+
+    public static long dHash(Bitmap bitmap) {
+        Bitmap small = Bitmap.createScaledBitmap(bitmap, WIDTH, HEIGHT, true);
+        int[] pixels = new int[WIDTH * HEIGHT];
+        small.getPixels(pixels, 0, WIDTH, 0, 0, WIDTH, HEIGHT);
+        if (small != bitmap) {
+            small.recycle();
+        }
+        return dHash(pixels);
+    }
+
+    // pixels: WIDTH x HEIGHT ARGB values, row by row
+    public static long dHash(int[] pixels) {
+        long hash = 0;
+        for (int y = 0; y < HEIGHT; y++) {
+            int row = y * WIDTH;
+            int left = luma(pixels[row]);
+            for (int x = 1; x < WIDTH; x++) {
+                int right = luma(pixels[row + x]);
+                hash = (hash << 1) | (left > right ? 1 : 0);
+                left = right;
+            }
+        }
+        return hash;
+    }
+
+    private static int luma(int argb) {
+        int r = (argb >> 16) & 0xFF;
+        int g = (argb >> 8) & 0xFF;
+        int b = argb & 0xFF;
+        return (r * 299 + g * 587 + b * 114) / 1000;
+    }
+}
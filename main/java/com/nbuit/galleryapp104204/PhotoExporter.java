@@ -0,0 +1,210 @@
+package com.nbuit.galleryapp104204;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.Build;
+import android.provider.MediaStore;
+import android.util.Log;
+import android.webkit.MimeTypeMap;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+// Writes finished photos into MediaStore without holding the encoded file in memory.
+// Encoders stream straight into the item's file. New items stay pending, hidden from
+// the gallery and other apps, until the last byte is written, and replaced items are
+// rewritten in place so they keep their id, date taken and album.
+public class PhotoExporter {
+
+    public static final int FORMAT_JPEG = 0;
+    public static final int FORMAT_PNG = 1;
+    public static final int FORMAT_WEBP = 2;
+
+    private static final int OUTPUT_BUFFER_SIZE = 64 * 1024;
+
+    // Worker thread. May render while it encodes.
+    public interface Encoder {
+        void encode(OutputStream out) throws IOException;
+    }
+
+    private final ContentResolver contentResolver;
+
+    public PhotoExporter(ContentResolver contentResolver) {
+        this.contentResolver = contentResolver;
+    }
+
+    public static String mimeType(int format) {
+        switch (format) {
+            case FORMAT_PNG:
+                return "image/png";
+            case FORMAT_WEBP:
+                return "image/webp";
+            default:
+                return "image/jpeg";
+        }
+    }
+
+    // -1 for formats Bitmap.compress cannot write, e.g. HEIC
+    public static int formatOf(String mimeType) {
+        if (mimeType == null) {
+            return -1;
+        }
+        switch (mimeType) {
+            case "image/jpeg":
+                return FORMAT_JPEG;
+            case "image/png":
+                return FORMAT_PNG;
+            case "image/webp":
+                return FORMAT_WEBP;
+            default:
+                return -1;
+        }
+    }
+
+    private static String extension(int format) {
+        switch (format) {
+            case FORMAT_PNG:
+                return ".png";
+            case FORMAT_WEBP:
+                return ".webp";
+            default:
+                return ".jpg";
+        }
+    }
+
+    // PNG is lossless and ignores quality
+    @SuppressWarnings("deprecation")
+    public static Encoder bitmapEncoder(Bitmap bitmap, int format, int quality) {
+        Bitmap.CompressFormat compressFormat;
+        if (format == FORMAT_PNG) {
+            compressFormat = Bitmap.CompressFormat.PNG;
+        } else if (format == FORMAT_WEBP) {
+            compressFormat = Build.VERSION.SDK_INT >= Build.VERSION_CODES.R
+                    ? Bitmap.CompressFormat.WEBP_LOSSY
+                    : Bitmap.CompressFormat.WEBP;
+        } else {
+            compressFormat = Bitmap.CompressFormat.JPEG;
+        }
+        return out -> {
+            if (!bitmap.compress(compressFormat, quality, out)) {
+                throw new IOException("Could not encode " + mimeType(format));
+            }
+        };
+    }
+
+    // Writes a file that is already encoded, e.g. a download, as is
+    public static Encoder copyEncoder(File file) {
+        return out -> copy(file, out);
+    }
+
+    // Worker thread. Returns the new item, or null if MediaStore refused to create it.
+    // The half-written item is removed if encoding fails or is cancelled.
+    public Uri insert(String title, int format, Encoder encoder) throws IOException {
+        return insert(title, mimeType(format), extension(format), encoder);
+    }
+
+    // Like insert(title, format, encoder), for any image type, e.g. a GIF being copied
+    public Uri insert(String title, String mimeType, Encoder encoder) throws IOException {
+        String extension = MimeTypeMap.getSingleton().getExtensionFromMimeType(mimeType);
+        return insert(title, mimeType, extension != null ? "." + extension : "", encoder);
+    }
+
+    private Uri insert(String title, String mimeType, String extension, Encoder encoder) throws IOException {
+        ContentValues values = new ContentValues();
+        values.put(MediaStore.Images.Media.TITLE, title);
+        values.put(MediaStore.Images.Media.DISPLAY_NAME, title.replace(' ', '_') + "_"
+                + System.currentTimeMillis() + extension);
+        values.put(MediaStore.Images.Media.MIME_TYPE, mimeType);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            values.put(MediaStore.Images.Media.IS_PENDING, 1);
+        }
+        Uri uri = contentResolver.insert(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, values);
+        if (uri == null) {
+            return null;
+        }
+        try {
+            write(uri, "w", encoder);
+            setPending(uri, false);
+        } catch (IOException | RuntimeException e) {
+            contentResolver.delete(uri, null, null);
+            throw e;
+        }
+        return uri;
+    }
+
+    // Worker thread. Encodes into a temporary file in spoolDirectory first, and only
+    // truncates the item and copies the file in once encoding has succeeded, so a failed
+    // or cancelled encode leaves the original untouched. This also lets encoder read the
+    // item it replaces. A failed copy is retried once; if that fails too, the temporary
+    // file is kept, as it is then the only whole copy of the photo. Throws
+    // SecurityException if the item belongs to another app and the user has not granted
+    // write access yet.
+    public void overwrite(Uri uri, Encoder encoder, File spoolDirectory) throws IOException {
+        File file = File.createTempFile("export", null, spoolDirectory);
+        boolean keepFile = false;
+        try {
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file), OUTPUT_BUFFER_SIZE)) {
+                encoder.encode(out);
+            }
+            // Readers see the old photo or the new one, never half of each
+            setPending(uri, true);
+            try {
+                keepFile = true;
+                try {
+                    write(uri, "wt", copyEncoder(file));
+                } catch (IOException e) {
+                    // The item may be truncated by now, the file still holds the whole photo
+                    Log.e("PhotoExporter", "Error replacing " + uri + ", retrying", e);
+                    write(uri, "wt", copyEncoder(file));
+                }
+                keepFile = false;
+            } finally {
+                // MediaStore hides pending items and deletes them once they expire
+                setPending(uri, false);
+            }
+        } finally {
+            if (keepFile) {
+                Log.e("PhotoExporter", "Could not replace " + uri + ", the new photo is in " + file);
+            } else {
+                file.delete();
+            }
+        }
+    }
+
+    private static void copy(File file, OutputStream out) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] buffer = new byte[OUTPUT_BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        }
+    }
+
+    private void write(Uri uri, String mode, Encoder encoder) throws IOException {
+        try (OutputStream outputStream = contentResolver.openOutputStream(uri, mode)) {
+            if (outputStream == null) {
+                throw new IOException("Cannot write " + uri);
+            }
+            BufferedOutputStream bufferedStream = new BufferedOutputStream(outputStream, OUTPUT_BUFFER_SIZE);
+            encoder.encode(bufferedStream);
+            bufferedStream.flush();
+        }
+    }
+
+    private void setPending(Uri uri, boolean pending) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.Q) {
+            return;
+        }
+        ContentValues values = new ContentValues();
+        values.put(MediaStore.Images.Media.IS_PENDING, pending ? 1 : 0);
+        contentResolver.update(uri, values, null, null);
+    }
+}
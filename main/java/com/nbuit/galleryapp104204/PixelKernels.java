@@ -0,0 +1,85 @@
+package com.nbuit.galleryapp104204;
+
+// Per-pixel color kernels over packed ARGB ints, for FilterEngine. They work in place
+// on pixels[offset, offset + length) and have no Android dependencies.
+public final class PixelKernels {
+
+    private PixelKernels() {
+    }
+
+    // Average of the three channels, fully opaque
+    public static void greyscale(int[] pixels, int offset, int length) {
+        int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            int pixel = pixels[i];
+            int grey = (((pixel >> 16) & 0xFF) + ((pixel >> 8) & 0xFF) + (pixel & 0xFF)) / 3;
+            pixels[i] = 0xFF000000 | (grey << 16) | (grey << 8) | grey;
+        }
+    }
+
+    // matrix: 16.16 fixed point from ColorMatrices.toFixedPoint. One multiply-add row
+    // per channel, clamped to 0-255.
+    public static void colorMatrix(int[] pixels, int offset, int length, int[] matrix) {
+        int m0 = matrix[0], m1 = matrix[1], m2 = matrix[2], m3 = matrix[3], m4 = matrix[4];
+        int m5 = matrix[5], m6 = matrix[6], m7 = matrix[7], m8 = matrix[8], m9 = matrix[9];
+        int m10 = matrix[10], m11 = matrix[11], m12 = matrix[12], m13 = matrix[13], m14 = matrix[14];
+        int m15 = matrix[15], m16 = matrix[16], m17 = matrix[17], m18 = matrix[18], m19 = matrix[19];
+        int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            int pixel = pixels[i];
+            int a = pixel >>> 24;
+            int r = (pixel >> 16) & 0xFF;
+            int g = (pixel >> 8) & 0xFF;
+            int b = pixel & 0xFF;
+            int outR = clamp((m0 * r + m1 * g + m2 * b + m3 * a + m4) >> 16);
+            int outG = clamp((m5 * r + m6 * g + m7 * b + m8 * a + m9) >> 16);
+            int outB = clamp((m10 * r + m11 * g + m12 * b + m13 * a + m14) >> 16);
+            int outA = clamp((m15 * r + m16 * g + m17 * b + m18 * a + m19) >> 16);
+            pixels[i] = (outA << 24) | (outR << 16) | (outG << 8) | outB;
+        }
+    }
+
+    private static int clamp(int value) {
+        return value < 0 ? 0 : (value > 255 ? 255 : value);
+    }
+
+    // 255 minus each channel, fully opaque
+    public static void invert(int[] pixels, int offset, int length) {
+        int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            pixels[i] = 0xFF000000 | (~pixels[i] & 0x00FFFFFF);
+        }
+    }
+
+    // Lookup table for lookup: each channel's black point maps to 0, its white point
+    // to 255 and the levels between stretch linearly. points is {black red, green,
+    // blue, white red, green, blue}; a channel whose white is not above its black is
+    // left as it is.
+    public static int[] levelsTable(int[] points) {
+        int[] table = new int[3 * 256];
+        for (int channel = 0; channel < 3; channel++) {
+            int black = points[channel];
+            int white = points[3 + channel];
+            for (int level = 0; level < 256; level++) {
+                int value = level;
+                if (white > black) {
+                    value = clamp(((level - black) * 255 * 2 + (white - black)) / (2 * (white - black)));
+                }
+                table[channel * 256 + level] = value;
+            }
+        }
+        return table;
+    }
+
+    // table: 256 red, then green, then blue entries. Keeps alpha.
+    public static void lookup(int[] pixels, int offset, int length, int[] table) {
+        int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            int pixel = pixels[i];
+            pixels[i] = (pixel & 0xFF000000)
+                    | (table[(pixel >> 16) & 0xFF] << 16)
+                    | (table[256 + ((pixel >> 8) & 0xFF)] << 8)
+                    | table[512 + (pixel & 0xFF)];
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package com.nbuit.galleryapp104204;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+// Writes a PNG a few rows at a time, so an image never has to be in memory as a
+// whole. Rows are given as unpremultiplied ARGB ints, top to bottom. Each row gets
+// the PNG filter that leaves the smallest sum of residuals, the heuristic libpng uses.
+public class PngStreamWriter {
+
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    private static final int COLOR_TYPE_RGB = 2;
+    private static final int COLOR_TYPE_RGBA = 6;
+    private static final int IDAT_SIZE = 64 * 1024;
+
+    private static final int FILTER_NONE = 0;
+    private static final int FILTER_SUB = 1;
+    private static final int FILTER_UP = 2;
+    private static final int FILTER_AVERAGE = 3;
+    private static final int FILTER_PAETH = 4;
+    private static final int FILTER_COUNT = 5;
+
+    private final OutputStream out;
+    private final int width;
+    private final int height;
+    private final int bytesPerPixel;
+    private final Deflater deflater;
+    private final CRC32 crc = new CRC32();
+    private final byte[] previousRow;
+    private final byte[] currentRow;
+    private final byte[][] filtered = new byte[FILTER_COUNT][];
+    private final byte[] deflated = new byte[IDAT_SIZE];
+    private int rowsWritten;
+
+    public PngStreamWriter(OutputStream out, int width, int height, boolean alpha, int compressionLevel)
+            throws IOException {
+        this.out = out;
+        this.width = width;
+        this.height = height;
+        this.bytesPerPixel = alpha ? 4 : 3;
+        this.deflater = new Deflater(compressionLevel);
+        int rowBytes = width * bytesPerPixel;
+        previousRow = new byte[rowBytes];
+        currentRow = new byte[rowBytes];
+        for (int i = 0; i < FILTER_COUNT; i++) {
+            filtered[i] = new byte[rowBytes + 1];
+        }
+
+        out.write(SIGNATURE);
+        byte[] header = new byte[13];
+        putInt(header, 0, width);
+        putInt(header, 4, height);
+        header[8] = 8;
+        header[9] = (byte) (alpha ? COLOR_TYPE_RGBA : COLOR_TYPE_RGB);
+        writeChunk("IHDR", header, 13);
+    }
+
+    // rows rows of width pixels each, stride ints apart
+    public void writeRows(int[] pixels, int offset, int stride, int rows) throws IOException {
+        if (rowsWritten + rows > height) {
+            throw new IllegalStateException("More rows than the image has");
+        }
+        for (int row = 0; row < rows; row++) {
+            unpack(pixels, offset + row * stride);
+            byte[] best = filterRow();
+            deflater.setInput(best, 0, best.length);
+            while (!deflater.needsInput()) {
+                drainDeflater();
+            }
+            System.arraycopy(currentRow, 0, previousRow, 0, currentRow.length);
+            rowsWritten++;
+        }
+    }
+
+    // Writes the rest of the image data and the end chunk. Does not close the stream.
+    public void finish() throws IOException {
+        if (rowsWritten != height) {
+            throw new IllegalStateException("Only " + rowsWritten + " of " + height + " rows written");
+        }
+        deflater.finish();
+        while (!deflater.finished()) {
+            drainDeflater();
+        }
+        deflater.end();
+        writeChunk("IEND", new byte[0], 0);
+        out.flush();
+    }
+
+    private void drainDeflater() throws IOException {
+        int length = deflater.deflate(deflated, 0, deflated.length);
+        if (length > 0) {
+            writeChunk("IDAT", deflated, length);
+        }
+    }
+
+    private void unpack(int[] pixels, int offset) {
+        byte[] row = currentRow;
+        int target = 0;
+        for (int x = 0; x < width; x++) {
+            int pixel = pixels[offset + x];
+            row[target++] = (byte) (pixel >> 16);
+            row[target++] = (byte) (pixel >> 8);
+            row[target++] = (byte) pixel;
+            if (bytesPerPixel == 4) {
+                row[target++] = (byte) (pixel >>> 24);
+            }
+        }
+    }
+
+    private byte[] filterRow() {
+        byte[] row = currentRow;
+        // Still all zeros for the first row, which is what PNG assumes above it
+        byte[] above = previousRow;
+        int length = row.length;
+        byte[] best = null;
+        long bestSum = Long.MAX_VALUE;
+        for (int type = 0; type < FILTER_COUNT; type++) {
+            byte[] target = filtered[type];
+            target[0] = (byte) type;
+            long sum = 0;
+            for (int i = 0; i < length; i++) {
+                int value = row[i] & 0xFF;
+                int left = i >= bytesPerPixel ? row[i - bytesPerPixel] & 0xFF : 0;
+                int up = above[i] & 0xFF;
+                int upLeft = i >= bytesPerPixel ? above[i - bytesPerPixel] & 0xFF : 0;
+                int predicted;
+                switch (type) {
+                    case FILTER_SUB:
+                        predicted = left;
+                        break;
+                    case FILTER_UP:
+                        predicted = up;
+                        break;
+                    case FILTER_AVERAGE:
+                        predicted = (left + up) >> 1;
+                        break;
+                    case FILTER_PAETH:
+                        predicted = paeth(left, up, upLeft);
+                        break;
+                    case FILTER_NONE:
+                    default:
+                        predicted = 0;
+                        break;
+                }
+                byte residual = (byte) (value - predicted);
+                target[i + 1] = residual;
+                // Residuals read as signed, so small steps either way count as small
+                sum += Math.abs((int) residual);
+            }
+            if (sum < bestSum) {
+                bestSum = sum;
+                best = target;
+            }
+        }
+        return best;
+    }
+
+    private static int paeth(int left, int up, int upLeft) {
+        int estimate = left + up - upLeft;
+        int distanceLeft = Math.abs(estimate - left);
+        int distanceUp = Math.abs(estimate - up);
+        int distanceUpLeft = Math.abs(estimate - upLeft);
+        if (distanceLeft <= distanceUp && distanceLeft <= distanceUpLeft) {
+            return left;
+        }
+        return distanceUp <= distanceUpLeft ? up : upLeft;
+    }
+
+    private void writeChunk(String type, byte[] data, int length) throws IOException {
+        byte[] lengthBytes = new byte[4];
+        putInt(lengthBytes, 0, length);
+        out.write(lengthBytes);
+        byte[] typeBytes = type.getBytes("US-ASCII");
+        out.write(typeBytes);
+        out.write(data, 0, length);
+        crc.reset();
+        crc.update(typeBytes);
+        crc.update(data, 0, length);
+        byte[] crcBytes = new byte[4];
+        putInt(crcBytes, 0, (int) crc.getValue());
+        out.write(crcBytes);
+    }
+
+    private static void putInt(byte[] target, int offset, int value) {
+        target[offset] = (byte) (value >>> 24);
+        target[offset + 1] = (byte) (value >>> 16);
+        target[offset + 2] = (byte) (value >>> 8);
+        target[offset + 3] = (byte) value;
+    }
+}
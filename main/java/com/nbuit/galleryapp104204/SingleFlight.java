@@ -0,0 +1,47 @@
+package com.nbuit.galleryapp104204;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+// Blocking single-flight: concurrent callers with the same key share one execution
+// of the loader and all receive its result (or its exception).
+public class SingleFlight<K, V> {
+
+    private final Map<K, FutureTask<V>> inFlight = new HashMap<>();
+
+    public V execute(K key, Callable<V> loader) throws Exception {
+        FutureTask<V> task;
+        boolean owner = false;
+        synchronized (inFlight) {
+            task = inFlight.get(key);
+            if (task == null) {
+                task = new FutureTask<>(loader);
+                inFlight.put(key, task);
+                owner = true;
+            }
+        }
+
+        if (owner) {
+            try {
+                task.run();
+            } finally {
+                synchronized (inFlight) {
+                    inFlight.remove(key);
+                }
+            }
+        }
+
+        try {
+            return task.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,320 @@
+package com.nbuit.galleryapp104204;
+
+import java.util.Arrays;
+
+// Neighbourhood filters over packed ARGB tiles, for FilterEngine.convolve. Every
+// kernel reads an input tile that is halo pixels larger than its output on each side
+// and writes the output tile row by row. All of them are split into a horizontal pass
+// over every input row followed by a vertical pass, with the intermediate rows kept in
+// Scratch arrays that are reused from tile to tile. No Android dependencies.
+public final class SpatialKernels {
+
+    // Above this a Gaussian is approximated by three box blurs, whose cost does not grow with sigma
+    private static final float MAX_EXACT_SIGMA = 3;
+    private static final int GAUSSIAN_BOXES = 3;
+    private static final int WEIGHT_BITS = 14;
+
+    // Slots 0 and 1 are the engine's input and output tiles
+    private static final int SLOT_ROWS = 2;
+    private static final int SLOT_COLUMNS = 3;
+    private static final int SLOT_PASS_A = 4;
+    private static final int SLOT_PASS_B = 5;
+    private static final int SLOT_BLURRED = 6;
+    private static final int SLOT_LUMA = 7;
+    private static final int SLOT_COUNT = 8;
+
+    private SpatialKernels() {
+    }
+
+    // Per-thread buffers, grown on demand and never shrunk
+    public static final class Scratch {
+        private final int[][] buffers = new int[SLOT_COUNT][];
+
+        public int[] get(int slot, int size) {
+            int[] buffer = buffers[slot];
+            if (buffer == null || buffer.length < size) {
+                buffer = new int[size];
+                buffers[slot] = buffer;
+            }
+            return buffer;
+        }
+    }
+
+    // Mean of the (2 * radius + 1)^2 square around every pixel. Both passes keep a
+    // running sum that adds the pixel entering the window and drops the one leaving
+    // it, so the cost per pixel is the same for any radius. Halo is radius.
+    public static void boxBlur(int[] in, int inWidth, int inHeight, int radius, int[] out, Scratch scratch) {
+        int window = 2 * radius + 1;
+        int outWidth = inWidth - 2 * radius;
+        int outHeight = inHeight - 2 * radius;
+
+        // Horizontal window sums of every input row, four ints per pixel
+        int[] rowSums = scratch.get(SLOT_ROWS, outWidth * inHeight * 4);
+        for (int y = 0; y < inHeight; y++) {
+            int row = y * inWidth;
+            int a = 0, r = 0, g = 0, b = 0;
+            for (int x = 0; x < window; x++) {
+                int pixel = in[row + x];
+                a += pixel >>> 24;
+                r += (pixel >> 16) & 0xFF;
+                g += (pixel >> 8) & 0xFF;
+                b += pixel & 0xFF;
+            }
+            int sum = y * outWidth * 4;
+            for (int x = 0; x < outWidth; x++) {
+                rowSums[sum++] = a;
+                rowSums[sum++] = r;
+                rowSums[sum++] = g;
+                rowSums[sum++] = b;
+                if (x + 1 < outWidth) {
+                    int entering = in[row + x + window];
+                    int leaving = in[row + x];
+                    a += (entering >>> 24) - (leaving >>> 24);
+                    r += ((entering >> 16) & 0xFF) - ((leaving >> 16) & 0xFF);
+                    g += ((entering >> 8) & 0xFF) - ((leaving >> 8) & 0xFF);
+                    b += (entering & 0xFF) - (leaving & 0xFF);
+                }
+            }
+        }
+
+        // Vertical window sums, one running total per output column and channel
+        int columnCount = outWidth * 4;
+        int[] columnSums = scratch.get(SLOT_COLUMNS, columnCount);
+        System.arraycopy(rowSums, 0, columnSums, 0, columnCount);
+        for (int y = 1; y < window; y++) {
+            int row = y * columnCount;
+            for (int i = 0; i < columnCount; i++) {
+                columnSums[i] += rowSums[row + i];
+            }
+        }
+        // Fixed point reciprocal of the window area, so a division becomes a multiply
+        long scale = (1L << 32) / ((long) window * window);
+        for (int y = 0; y < outHeight; y++) {
+            int target = y * outWidth;
+            for (int x = 0, i = 0; x < outWidth; x++, i += 4) {
+                out[target + x] = (average(columnSums[i], scale) << 24)
+                        | (average(columnSums[i + 1], scale) << 16)
+                        | (average(columnSums[i + 2], scale) << 8)
+                        | average(columnSums[i + 3], scale);
+            }
+            if (y + 1 < outHeight) {
+                int entering = (y + window) * columnCount;
+                int leaving = y * columnCount;
+                for (int i = 0; i < columnCount; i++) {
+                    columnSums[i] += rowSums[entering + i] - rowSums[leaving + i];
+                }
+            }
+        }
+    }
+
+    private static int average(int sum, long scale) {
+        return (int) ((sum * scale + (1L << 31)) >>> 32);
+    }
+
+    public static int gaussianHalo(float sigma) {
+        if (sigma <= MAX_EXACT_SIGMA) {
+            return (int) Math.ceil(3 * sigma);
+        }
+        int halo = 0;
+        for (int radius : boxRadii(sigma)) {
+            halo += radius;
+        }
+        return halo;
+    }
+
+    // Gaussian blur, halo gaussianHalo(sigma). Small sigmas use the exact kernel,
+    // larger ones three box blurs of matching variance.
+    public static void gaussianBlur(int[] in, int inWidth, int inHeight, float sigma, int[] out, Scratch scratch) {
+        if (sigma <= MAX_EXACT_SIGMA) {
+            exactGaussian(in, inWidth, inHeight, sigma, out, scratch);
+            return;
+        }
+        int[] radii = boxRadii(sigma);
+        int[] source = in;
+        int width = inWidth;
+        int height = inHeight;
+        for (int i = 0; i < radii.length; i++) {
+            int radius = radii[i];
+            int targetWidth = width - 2 * radius;
+            int targetHeight = height - 2 * radius;
+            int[] target = i == radii.length - 1
+                    ? out
+                    : scratch.get(i % 2 == 0 ? SLOT_PASS_A : SLOT_PASS_B, targetWidth * targetHeight);
+            boxBlur(source, width, height, radius, target, scratch);
+            source = target;
+            width = targetWidth;
+            height = targetHeight;
+        }
+    }
+
+    // Box radii whose repeated blur has the variance of the Gaussian, from
+    // Kovesi's "Fast almost-Gaussian filtering"
+    private static int[] boxRadii(float sigma) {
+        double ideal = Math.sqrt(12 * sigma * sigma / GAUSSIAN_BOXES + 1);
+        int lower = (int) Math.floor(ideal);
+        if (lower % 2 == 0) {
+            lower--;
+        }
+        int upper = lower + 2;
+        long lowerCount = Math.round((12 * sigma * sigma - GAUSSIAN_BOXES * lower * lower
+                - 4 * GAUSSIAN_BOXES * lower - 3 * GAUSSIAN_BOXES) / (-4.0 * lower - 4));
+        int[] radii = new int[GAUSSIAN_BOXES];
+        for (int i = 0; i < GAUSSIAN_BOXES; i++) {
+            radii[i] = ((i < lowerCount ? lower : upper) - 1) / 2;
+        }
+        return radii;
+    }
+
+    private static void exactGaussian(int[] in, int inWidth, int inHeight, float sigma, int[] out, Scratch scratch) {
+        int radius = (int) Math.ceil(3 * sigma);
+        int[] weights = gaussianWeights(sigma, radius);
+        int taps = weights.length;
+        int outWidth = inWidth - 2 * radius;
+        int outHeight = inHeight - 2 * radius;
+
+        // Horizontal pass, kept with 8 extra bits so the vertical pass rounds only once
+        int shift = WEIGHT_BITS - 8;
+        int[] rows = scratch.get(SLOT_ROWS, outWidth * inHeight * 4);
+        for (int y = 0; y < inHeight; y++) {
+            int row = y * inWidth;
+            int target = y * outWidth * 4;
+            for (int x = 0; x < outWidth; x++) {
+                int a = 0, r = 0, g = 0, b = 0;
+                for (int k = 0; k < taps; k++) {
+                    int pixel = in[row + x + k];
+                    int weight = weights[k];
+                    a += (pixel >>> 24) * weight;
+                    r += ((pixel >> 16) & 0xFF) * weight;
+                    g += ((pixel >> 8) & 0xFF) * weight;
+                    b += (pixel & 0xFF) * weight;
+                }
+                rows[target++] = (a + (1 << (shift - 1))) >> shift;
+                rows[target++] = (r + (1 << (shift - 1))) >> shift;
+                rows[target++] = (g + (1 << (shift - 1))) >> shift;
+                rows[target++] = (b + (1 << (shift - 1))) >> shift;
+            }
+        }
+
+        // Vertical pass, walking the rows in order and accumulating into column sums
+        int columnCount = outWidth * 4;
+        int[] sums = scratch.get(SLOT_COLUMNS, columnCount);
+        int bits = WEIGHT_BITS + 8;
+        int round = 1 << (bits - 1);
+        for (int y = 0; y < outHeight; y++) {
+            Arrays.fill(sums, 0, columnCount, round);
+            for (int k = 0; k < taps; k++) {
+                int row = (y + k) * columnCount;
+                int weight = weights[k];
+                for (int i = 0; i < columnCount; i++) {
+                    sums[i] += rows[row + i] * weight;
+                }
+            }
+            int target = y * outWidth;
+            for (int x = 0, i = 0; x < outWidth; x++, i += 4) {
+                out[target + x] = (clamp(sums[i] >> bits) << 24)
+                        | (clamp(sums[i + 1] >> bits) << 16)
+                        | (clamp(sums[i + 2] >> bits) << 8)
+                        | clamp(sums[i + 3] >> bits);
+            }
+        }
+    }
+
+    // Integer weights summing to exactly 1 << WEIGHT_BITS
+    private static int[] gaussianWeights(float sigma, int radius) {
+        double[] exact = new double[2 * radius + 1];
+        double total = 0;
+        for (int i = -radius; i <= radius; i++) {
+            exact[i + radius] = Math.exp(-(i * i) / (2.0 * sigma * sigma));
+            total += exact[i + radius];
+        }
+        int[] weights = new int[exact.length];
+        int sum = 0;
+        for (int i = 0; i < exact.length; i++) {
+            weights[i] = (int) Math.round(exact[i] / total * (1 << WEIGHT_BITS));
+            sum += weights[i];
+        }
+        weights[radius] += (1 << WEIGHT_BITS) - sum;
+        return weights;
+    }
+
+    // Adds amount times the difference from a Gaussian blur to every channel whose
+    // difference is at least threshold. Halo gaussianHalo(sigma).
+    public static void unsharpMask(int[] in, int inWidth, int inHeight, float sigma, float amount,
+                                   int threshold, int[] out, Scratch scratch) {
+        int halo = gaussianHalo(sigma);
+        int outWidth = inWidth - 2 * halo;
+        int outHeight = inHeight - 2 * halo;
+        int[] blurred = scratch.get(SLOT_BLURRED, outWidth * outHeight);
+        gaussianBlur(in, inWidth, inHeight, sigma, blurred, scratch);
+
+        int amountFixed = Math.round(amount * 256);
+        for (int y = 0; y < outHeight; y++) {
+            int source = (y + halo) * inWidth + halo;
+            int target = y * outWidth;
+            for (int x = 0; x < outWidth; x++) {
+                int pixel = in[source + x];
+                int blur = blurred[target + x];
+                out[target + x] = (pixel & 0xFF000000)
+                        | (sharpen((pixel >> 16) & 0xFF, (blur >> 16) & 0xFF, amountFixed, threshold) << 16)
+                        | (sharpen((pixel >> 8) & 0xFF, (blur >> 8) & 0xFF, amountFixed, threshold) << 8)
+                        | sharpen(pixel & 0xFF, blur & 0xFF, amountFixed, threshold);
+            }
+        }
+    }
+
+    private static int sharpen(int value, int blurred, int amountFixed, int threshold) {
+        int difference = value - blurred;
+        if (Math.abs(difference) < threshold) {
+            return value;
+        }
+        return clamp(value + ((difference * amountFixed + 128) >> 8));
+    }
+
+    // Sobel gradient magnitude of the luma as a grey image, keeping alpha. The 3x3
+    // Sobel kernels are separable: a horizontal [1 2 1] smooth and [-1 0 1] difference,
+    // then the vertical counterparts. Halo 1.
+    public static void edgeDetect(int[] in, int inWidth, int inHeight, int[] out, Scratch scratch) {
+        int outWidth = inWidth - 2;
+        int outHeight = inHeight - 2;
+
+        int[] luma = scratch.get(SLOT_LUMA, inWidth * inHeight);
+        int pixelCount = inWidth * inHeight;
+        for (int i = 0; i < pixelCount; i++) {
+            int pixel = in[i];
+            luma[i] = (((pixel >> 16) & 0xFF) * 77 + ((pixel >> 8) & 0xFF) * 150 + (pixel & 0xFF) * 29) >> 8;
+        }
+
+        // Smooth and difference of every row, interleaved
+        int[] rows = scratch.get(SLOT_ROWS, outWidth * inHeight * 2);
+        for (int y = 0; y < inHeight; y++) {
+            int row = y * inWidth;
+            int target = y * outWidth * 2;
+            for (int x = 0; x < outWidth; x++) {
+                int left = luma[row + x];
+                int center = luma[row + x + 1];
+                int right = luma[row + x + 2];
+                rows[target++] = left + 2 * center + right;
+                rows[target++] = right - left;
+            }
+        }
+
+        int rowLength = outWidth * 2;
+        for (int y = 0; y < outHeight; y++) {
+            int above = y * rowLength;
+            int middle = above + rowLength;
+            int below = middle + rowLength;
+            int source = (y + 1) * inWidth + 1;
+            int target = y * outWidth;
+            for (int x = 0, i = 0; x < outWidth; x++, i += 2) {
+                int gradientX = rows[above + i + 1] + 2 * rows[middle + i + 1] + rows[below + i + 1];
+                int gradientY = rows[below + i] - rows[above + i];
+                int magnitude = clamp((Math.abs(gradientX) + Math.abs(gradientY)) >> 2);
+                out[target + x] = (in[source + x] & 0xFF000000) | (magnitude << 16) | (magnitude << 8) | magnitude;
+            }
+        }
+    }
+
+    private static int clamp(int value) {
+        return value < 0 ? 0 : (value > 255 ? 255 : value);
+    }
+}
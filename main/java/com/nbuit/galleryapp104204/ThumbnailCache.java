@@ -0,0 +1,257 @@
+package com.nbuit.galleryapp104204;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class ThumbnailCache {
+
+    // Thumbnails are requested in multiples of this, so cells of similar size share them
+    public static final int SIZE_STEP = 32;
+
+    private static final long DISK_CACHE_BYTES = 64L * 1024 * 1024;
+    // JPEG quality; thumbnails with alpha are written as PNG, which ignores it
+    private static final int DISK_QUALITY = 90;
+    private static final String PREFS_NAME = "thumbnail_cache";
+    private static final String KEY_DISK_SIZES = "disk_sizes";
+
+    private static ThumbnailCache instance;
+
+    private final LruCache<String, Bitmap> memoryCache;
+    private final DiskCache diskCache;
+    private final SharedPreferences preferences;
+    // Every size ever written to disk. The grid only asks for a handful, one per span
+    // count and orientation, so these are all a changed image can have on disk.
+    private final Set<Integer> diskSizes = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+
+    // Bitmaps currently shown by a grid cell, with the number of cells showing them.
+    // An evicted bitmap only goes back to the pool once no cell shows it any more.
+    private final Map<Bitmap, Integer> inUse = new IdentityHashMap<>();
+    private final Set<Bitmap> evictedInUse = Collections.newSetFromMap(new IdentityHashMap<Bitmap, Boolean>());
+
+    private final AtomicLong memoryHits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public static synchronized ThumbnailCache getInstance(Context context) {
+        if (instance == null) {
+            instance = new ThumbnailCache(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private ThumbnailCache(Context context) {
+        int memoryBytes = (int) Math.min(Runtime.getRuntime().maxMemory() / 8, Integer.MAX_VALUE);
+        memoryCache = new LruCache<String, Bitmap>(memoryBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getAllocationByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String key, Bitmap oldValue, Bitmap newValue) {
+                if (oldValue != newValue) {
+                    recycleWhenUnused(oldValue);
+                }
+            }
+        };
+        diskCache = new DiskCache(new File(context.getCacheDir(), "thumbnails"), DISK_CACHE_BYTES);
+        preferences = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        for (String size : preferences.getStringSet(KEY_DISK_SIZES, Collections.<String>emptySet())) {
+            diskSizes.add(Integer.parseInt(size));
+        }
+    }
+
+    public static String keyFor(Uri uri, int targetSize) {
+        return uri + "@" + targetSize;
+    }
+
+    // Safe to call from the main thread, never touches the disk.
+    public Bitmap getFromMemory(Uri uri, int targetSize) {
+        Bitmap bitmap = memoryCache.get(keyFor(uri, targetSize));
+        if (bitmap != null) {
+            memoryHits.incrementAndGet();
+        }
+        return bitmap;
+    }
+
+    // Does not count towards the hit statistics, for prefetching.
+    public boolean isInMemory(Uri uri, int targetSize) {
+        return memoryCache.get(keyFor(uri, targetSize)) != null;
+    }
+
+    // Called from a worker thread after a memory miss. The result is not added to the
+    // memory tier here; the caller does that on the main thread via putInMemory().
+    public Bitmap getFromDisk(Uri uri, int targetSize) {
+        String key = keyFor(uri, targetSize);
+        File file = diskCache.get(key);
+        if (file != null) {
+            Bitmap bitmap = null;
+            try {
+                bitmap = BitmapDecoder.decodeSampled(() -> new FileInputStream(file), targetSize, false);
+            } catch (IOException e) {
+                Log.e("ThumbnailCache", "Error reading thumbnail from disk", e);
+            }
+            if (bitmap != null) {
+                diskHits.incrementAndGet();
+                return bitmap;
+            }
+            diskCache.remove(key);
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    // Main thread only, so an eviction can never race with a cell starting to show the bitmap.
+    public void putInMemory(Uri uri, int targetSize, Bitmap bitmap) {
+        memoryCache.put(keyFor(uri, targetSize), bitmap);
+    }
+
+    public void putOnDisk(Uri uri, int targetSize, Bitmap bitmap) {
+        if (!diskSizes.contains(targetSize)) {
+            recordDiskSize(targetSize);
+        }
+        writeToDisk(keyFor(uri, targetSize), bitmap);
+    }
+
+    // Recorded before the file is written, so a crash cannot leave it untracked. Locks
+    // diskSizes rather than this, so cells acquiring bitmaps never wait on the write.
+    private void recordDiskSize(int targetSize) {
+        synchronized (diskSizes) {
+            if (diskSizes.add(targetSize)) {
+                Set<String> sizes = new HashSet<>();
+                for (int size : diskSizes) {
+                    sizes.add(Integer.toString(size));
+                }
+                preferences.edit().putStringSet(KEY_DISK_SIZES, sizes).commit();
+            }
+        }
+    }
+
+    // Main thread. Drops every size cached for an image that changed or is gone; cells
+    // still showing one keep it until they are rebound.
+    public void removeFromMemory(Uri uri) {
+        String prefix = uri + "@";
+        for (String key : memoryCache.snapshot().keySet()) {
+            if (key.startsWith(prefix)) {
+                memoryCache.remove(key);
+            }
+        }
+    }
+
+    // Worker thread. Disk entries are stored under hashed keys, so each size that has
+    // ever been written is tried.
+    public void removeFromDisk(Uri uri) {
+        for (int size : diskSizes) {
+            diskCache.remove(keyFor(uri, size));
+        }
+    }
+
+    public synchronized void acquire(Bitmap bitmap) {
+        Integer count = inUse.get(bitmap);
+        inUse.put(bitmap, count == null ? 1 : count + 1);
+    }
+
+    public synchronized void release(Bitmap bitmap) {
+        Integer count = inUse.get(bitmap);
+        if (count == null) {
+            return;
+        }
+        if (count > 1) {
+            inUse.put(bitmap, count - 1);
+            return;
+        }
+        inUse.remove(bitmap);
+        if (evictedInUse.remove(bitmap)) {
+            BitmapPool.getInstance().put(bitmap);
+        }
+    }
+
+    private synchronized void recycleWhenUnused(Bitmap bitmap) {
+        if (inUse.containsKey(bitmap)) {
+            evictedInUse.add(bitmap);
+        } else {
+            BitmapPool.getInstance().put(bitmap);
+        }
+    }
+
+    private void writeToDisk(String key, Bitmap bitmap) {
+        File tempFile = null;
+        try {
+            tempFile = diskCache.newTempFile();
+            Bitmap.CompressFormat format = bitmap.hasAlpha()
+                    ? Bitmap.CompressFormat.PNG
+                    : Bitmap.CompressFormat.JPEG;
+            try (OutputStream outputStream = new FileOutputStream(tempFile)) {
+                bitmap.compress(format, DISK_QUALITY, outputStream);
+            }
+            diskCache.commit(key, tempFile);
+        } catch (Exception e) {
+            Log.e("ThumbnailCache", "Error writing thumbnail to disk", e);
+            if (tempFile != null) {
+                tempFile.delete();
+            }
+        }
+    }
+
+    public void trimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            memoryCache.evictAll();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+            memoryCache.trimToSize(memoryCache.maxSize() / 2);
+        }
+    }
+
+    public long getMemoryHitCount() {
+        return memoryHits.get();
+    }
+
+    public long getDiskHitCount() {
+        return diskHits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public int getMemoryBytes() {
+        return memoryCache.size();
+    }
+
+    public int getMemoryBudgetBytes() {
+        return memoryCache.maxSize();
+    }
+
+    public long getDiskBytes() {
+        return diskCache.size();
+    }
+
+    public long getDiskBudgetBytes() {
+        return diskCache.getMaxBytes();
+    }
+
+    public String getStats() {
+        return "memory hits=" + getMemoryHitCount()
+                + ", disk hits=" + getDiskHitCount()
+                + ", misses=" + getMissCount()
+                + ", memory=" + getMemoryBytes() + "/" + getMemoryBudgetBytes()
+                + ", disk=" + getDiskBytes() + "/" + getDiskBudgetBytes();
+    }
+}
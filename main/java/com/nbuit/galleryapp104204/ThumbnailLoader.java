@@ -0,0 +1,72 @@
+package com.nbuit.galleryapp104204;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.net.Uri;
+
+import java.io.File;
+import java.io.FileInputStream;
+
+public class ThumbnailLoader {
+
+    private final Context context;
+    private final ThumbnailCache cache;
+    private final ImageFetcher imageFetcher;
+
+    public ThumbnailLoader(Context context) {
+        this.context = context.getApplicationContext();
+        this.cache = ThumbnailCache.getInstance(context);
+        this.imageFetcher = ImageFetcher.getInstance(context);
+    }
+
+    public Bitmap getCached(Uri uri, int targetSize) {
+        return cache.getFromMemory(uri, targetSize);
+    }
+
+    public boolean isCached(Uri uri, int targetSize) {
+        return cache.isInMemory(uri, targetSize);
+    }
+
+    public static String requestKey(Uri uri, int targetSize) {
+        return ThumbnailCache.keyFor(uri, targetSize);
+    }
+
+    // Runs on a decode thread: disk tier first, then the original image. Pass the
+    // result to deliver() on the main thread.
+    public Bitmap load(Uri uri, int targetSize, boolean remote, int fetchPriority) throws Exception {
+        Bitmap bitmap = cache.getFromDisk(uri, targetSize);
+        if (bitmap != null) {
+            return bitmap;
+        }
+
+        bitmap = remote ? decodeRemote(uri, targetSize, fetchPriority) : decodeLocal(uri, targetSize);
+        if (bitmap != null) {
+            cache.putOnDisk(uri, targetSize, bitmap);
+        }
+        return bitmap;
+    }
+
+    public void deliver(Uri uri, int targetSize, Bitmap bitmap) {
+        cache.putInMemory(uri, targetSize, bitmap);
+    }
+
+    // A cell calls acquire() when it starts showing a thumbnail and release() when it
+    // stops, so evicted thumbnails are only recycled into the pool once off screen.
+    public void acquire(Bitmap bitmap) {
+        cache.acquire(bitmap);
+    }
+
+    public void release(Bitmap bitmap) {
+        cache.release(bitmap);
+    }
+
+    private Bitmap decodeLocal(Uri uri, int targetSize) throws Exception {
+        return BitmapDecoder.decodeSampled(
+                () -> context.getContentResolver().openInputStream(uri), targetSize, true);
+    }
+
+    private Bitmap decodeRemote(Uri uri, int targetSize, int fetchPriority) throws Exception {
+        File file = imageFetcher.fetch(uri.toString(), fetchPriority).file;
+        return BitmapDecoder.decodeSampled(() -> new FileInputStream(file), targetSize, true);
+    }
+}
@@ -0,0 +1,156 @@
+package com.nbuit.galleryapp104204;
+
+import android.graphics.Bitmap;
+import android.os.SystemClock;
+import android.view.View;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.GridLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Future;
+
+public class ThumbnailPrefetcher extends RecyclerView.OnScrollListener {
+
+    private static final int MIN_ROWS_AHEAD = 1;
+    private static final int MAX_ROWS_AHEAD = 8;
+    private static final long MAX_SAMPLE_GAP_MILLIS = 100;
+    private static final float VELOCITY_SMOOTHING = 0.3f;
+
+    private final GalleriesAdapter adapter;
+    private final List<Future<Bitmap>> pendingPrefetches = new ArrayList<>();
+
+    private int direction;
+    private int prefetchedUntil = RecyclerView.NO_POSITION;
+    private long lastScrollTime;
+    private float velocityPxPerMs;
+
+    public ThumbnailPrefetcher(GalleriesAdapter adapter) {
+        this.adapter = adapter;
+    }
+
+    public static ThumbnailPrefetcher attach(RecyclerView recyclerView, GalleriesAdapter adapter) {
+        ThumbnailPrefetcher prefetcher = new ThumbnailPrefetcher(adapter);
+        recyclerView.addOnScrollListener(prefetcher);
+        return prefetcher;
+    }
+
+    public void detach(RecyclerView recyclerView) {
+        recyclerView.removeOnScrollListener(this);
+        cancelPending();
+    }
+
+    @Override
+    public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+        if (dy == 0 || !(recyclerView.getLayoutManager() instanceof GridLayoutManager)) {
+            return;
+        }
+        GridLayoutManager layoutManager = (GridLayoutManager) recyclerView.getLayoutManager();
+
+        int newDirection = dy > 0 ? 1 : -1;
+        if (newDirection != direction) {
+            // Everything queued lies behind the user now
+            cancelPending();
+            direction = newDirection;
+            prefetchedUntil = RecyclerView.NO_POSITION;
+            velocityPxPerMs = 0;
+        }
+        updateVelocity(Math.abs(dy));
+
+        int firstVisible = layoutManager.findFirstVisibleItemPosition();
+        int lastVisible = layoutManager.findLastVisibleItemPosition();
+        View firstChild = layoutManager.getChildAt(0);
+        if (firstVisible == RecyclerView.NO_POSITION || firstChild == null) {
+            return;
+        }
+
+        int spanCount = layoutManager.getSpanCount();
+        int itemsAhead = rowsAhead(firstChild.getHeight()) * spanCount;
+        int itemCount = adapter.getItemCount();
+
+        int from;
+        int to;
+        if (direction > 0) {
+            from = Math.max(lastVisible, prefetchedUntil) + 1;
+            to = Math.min(itemCount - 1, lastVisible + itemsAhead);
+        } else {
+            from = Math.max(0, firstVisible - itemsAhead);
+            to = (prefetchedUntil == RecyclerView.NO_POSITION ? firstVisible : Math.min(firstVisible, prefetchedUntil)) - 1;
+        }
+        if (from > to) {
+            return;
+        }
+
+        pruneFinished();
+        // Requests of equal priority run newest first, so queue the farthest cell first
+        if (direction > 0) {
+            for (int position = to; position >= from; position--) {
+                prefetch(position);
+            }
+            prefetchedUntil = to;
+        } else {
+            for (int position = from; position <= to; position++) {
+                prefetch(position);
+            }
+            prefetchedUntil = from;
+        }
+    }
+
+    @Override
+    public void onScrollStateChanged(@NonNull RecyclerView recyclerView, int newState) {
+        if (newState == RecyclerView.SCROLL_STATE_IDLE) {
+            velocityPxPerMs = 0;
+        }
+    }
+
+    public void cancelPending() {
+        DecodeScheduler scheduler = DecodeScheduler.getInstance();
+        for (Future<Bitmap> prefetch : pendingPrefetches) {
+            scheduler.cancel(prefetch);
+        }
+        pendingPrefetches.clear();
+    }
+
+    private void prefetch(int position) {
+        Future<Bitmap> prefetch = adapter.prefetchThumbnail(position);
+        if (prefetch != null) {
+            pendingPrefetches.add(prefetch);
+        }
+    }
+
+    private void updateVelocity(int distance) {
+        long now = SystemClock.uptimeMillis();
+        long elapsed = now - lastScrollTime;
+        lastScrollTime = now;
+        if (elapsed <= 0 || elapsed > MAX_SAMPLE_GAP_MILLIS) {
+            return;
+        }
+        float sample = (float) distance / elapsed;
+        velocityPxPerMs += VELOCITY_SMOOTHING * (sample - velocityPxPerMs);
+    }
+
+    // Look far enough ahead that the rows reaching the screen within one measured
+    // decode latency are already queued, plus one row of slack.
+    private int rowsAhead(int rowHeight) {
+        if (rowHeight <= 0) {
+            return MIN_ROWS_AHEAD;
+        }
+        DecodeScheduler scheduler = DecodeScheduler.getInstance();
+        float rowsPerMs = velocityPxPerMs / rowHeight;
+        float latencyMs = scheduler.getAverageDecodeMillis();
+        int rows = (int) Math.ceil(rowsPerMs * latencyMs) + MIN_ROWS_AHEAD;
+        return Math.max(MIN_ROWS_AHEAD, Math.min(MAX_ROWS_AHEAD, rows));
+    }
+
+    private void pruneFinished() {
+        Iterator<Future<Bitmap>> iterator = pendingPrefetches.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().isDone()) {
+                iterator.remove();
+            }
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.nbuit.galleryapp104204;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+import android.os.CancellationSignal;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+// Renders a recipe over images too large to hold in memory. The source is read one
+// region at a time with BitmapRegionDecoder, each region is widened by the pipeline's
+// halo so blurs see the same neighbours they would on the whole image, and the
+// finished rows are streamed into a PNG band by band. Peak memory depends on the tile
+// size and the image width, never on the image height.
+public class TiledRenderer {
+
+    private static final int TILE_SIZE = 1024;
+    // Caps the band of finished rows held for the encoder
+    private static final int MAX_BAND_PIXELS = 4 * 1024 * 1024;
+    private static final int MIN_BAND_ROWS = 16;
+    private static final int PNG_COMPRESSION = 6;
+
+    public interface ProgressListener {
+        // Worker thread, after each band of rows is written
+        void onProgress(int rowsWritten, int totalRows);
+    }
+
+    // Worker thread. Throws OperationCanceledException if the signal is cancelled.
+    public static void renderToPng(BitmapDecoder.StreamOpener source, FilterPipeline pipeline,
+                                   OutputStream out, CancellationSignal signal,
+                                   ProgressListener listener) throws IOException {
+        BitmapRegionDecoder decoder = BitmapDecoder.newRegionDecoder(source);
+        if (decoder == null) {
+            throw new IOException("Unsupported image format");
+        }
+        try {
+            // Decided before the first band, since transparency may only start further
+            // down. Any format that can carry alpha is written as RGBA.
+            boolean alpha = canHaveAlpha(BitmapDecoder.decodeBounds(source).outMimeType);
+            int width = decoder.getWidth();
+            int height = decoder.getHeight();
+            int halo = pipeline.halo(1);
+            int bandRows = Math.max(MIN_BAND_ROWS, Math.min(TILE_SIZE, MAX_BAND_PIXELS / width));
+            int[] band = new int[width * bandRows];
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+
+            PngStreamWriter writer = new PngStreamWriter(out, width, height, alpha, PNG_COMPRESSION);
+            for (int top = 0; top < height; top += bandRows) {
+                int rows = Math.min(bandRows, height - top);
+                for (int left = 0; left < width; left += TILE_SIZE) {
+                    int columns = Math.min(TILE_SIZE, width - left);
+                    if (signal != null) {
+                        signal.throwIfCanceled();
+                    }
+                    renderTile(decoder, options, pipeline, signal, halo,
+                            new Rect(left, top, left + columns, top + rows), band, width);
+                }
+                writer.writeRows(band, 0, width, rows);
+                if (listener != null) {
+                    listener.onProgress(top + rows, height);
+                }
+            }
+            writer.finish();
+        } finally {
+            decoder.recycle();
+        }
+    }
+
+    // Decodes tile plus halo, runs the pipeline over it and copies the tile's part of
+    // the result into band.
+    private static void renderTile(BitmapRegionDecoder decoder, BitmapFactory.Options options,
+                                      FilterPipeline pipeline, CancellationSignal signal, int halo,
+                                      Rect tile, int[] band, int bandWidth) {
+        // Clipped at the image edges, where the pipeline clamps just like on the whole image
+        Rect region = new Rect(
+                Math.max(0, tile.left - halo),
+                Math.max(0, tile.top - halo),
+                Math.min(decoder.getWidth(), tile.right + halo),
+                Math.min(decoder.getHeight(), tile.bottom + halo));
+        Bitmap decoded = decoder.decodeRegion(region, options);
+        if (decoded == null) {
+            throw new IllegalStateException("Could not decode " + region);
+        }
+        Bitmap rendered = null;
+        try {
+            rendered = pipeline.process(decoded, 1, signal, null);
+            rendered.getPixels(band, tile.left, bandWidth,
+                    tile.left - region.left, tile.top - region.top, tile.width(), tile.height());
+        } finally {
+            BitmapPool.getInstance().put(rendered);
+            BitmapPool.getInstance().put(decoded);
+        }
+    }
+
+    // JPEG is the only format the region decoder reads that never has transparency
+    private static boolean canHaveAlpha(String mimeType) {
+        return !"image/jpeg".equals(mimeType);
+    }
+}